@@ -0,0 +1,105 @@
+package org.ucentralasia.customer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.ucentralasia.Main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bulk registration path, {@link CustomerDao#insertCustomers} over chunks of {@code chunkSize}, against one
+ * {@link CustomerDao#insertCustomer} per row, both writing the same number of new customers per invocation. Scores
+ * are rows per second. Connects to the datasource from application.yaml, like {@link CustomerDaoBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerBulkInsertBenchmark {
+
+    private static final int ROWS = 2_000;
+    private static final String EMAIL_PREFIX = "bulk-benchmark-";
+
+    @Param({"jdbc", "jpa"})
+    private String implementation;
+
+    // the customer.bulk.chunk-size default
+    @Param({"500"})
+    private int chunkSize;
+
+    private ConfigurableApplicationContext context;
+    private CustomerDao customerDao;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Main.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false",
+                        "--customer.cache.invalidation.enabled=false",
+                        "--logging.level.root=WARN");
+        customerDao = context.getBean(implementation, CustomerDao.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteInserted() {
+        jdbcTemplate.update("DELETE FROM customer WHERE email LIKE ?", EMAIL_PREFIX + "%");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private static List<Customer> newCustomers(int count) {
+        List<Customer> customers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            customers.add(new Customer("Benchmark " + i, EMAIL_PREFIX + UUID.randomUUID() + "@example.com", 30));
+        }
+        return customers;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int insertCustomersInChunks() {
+        int inserted = 0;
+        for (int from = 0; from < ROWS; from += chunkSize) {
+            for (int updateCount : customerDao.insertCustomers(newCustomers(Math.min(chunkSize, ROWS - from)))) {
+                inserted += updateCount;
+            }
+        }
+        return inserted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int insertCustomerOneByOne() {
+        int inserted = 0;
+        for (Customer customer : newCustomers(ROWS)) {
+            inserted += customerDao.insertCustomer(customer) ? 1 : 0;
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,95 @@
+package org.ucentralasia.customer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.ucentralasia.Main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JDBC against JPA on the same database. Connects to the datasource from application.yaml; point it elsewhere
+ * with -Djmh.args="CustomerDaoBenchmark -jvmArgs -Dspring.datasource.url=...".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerDaoBenchmark {
+
+    private static final int CUSTOMERS = 1_000;
+
+    @Param({"jdbc", "jpa"})
+    private String implementation;
+
+    private ConfigurableApplicationContext context;
+    private CustomerDao customerDao;
+    private final List<Customer> customers = new ArrayList<>(CUSTOMERS);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Main.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.show-sql=false",
+                        "--customer.cache.invalidation.enabled=false",
+                        "--logging.level.root=WARN");
+        customerDao = context.getBean(implementation, CustomerDao.class);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer("Benchmark " + i, "benchmark-" + UUID.randomUUID() + "@example.com", 30);
+            customerDao.insertCustomer(customer);
+            customers.add(customer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        customers.forEach(customer -> customerDao.deleteCustomerById(customer.getId()));
+        context.close();
+    }
+
+    private Customer randomCustomer() {
+        return customers.get(ThreadLocalRandom.current().nextInt(CUSTOMERS));
+    }
+
+    @Benchmark
+    public Object selectCustomerById() {
+        return customerDao.selectCustomerById(randomCustomer().getId());
+    }
+
+    @Benchmark
+    public List<Customer> selectPageOf100() {
+        return customerDao.selectCustomersAfterId(customers.get(0).getId() - 1, 100);
+    }
+
+    @Benchmark
+    public boolean updateCustomerWithChange() {
+        Customer customer = randomCustomer();
+        return customerDao.updateCustomer(new Customer(
+                customer.getId(), null, null, ThreadLocalRandom.current().nextInt(18, 99)));
+    }
+
+    @Benchmark
+    public boolean updateCustomerWithoutChange() {
+        Customer customer = randomCustomer();
+        return customerDao.updateCustomer(new Customer(customer.getId(), customer.getName(), null, null));
+    }
+}
@@ -0,0 +1,110 @@
+package org.ucentralasia.customer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson cost of the two ways customers leave the service: a JSON array for pages and NDJSON for the export,
+ * with the reflective bean serializer and with {@link CustomerJsonSerializer}. Run with
+ * {@code -Djmh.args="CustomerJsonBenchmark -prof gc"} to compare gc.alloc.rate.norm, the bytes allocated per
+ * call, alongside the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerJsonBenchmark {
+
+    @Param({"100", "10000"})
+    private int size;
+
+    @Param({"bean", "handwritten"})
+    private String serializer;
+
+    private ObjectMapper objectMapper;
+    private CustomerJsonSerializer customerJsonSerializer;
+    private List<Customer> customers;
+
+    @Setup
+    public void setUp() {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (serializer.equals("handwritten")) {
+            customerJsonSerializer = new CustomerJsonSerializer();
+            builder.serializers(customerJsonSerializer);
+        }
+        objectMapper = builder.build();
+        customers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            customers.add(new Customer((long) i, "Customer " + i, "customer" + i + "@example.com", 20 + i % 60));
+        }
+    }
+
+    /**
+     * Writes to a stream like the message converter does, so the score is the serializer and not a copy into a
+     * byte array.
+     */
+    @Benchmark
+    public long serializeList() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        objectMapper.writeValue(out, customers);
+        return out.count;
+    }
+
+    /**
+     * The bean variant is the export as it was, one {@code ObjectWriter#writeValue} per row; the handwritten one
+     * is {@code CustomerController#exportCustomers}.
+     */
+    @Benchmark
+    public long serializeNdjson() throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(Customer.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        CountingOutputStream out = new CountingOutputStream();
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            for (Customer customer : customers) {
+                if (customerJsonSerializer == null) {
+                    writer.writeValue(generator, customer);
+                } else {
+                    customerJsonSerializer.write(customer, generator);
+                }
+                generator.writeRaw('\n');
+            }
+        }
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.ucentralasia.customer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link CustomerRowMapper#mapRow} on an in-memory row, without any driver I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerRowMapperBenchmark {
+
+    private final CustomerRowMapper customerRowMapper = new CustomerRowMapper();
+    private CachedRowSet resultSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(6);
+        String[] names = {"id", "name", "email", "age", "version", "updated_at"};
+        int[] types = {Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.TIMESTAMP};
+        for (int i = 0; i < names.length; i++) {
+            metaData.setColumnName(i + 1, names[i]);
+            metaData.setColumnType(i + 1, types[i]);
+        }
+        resultSet = RowSetProvider.newFactory().createCachedRowSet();
+        resultSet.setMetaData(metaData);
+        resultSet.moveToInsertRow();
+        resultSet.updateLong(1, 42L);
+        resultSet.updateString(2, "Alex Smith");
+        resultSet.updateString(3, "alex.smith@example.com");
+        resultSet.updateInt(4, 31);
+        resultSet.updateLong(5, 3L);
+        resultSet.updateTimestamp(6, Timestamp.from(Instant.parse("2024-01-01T00:00:00Z")));
+        resultSet.insertRow();
+        resultSet.moveToCurrentRow();
+        resultSet.beforeFirst();
+        resultSet.next();
+    }
+
+    @Benchmark
+    public Customer mapRow() throws SQLException {
+        return customerRowMapper.mapRow(resultSet, 1);
+    }
+}
@@ -0,0 +1,66 @@
+package org.ucentralasia.customer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ucentralasia.customer.exception.RequestValidationException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CustomerService#updateCustomer} over an in-memory DAO. The unchanged case is the expensive one: it
+ * needs a second lookup to tell "no changes" from "not found" and ends in an exception.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerServiceBenchmark {
+
+    private CustomerService customerService;
+    private long id;
+    private int age;
+
+    @Setup
+    public void setUp() {
+        InMemoryCustomerDao customerDao = new InMemoryCustomerDao();
+        CustomerEmailFilter customerEmailFilter = new CustomerEmailFilter(
+                customerDao, Runnable::run, new SimpleMeterRegistry(), 1_000, 0.01, Duration.ZERO);
+        CustomerStatistics customerStatistics = new CustomerStatistics(
+                null, null, new SimpleMeterRegistry(), Duration.ofMinutes(5));
+        CustomerWriteBehindQueue writeBehindQueue = new CustomerWriteBehindQueue(
+                customerDao, new SimpleMeterRegistry(), false, null, Duration.ofMillis(200), 500);
+        customerService = new CustomerService(customerDao, customerEmailFilter, customerStatistics, writeBehindQueue, null,
+                new CustomerEventBus(new ObjectMapper(), 256, Duration.ofMinutes(30), Runnable::run, Runnable::run), 500, 3);
+        Customer customer = new Customer("Alex Smith", "alex.smith@example.com", 31);
+        customerDao.insertCustomer(customer);
+        id = customer.getId();
+    }
+
+    @Benchmark
+    public void updateChangedAge() {
+        customerService.updateCustomer(id, new CustomerUpdateRequest(null, null, ++age));
+    }
+
+    @Benchmark
+    public Object updateWithoutChanges() {
+        try {
+            customerService.updateCustomer(id, new CustomerUpdateRequest("Alex Smith", null, null));
+            return null;
+        } catch (RequestValidationException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.ucentralasia.customer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Map-backed {@link CustomerDao} with the same write semantics as the JDBC one, so service benchmarks measure
+ * the service and not the database.
+ */
+class InMemoryCustomerDao implements CustomerDao {
+
+    private final ConcurrentSkipListMap<Long, Customer> customers = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> idsByEmail = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public List<Customer> selectAllCustomers() {
+        return new ArrayList<>(customers.values());
+    }
+
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        return customers.tailMap(id, false).values().stream().limit(limit).toList();
+    }
+
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return CustomerPage.version(selectCustomersAfterId(id, limit));
+    }
+
+    @Override
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        Comparator<Customer> order = search.sort().byAge()
+                ? Comparator.comparing(Customer::getAge).thenComparing(Customer::getId)
+                : Comparator.comparing(Customer::getId);
+        if (search.sort().descending()) {
+            order = order.reversed();
+        }
+        Customer after = search.after() == null
+                ? null
+                : new Customer(search.after().id(), null, null, search.after().age());
+        Comparator<Customer> keyset = order;
+        return customers.values().stream()
+                .filter(c -> search.emailPrefix() == null
+                        || c.getEmail().toLowerCase(Locale.ROOT).startsWith(search.emailPrefix().toLowerCase(Locale.ROOT)))
+                .filter(c -> search.name() == null
+                        || c.getName().toLowerCase(Locale.ROOT).contains(search.name().toLowerCase(Locale.ROOT)))
+                .filter(c -> search.minAge() == null || c.getAge() >= search.minAge())
+                .filter(c -> search.maxAge() == null || c.getAge() <= search.maxAge())
+                .filter(c -> after == null || keyset.compare(c, after) > 0)
+                .sorted(order)
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    public void forEachCustomer(Consumer<Customer> action) {
+        customers.values().forEach(action);
+    }
+
+    @Override
+    public Optional<Customer> selectCustomerById(Long id) {
+        return Optional.ofNullable(customers.get(id));
+    }
+
+    @Override
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        return selectCustomerById(id).map(CustomerVersion::of);
+    }
+
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        long id = sequence.incrementAndGet();
+        if (idsByEmail.putIfAbsent(customer.getEmail(), id) != null) {
+            return false;
+        }
+        customer.setId(id);
+        customer.setVersion(1L);
+        customer.setUpdatedAt(Instant.now());
+        Customer stored = new Customer(id, customer.getName(), customer.getEmail(), customer.getAge());
+        stored.setVersion(customer.getVersion());
+        stored.setUpdatedAt(customer.getUpdatedAt());
+        customers.put(id, stored);
+        return true;
+    }
+
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
+        int[] updateCounts = new int[customers.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = insertCustomer(customers.get(i)) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+
+    @Override
+    public boolean existsCustomerWithEmail(String email) {
+        return idsByEmail.containsKey(email);
+    }
+
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        return emails.stream().filter(idsByEmail::containsKey).collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean existsCustomerWithId(Long id) {
+        return customers.containsKey(id);
+    }
+
+    @Override
+    public Optional<Customer> deleteCustomerById(Long id) {
+        Customer removed = customers.remove(id);
+        if (removed != null) {
+            idsByEmail.remove(removed.getEmail());
+        }
+        return Optional.ofNullable(removed);
+    }
+
+    @Override
+    public boolean updateCustomer(Customer update) {
+        Customer current = customers.get(update.getId());
+        if (current == null || update.getVersion() != null && !update.getVersion().equals(current.getVersion())) {
+            return false;
+        }
+        boolean changed = false;
+        if (update.getName() != null && !Objects.equals(update.getName(), current.getName())) {
+            current.setName(update.getName());
+            changed = true;
+        }
+        if (update.getEmail() != null && !Objects.equals(update.getEmail(), current.getEmail())) {
+            idsByEmail.remove(current.getEmail());
+            idsByEmail.put(update.getEmail(), current.getId());
+            current.setEmail(update.getEmail());
+            changed = true;
+        }
+        if (update.getAge() != null && !Objects.equals(update.getAge(), current.getAge())) {
+            current.setAge(update.getAge());
+            changed = true;
+        }
+        if (changed) {
+            // what the customer_bump_version trigger does
+            current.setVersion(current.getVersion() + 1);
+            current.setUpdatedAt(Instant.now());
+            update.setVersion(current.getVersion());
+        }
+        return changed;
+    }
+
+    @Override
+    public int[] updateCustomers(List<Customer> customers) {
+        int[] updateCounts = new int[customers.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            updateCounts[i] = updateCustomer(customers.get(i)) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+}
@@ -33,12 +33,12 @@ public class Main {
 
     public static Customer generateFakeCustomer() {
         Faker faker = new Faker();
-        Long id = new Random().nextLong();
         String name = faker.name().fullName().toString();
         String email = faker.internet().safeEmailAddress();
         Integer age = new Random().nextInt(100);
+        // no id: the sequence assigns it, and with @Version an entity that has one is taken for a detached one
         return new Customer(
-                id, name, email, age
+                name, email, age
         );
 
     }
@@ -0,0 +1,261 @@
+package org.ucentralasia.customer;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache for lookups by id in front of another {@link CustomerDao}. Caffeine bounds it with
+ * W-TinyLFU eviction; every write that goes through this DAO invalidates the affected id. Misses are not
+ * cached, so a customer created later is never hidden by an earlier 404.
+ * <p>
+ * Entries are futures so that the query runs outside Caffeine's map lock: a synchronous loader would block
+ * inside {@code ConcurrentHashMap.compute} and pin the carrier thread when requests run on virtual threads.
+ * <p>
+ * {@link #hottest(int)} and {@link #preload(Supplier)} let {@link CustomerCacheWarmStart} carry the hot entries
+ * over a restart.
+ */
+@Repository("cached")
+public class CachingCustomerDao implements CustomerDao {
+
+    private final CustomerDao delegate;
+    private final AsyncCache<Long, Customer> cache;
+    // open while a preload checks its entries against the database, so that invalidations it raced with are
+    // applied again once its entries are in
+    private volatile PreloadWindow preloadWindow;
+
+    public CachingCustomerDao(@Qualifier("routing") CustomerDao delegate,
+                              @Value("${customer.cache.maximum-size}") long maximumSize,
+                              @Value("${customer.cache.expire-after-write}") Duration expireAfterWrite,
+                              MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "customers");
+    }
+
+    public void evict(Long id) {
+        cache.synchronous().invalidate(id);
+        PreloadWindow window = preloadWindow;
+        if (window != null) {
+            window.ids.add(id);
+        }
+    }
+
+    public void evictAll(Collection<Long> ids) {
+        cache.synchronous().invalidateAll(ids);
+        PreloadWindow window = preloadWindow;
+        if (window != null) {
+            window.ids.addAll(ids);
+        }
+    }
+
+    public void evictAll() {
+        cache.synchronous().invalidateAll();
+        PreloadWindow window = preloadWindow;
+        if (window != null) {
+            window.all = true;
+        }
+    }
+
+    /**
+     * The entries least likely to be evicted next, hottest first.
+     */
+    public Map<Long, Customer> hottest(int limit) {
+        return cache.synchronous().policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElseGet(Map::of);
+    }
+
+    /**
+     * Caches customers that were not read through this DAO, such as those from the warm-start file, without
+     * replacing entries that are already there. {@code current} is expected to check them against the database
+     * and return the ones that are still current; ids invalidated from the moment it starts until the entries
+     * are in are invalidated again, so a write racing with the check cannot leave an old row behind.
+     *
+     * @return how many entries were added
+     */
+    public synchronized int preload(Supplier<? extends Collection<Customer>> current) {
+        PreloadWindow window = new PreloadWindow();
+        preloadWindow = window;
+        int added = 0;
+        try {
+            for (Customer customer : current.get()) {
+                if (cache.asMap().putIfAbsent(customer.getId(), CompletableFuture.completedFuture(customer)) == null) {
+                    added++;
+                }
+            }
+        } finally {
+            preloadWindow = null;
+        }
+        if (window.all) {
+            cache.synchronous().invalidateAll();
+            return 0;
+        }
+        cache.synchronous().invalidateAll(window.ids);
+        return added;
+    }
+
+    @Override
+    public List<Customer> selectAllCustomers() {
+        return delegate.selectAllCustomers();
+    }
+
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        return delegate.selectCustomersAfterId(id, limit);
+    }
+
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return delegate.selectCustomersVersionAfterId(id, limit);
+    }
+
+    @Override
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        return delegate.searchCustomers(search, limit);
+    }
+
+    @Override
+    public void forEachCustomer(Consumer<Customer> action) {
+        delegate.forEachCustomer(action);
+    }
+
+    @Override
+    public Optional<Customer> selectCustomerById(Long id) {
+        // the first caller loads on its own thread and everyone else waits on its future; completing with null
+        // removes the entry, and an invalidation while the query runs drops the result instead of caching it
+        CompletableFuture<Customer> load = new CompletableFuture<>();
+        CompletableFuture<Customer> result = cache.get(id, (key, executor) -> load);
+        if (result == load) {
+            try {
+                load.complete(selectFromPrimary(id));
+            } catch (RuntimeException e) {
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return Optional.ofNullable(result.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads go to the primary even inside a read-only transaction. A replica that has not replayed the last write
+     * would put the old row in the cache, where it outlives both the invalidation that already went by and the
+     * read-your-writes window of the client that wrote it.
+     */
+    private Customer selectFromPrimary(Long id) {
+        if (ReplicaDataSource.isPinnedToPrimary()) {
+            return delegate.selectCustomerById(id).orElse(null);
+        }
+        ReplicaDataSource.pinToPrimary();
+        try {
+            return delegate.selectCustomerById(id).orElse(null);
+        } finally {
+            ReplicaDataSource.unpin();
+        }
+    }
+
+    /**
+     * Taken from the cached customer when there is one, which is exactly as fresh as the body a GET would
+     * return; a miss asks the database for the version columns only and leaves the cache alone.
+     */
+    @Override
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        CompletableFuture<Customer> cached = cache.getIfPresent(id);
+        if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+            Customer customer = cached.join();
+            if (customer != null && customer.getVersion() != null) {
+                return Optional.of(CustomerVersion.of(customer));
+            }
+        }
+        return delegate.selectCustomerVersionById(id);
+    }
+
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        boolean inserted = delegate.insertCustomer(customer);
+        if (inserted) {
+            evict(customer.getId());
+        }
+        return inserted;
+    }
+
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
+        return delegate.insertCustomers(customers);
+    }
+
+    @Override
+    public boolean existsCustomerWithEmail(String email) {
+        return delegate.existsCustomerWithEmail(email);
+    }
+
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        return delegate.selectExistingEmails(emails);
+    }
+
+    @Override
+    public boolean existsCustomerWithId(Long id) {
+        return delegate.existsCustomerWithId(id);
+    }
+
+    @Override
+    public Optional<Customer> deleteCustomerById(Long id) {
+        try {
+            return delegate.deleteCustomerById(id);
+        } finally {
+            evict(id);
+        }
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        try {
+            return delegate.updateCustomer(customer);
+        } finally {
+            evict(customer.getId());
+        }
+    }
+
+    @Override
+    public int[] updateCustomers(List<Customer> customers) {
+        try {
+            return delegate.updateCustomers(customers);
+        } finally {
+            evictAll(customers.stream().map(Customer::getId).toList());
+        }
+    }
+
+    private static final class PreloadWindow {
+
+        private final Set<Long> ids = ConcurrentHashMap.newKeySet();
+        private volatile boolean all;
+    }
+}
@@ -1,9 +1,11 @@
 package org.ucentralasia.customer;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.github.javafaker.Name;
 import jakarta.persistence.*;
 import org.springframework.data.relational.core.sql.In;
 
+import java.time.Instant;
 import java.util.Objects;
 
 @Entity
@@ -31,6 +33,14 @@ public class Customer {
     private String email;
     @Column(nullable = false)
     private Integer age;
+    // bumped by the database on every update (V5), and checked by Hibernate on its own writes; sent as ETag and
+    // Last-Modified rather than in the body, and left out of equals, which compares the customer's data and not
+    // the write that produced it
+    @Version
+    @Column(nullable = false)
+    private Long version;
+    @Column(nullable = false, insertable = false, updatable = false)
+    private Instant updatedAt;
 
     public Customer(){}
 
@@ -101,4 +111,22 @@ public class Customer {
     public void setAge(Integer age) {
         this.age = age;
     }
+
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @JsonIgnore
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
@@ -0,0 +1,22 @@
+package org.ucentralasia.customer;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * @param customers    number of customers matching the query
+ * @param averageAge   their average age, or null when none match
+ * @param minAge       the youngest of them, or null when none match
+ * @param maxAge       the oldest of them, or null when none match
+ * @param emailDomains their most common email domains with customer counts, most common first
+ * @param refreshedAt  when the snapshot last caught up with the customer_change outbox
+ */
+public record CustomerAnalytics(
+        long customers,
+        Double averageAge,
+        Integer minAge,
+        Integer maxAge,
+        Map<String, Long> emailDomains,
+        Instant refreshedAt
+) {
+}
@@ -0,0 +1,28 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping(path = "api/v1/customers")
+public class CustomerAnalyticsController {
+
+    private final CustomerAnalyticsSnapshot customerAnalyticsSnapshot;
+
+    public CustomerAnalyticsController(CustomerAnalyticsSnapshot customerAnalyticsSnapshot) {
+        this.customerAnalyticsSnapshot = customerAnalyticsSnapshot;
+    }
+
+    /**
+     * Query parameters: minAge, maxAge, domain, and domains, how many of the most common email domains to list.
+     * Answered from the in-memory snapshot, up to customer.analytics.refresh-interval behind; 503 while it is
+     * disabled or still loading.
+     */
+    @GetMapping("analytics")
+    public CustomerAnalytics getAnalytics(CustomerAnalyticsQuery query) {
+        return customerAnalyticsSnapshot.query(query);
+    }
+}
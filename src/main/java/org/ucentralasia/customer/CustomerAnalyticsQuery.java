@@ -0,0 +1,15 @@
+package org.ucentralasia.customer;
+
+/**
+ * @param minAge  lowest age to count, inclusive
+ * @param maxAge  highest age to count, inclusive
+ * @param domain  only count customers with this email domain
+ * @param domains how many of the most common email domains to list
+ */
+public record CustomerAnalyticsQuery(
+        Integer minAge,
+        Integer maxAge,
+        String domain,
+        Integer domains
+) {
+}
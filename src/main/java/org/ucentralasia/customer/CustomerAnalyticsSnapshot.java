@@ -0,0 +1,511 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.ResourceGoneException;
+import org.ucentralasia.exception.ServiceUnavailableException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Optional copy of every customer's id, version, age and email domain in off-heap columns, so age and domain
+ * aggregates over any filter are answered from memory instead of a scan of the customer table. Domains are
+ * dictionary-encoded, which makes a row 24 bytes across four direct buffers that the collector never has to trace. A query splits
+ * the rows into chunks of {@code chunk-size} and runs one counted loop over the primitive columns per chunk on
+ * the common pool.
+ * <p>
+ * The columns are loaded in a single scan, in the same repeatable-read transaction that reads the head of the
+ * customer_change outbox, and then follow the outbox every {@code refresh-interval}. That covers writes from every
+ * node, imports and batches alike. The outbox is not in commit order, so a change is only applied when its version
+ * is newer than the row's, which also skips changes the scan already saw, and a deleted row takes no further
+ * changes. A change for an id the columns do not hold is only appended while the customer still exists, since
+ * its DELETED event may already have gone by. Deleted rows are only marked, and rows from ids that arrive out of
+ * order are appended unsorted; when either piles up the columns are compacted in memory. A snapshot whose
+ * position has been pruned from the outbox is loaded again.
+ */
+@Component
+public class CustomerAnalyticsSnapshot implements DisposableBean {
+
+    static final String OFF_HEAP = "customer.analytics.off-heap";
+    static final int DEFAULT_DOMAINS = 10;
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerAnalyticsSnapshot.class);
+    private static final int FETCH_SIZE = 1000;
+    // in the domain column; deleted rows keep their place until the next compaction
+    private static final int DELETED = -1;
+    private static final int ANY_DOMAIN = -2;
+    // a lookup scans the unsorted rows one by one, so they are merged in well before that gets expensive
+    private static final int MAX_UNSORTED = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CustomerChangeFeed customerChangeFeed;
+    private final boolean enabled;
+    private final Duration refreshInterval;
+    private final int batchSize;
+    private final int chunkSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-analytics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // replaced or changed under the write lock, read under the read lock
+    private volatile Columns columns;
+    private long position;
+    private volatile Instant refreshedAt;
+
+    public CustomerAnalyticsSnapshot(JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     CustomerChangeFeed customerChangeFeed,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${customer.analytics.enabled:false}") boolean enabled,
+                                     @Value("${customer.analytics.refresh-interval:1s}") Duration refreshInterval,
+                                     @Value("${customer.analytics.batch-size:1000}") int batchSize,
+                                     @Value("${customer.analytics.chunk-size:65536}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // the load is a full scan, so let it go to a replica when there is one; the outbox head has to be read
+        // from the same snapshot as the rows
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.customerChangeFeed = customerChangeFeed;
+        this.enabled = enabled;
+        this.refreshInterval = refreshInterval;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+        Gauge.builder(OFF_HEAP, this, snapshot -> {
+                    Columns current = snapshot.columns;
+                    return current == null ? 0 : current.bytes();
+                })
+                .description("Direct memory held by the customer analytics columns")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            long interval = refreshInterval.toMillis();
+            refresher.scheduleWithFixedDelay(this::refreshQuietly, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Refreshing the customer analytics snapshot failed, serving the previous state", e);
+        }
+    }
+
+    /**
+     * Loads the columns the first time, and afterwards applies what the outbox has after the current position.
+     */
+    public synchronized void refresh() {
+        if (columns == null) {
+            load();
+            return;
+        }
+        CustomerChangePage page;
+        do {
+            try {
+                page = customerChangeFeed.read(position, batchSize);
+            } catch (ResourceGoneException e) {
+                log.warn("Customer analytics snapshot fell behind the outbox retention, loading it again");
+                load();
+                return;
+            }
+            apply(page);
+        } while (page.changes().size() == batchSize);
+        refreshedAt = Instant.now();
+    }
+
+    /**
+     * Scans the customer table into new columns and swaps them in.
+     */
+    public synchronized void load() {
+        var sql = """
+                SELECT id, version, age, email
+                FROM customer
+                ORDER BY id
+                """;
+        long start = System.nanoTime();
+        Columns next = transactionTemplate.execute(status -> {
+            Long head = customerChangeFeed.head();
+            Integer rows = jdbcTemplate.queryForObject("SELECT count(*) FROM customer", Integer.class);
+            Columns loaded = new Columns(rows == null ? 0 : rows, new HashMap<>(), new ArrayList<>());
+            jdbcTemplate.query(
+                    connection -> {
+                        PreparedStatement statement = connection.prepareStatement(
+                                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+                        );
+                        statement.setFetchSize(FETCH_SIZE);
+                        return statement;
+                    },
+                    (RowCallbackHandler) rs -> loaded.append(
+                            rs.getLong("id"),
+                            rs.getLong("version"),
+                            rs.getInt("age"),
+                            loaded.code(CustomerStatistics.emailDomain(rs.getString("email"))))
+            );
+            position = head == null ? 0 : head;
+            return loaded;
+        });
+        lock.writeLock().lock();
+        try {
+            columns = next;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        refreshedAt = Instant.now();
+        log.info("Customer analytics snapshot loaded in {} ms: {} customers, {} email domains, {} bytes off-heap",
+                (System.nanoTime() - start) / 1_000_000, next.size, next.names.size(), next.bytes());
+    }
+
+    /**
+     * Runs on the refresher only, which is the one thread that changes the columns, so they can be read here
+     * before the write lock is taken.
+     */
+    private void apply(CustomerChangePage page) {
+        if (page.changes().isEmpty()) {
+            return;
+        }
+        Set<Long> existing = existing(page.changes().stream()
+                .filter(change -> change.type() != CustomerChange.Type.DELETED)
+                .map(CustomerChange::customerId)
+                .filter(id -> columns.find(id) < 0)
+                .collect(Collectors.toSet()));
+        lock.writeLock().lock();
+        try {
+            Columns current = columns;
+            for (CustomerChange change : page.changes()) {
+                int row = current.find(change.customerId());
+                if (row >= 0 && current.isDeleted(row)) {
+                    continue;
+                }
+                // a delete keeps the version of the last write, so it is final whatever the version says
+                if (change.type() == CustomerChange.Type.DELETED) {
+                    if (row >= 0) {
+                        current.delete(row);
+                    }
+                    continue;
+                }
+                if (row >= 0 && change.version() <= current.versions.get(row)) {
+                    continue;
+                }
+                int domain = current.code(CustomerStatistics.emailDomain(change.email()));
+                if (row >= 0) {
+                    current.set(row, change.version(), change.age(), domain);
+                } else if (existing.contains(change.customerId())) {
+                    current.append(change.customerId(), change.version(), change.age(), domain);
+                }
+            }
+            position = page.next();
+            if (current.size - current.sorted > MAX_UNSORTED || current.deleted > current.size / 4) {
+                columns = current.compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Set<Long> existing(Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        Set<Long> existing = new HashSet<>();
+        jdbcTemplate.query(
+                "SELECT id FROM customer WHERE id = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray())),
+                (RowCallbackHandler) rs -> existing.add(rs.getLong("id")));
+        return existing;
+    }
+
+    public CustomerAnalytics query(CustomerAnalyticsQuery query) {
+        if (!enabled) {
+            throw new ServiceUnavailableException("Customer analytics are not enabled.");
+        }
+        int minAge = query.minAge() == null ? Integer.MIN_VALUE : query.minAge();
+        int maxAge = query.maxAge() == null ? Integer.MAX_VALUE : query.maxAge();
+        if (minAge > maxAge) {
+            throw new RequestValidationException("minAge must not be greater than maxAge.");
+        }
+        int domainLimit = query.domains() == null ? DEFAULT_DOMAINS : query.domains();
+        if (domainLimit < 0 || domainLimit > CustomerService.MAX_PAGE_SIZE) {
+            throw new RequestValidationException("domains must be between 0 and %s.".formatted(CustomerService.MAX_PAGE_SIZE));
+        }
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            if (current == null) {
+                throw new ServiceUnavailableException("Customer analytics are still loading.");
+            }
+            int domain = ANY_DOMAIN;
+            if (query.domain() != null) {
+                Integer code = current.codes.get(query.domain().toLowerCase(Locale.ROOT));
+                if (code == null) {
+                    return new Totals(null).toAnalytics(current.names, domainLimit, refreshedAt);
+                }
+                domain = code;
+            }
+            int only = domain;
+            int dictionarySize = domainLimit == 0 ? 0 : current.names.size();
+            int chunks = (current.size + chunkSize - 1) / chunkSize;
+            // the pool threads only read; the write lock stays out until they are all done
+            Totals totals = IntStream.range(0, chunks)
+                    .parallel()
+                    .mapToObj(chunk -> current.scan(chunk * chunkSize, Math.min(current.size, (chunk + 1) * chunkSize),
+                            minAge, maxAge, only, dictionarySize == 0 ? null : new long[dictionarySize]))
+                    .reduce(Totals::merge)
+                    .orElseGet(() -> new Totals(null));
+            return totals.toAnalytics(current.names, domainLimit, refreshedAt);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Rows [0, sorted) are in ascending id order and found by binary search, later ones by a linear scan. The
+     * dictionary is shared with the compacted copy and only grows.
+     */
+    private static final class Columns {
+
+        private static final int MIN_CAPACITY = 1024;
+        private static final int ROW_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+        private final Map<String, Integer> codes;
+        private final List<String> names;
+        private LongBuffer ids;
+        private LongBuffer versions;
+        private IntBuffer ages;
+        private IntBuffer domains;
+        private int capacity;
+        private int size;
+        private int sorted;
+        private int deleted;
+
+        private Columns(int rows, Map<String, Integer> codes, List<String> names) {
+            this.codes = codes;
+            this.names = names;
+            allocate(Math.max(rows, MIN_CAPACITY));
+        }
+
+        private void allocate(int newCapacity) {
+            LongBuffer newIds = ByteBuffer.allocateDirect(newCapacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+            LongBuffer newVersions = ByteBuffer.allocateDirect(newCapacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+            IntBuffer newAges = ByteBuffer.allocateDirect(newCapacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+            IntBuffer newDomains = ByteBuffer.allocateDirect(newCapacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+            if (size > 0) {
+                newIds.put(0, ids, 0, size);
+                newVersions.put(0, versions, 0, size);
+                newAges.put(0, ages, 0, size);
+                newDomains.put(0, domains, 0, size);
+            }
+            // the old buffers are freed once they are collected
+            ids = newIds;
+            versions = newVersions;
+            ages = newAges;
+            domains = newDomains;
+            capacity = newCapacity;
+        }
+
+        long bytes() {
+            return (long) capacity * ROW_BYTES;
+        }
+
+        int code(String domain) {
+            Integer code = codes.get(domain);
+            if (code == null) {
+                code = names.size();
+                names.add(domain);
+                codes.put(domain, code);
+            }
+            return code;
+        }
+
+        int find(long id) {
+            int low = 0;
+            int high = sorted - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long candidate = ids.get(middle);
+                if (candidate < id) {
+                    low = middle + 1;
+                } else if (candidate > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            for (int row = sorted; row < size; row++) {
+                if (ids.get(row) == id) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+
+        void append(long id, long version, int age, int domain) {
+            if (size == capacity) {
+                allocate(capacity * 2);
+            }
+            ids.put(size, id);
+            versions.put(size, version);
+            ages.put(size, age);
+            domains.put(size, domain);
+            if (sorted == size && (size == 0 || ids.get(size - 1) < id)) {
+                sorted++;
+            }
+            size++;
+        }
+
+        boolean isDeleted(int row) {
+            return domains.get(row) == DELETED;
+        }
+
+        void set(int row, long version, int age, int domain) {
+            versions.put(row, version);
+            ages.put(row, age);
+            domains.put(row, domain);
+        }
+
+        void delete(int row) {
+            domains.put(row, DELETED);
+            deleted++;
+        }
+
+        /**
+         * A copy without the deleted rows and with the unsorted ones merged into place.
+         */
+        Columns compact() {
+            Columns compacted = new Columns(size - deleted, codes, names);
+            int[] unsorted = IntStream.range(sorted, size)
+                    .boxed()
+                    .sorted(Comparator.comparingLong(ids::get))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            int next = 0;
+            int nextUnsorted = 0;
+            while (next < sorted || nextUnsorted < unsorted.length) {
+                int row;
+                if (nextUnsorted == unsorted.length
+                        || (next < sorted && ids.get(next) < ids.get(unsorted[nextUnsorted]))) {
+                    row = next++;
+                } else {
+                    row = unsorted[nextUnsorted++];
+                }
+                if (domains.get(row) != DELETED) {
+                    compacted.append(ids.get(row), versions.get(row), ages.get(row), domains.get(row));
+                }
+            }
+            return compacted;
+        }
+
+        /**
+         * A plain counted loop over rows [from, to): no allocation, no boxing, and the domain counts are the only
+         * writes besides the accumulators.
+         */
+        Totals scan(int from, int to, int minAge, int maxAge, int only, long[] perDomain) {
+            long customers = 0;
+            long ageSum = 0;
+            int youngest = Integer.MAX_VALUE;
+            int oldest = Integer.MIN_VALUE;
+            for (int row = from; row < to; row++) {
+                int domain = domains.get(row);
+                int age = ages.get(row);
+                if (domain != DELETED && age >= minAge && age <= maxAge && (only == ANY_DOMAIN || domain == only)) {
+                    customers++;
+                    ageSum += age;
+                    youngest = Math.min(youngest, age);
+                    oldest = Math.max(oldest, age);
+                    if (perDomain != null) {
+                        perDomain[domain]++;
+                    }
+                }
+            }
+            return new Totals(customers, ageSum, youngest, oldest, perDomain);
+        }
+    }
+
+    private record Totals(long customers, long ageSum, int youngest, int oldest, long[] perDomain) {
+
+        Totals(long[] perDomain) {
+            this(0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE, perDomain);
+        }
+
+        Totals merge(Totals other) {
+            long[] merged = perDomain;
+            if (merged != null) {
+                for (int domain = 0; domain < merged.length; domain++) {
+                    merged[domain] += other.perDomain[domain];
+                }
+            }
+            return new Totals(customers + other.customers, ageSum + other.ageSum,
+                    Math.min(youngest, other.youngest), Math.max(oldest, other.oldest), merged);
+        }
+
+        CustomerAnalytics toAnalytics(List<String> names, int domainLimit, Instant refreshedAt) {
+            Map<String, Long> top = new LinkedHashMap<>();
+            if (perDomain != null && domainLimit > 0) {
+                IntStream.range(0, perDomain.length)
+                        .filter(domain -> perDomain[domain] > 0)
+                        .boxed()
+                        .sorted(Comparator.<Integer>comparingLong(domain -> perDomain[domain]).reversed()
+                                .thenComparing(names::get))
+                        .limit(domainLimit)
+                        .forEach(domain -> top.put(names.get(domain), perDomain[domain]));
+            }
+            if (customers == 0) {
+                return new CustomerAnalytics(0, null, null, null, top, refreshedAt);
+            }
+            return new CustomerAnalytics(customers, (double) ageSum / customers, youngest, oldest, top, refreshedAt);
+        }
+    }
+}
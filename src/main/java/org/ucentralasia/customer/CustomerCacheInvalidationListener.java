@@ -0,0 +1,143 @@
+package org.ucentralasia.customer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local customer cache coherent with writes made by other nodes. The customer table triggers
+ * publish changed ids on {@value #CHANNEL}; this listener holds a dedicated connection outside the pool,
+ * collects whatever arrived during one poll interval and evicts it in one batch. Whenever the connection is
+ * (re)established the whole cache is dropped, because notifications sent while nobody listened are lost.
+ * <p>
+ * Any failure, including one while handling a notification, goes the same way: drop the cache and reconnect.
+ * A connection whose peer vanished without closing it delivers neither notifications nor errors, so it runs
+ * {@code SELECT 1} every {@code keepalive-interval}, with that as network timeout, to find out.
+ */
+@Component
+@ConditionalOnProperty(prefix = "customer.cache.invalidation", name = "enabled", havingValue = "true")
+public class CustomerCacheInvalidationListener implements SmartLifecycle {
+
+    static final String CHANNEL = "customer_changes";
+    static final String ALL = "*";
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerCacheInvalidationListener.class);
+
+    private final CachingCustomerDao cachingCustomerDao;
+    private final DataSourceProperties dataSourceProperties;
+    private final Duration pollInterval;
+    private final Duration keepaliveInterval;
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    public CustomerCacheInvalidationListener(CachingCustomerDao cachingCustomerDao,
+                                             DataSourceProperties dataSourceProperties,
+                                             @Value("${customer.cache.invalidation.poll-interval}") Duration pollInterval,
+                                             @Value("${customer.cache.invalidation.keepalive-interval:30s}") Duration keepaliveInterval) {
+        this.cachingCustomerDao = cachingCustomerDao;
+        this.dataSourceProperties = dataSourceProperties;
+        this.pollInterval = pollInterval;
+        this.keepaliveInterval = keepaliveInterval;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listenerThread = new Thread(this::listen, "customer-cache-invalidation");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        listenerThread.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Waits for the first LISTEN, after which every write from another node reaches the cache.
+     *
+     * @return false if the connection was not up within the timeout
+     */
+    public boolean awaitListening(Duration timeout) throws InterruptedException {
+        return listening.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword())) {
+                // the executor is not used by the PostgreSQL driver
+                connection.setNetworkTimeout(Runnable::run, (int) keepaliveInterval.toMillis());
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                cachingCustomerDao.evictAll();
+                listening.countDown();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                long keepaliveDue = System.nanoTime() + keepaliveInterval.toNanos();
+                while (running) {
+                    apply(pgConnection.getNotifications((int) pollInterval.toMillis()));
+                    if (System.nanoTime() - keepaliveDue >= 0) {
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("SELECT 1");
+                        }
+                        keepaliveDue = System.nanoTime() + keepaliveInterval.toNanos();
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Customer cache invalidation failed, dropping the cache and reconnecting", e);
+                cachingCustomerDao.evictAll();
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    void apply(PGNotification[] notifications) {
+        if (notifications == null || notifications.length == 0) {
+            return;
+        }
+        Set<Long> ids = new HashSet<>();
+        for (PGNotification notification : notifications) {
+            if (ALL.equals(notification.getParameter())) {
+                cachingCustomerDao.evictAll();
+                return;
+            }
+            for (String id : notification.getParameter().split(",")) {
+                ids.add(Long.valueOf(id));
+            }
+        }
+        cachingCustomerDao.evictAll(ids);
+    }
+}
@@ -0,0 +1,277 @@
+package org.ucentralasia.customer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Carries the hottest entries of the customer cache over a restart, so a new node does not send every lookup to
+ * the database until its cache fills up again. Every {@code save-interval} and on shutdown they are written to a
+ * memory-mapped file, next to it and then moved over it, so a crash leaves the previous file intact. At startup
+ * the file is mapped and decoded, and only the customers whose version column still matches the database go
+ * into the cache; this happens before the node reports ready, once cache invalidation is listening.
+ * <p>
+ * The file is a header of magic, format, record count, CRC32 of the records and the time it was written, followed
+ * by one record per customer: id, version, updated_at as seconds and nanos, age, then name and email as UTF-8
+ * with an unsigned 16-bit length. A file with another magic or format, or whose checksum does not match, is
+ * ignored.
+ */
+@Component
+public class CustomerCacheWarmStart implements DisposableBean {
+
+    static final int MAGIC = 0x43555354;
+    static final int FORMAT = 1;
+    static final int HEADER_BYTES = Integer.BYTES * 4 + Long.BYTES;
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerCacheWarmStart.class);
+    private static final Duration LISTEN_TIMEOUT = Duration.ofSeconds(5);
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private final CachingCustomerDao cachingCustomerDao;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectProvider<CustomerCacheInvalidationListener> invalidationListener;
+    private final boolean enabled;
+    private final Path file;
+    private final Duration saveInterval;
+    private final int maximumSize;
+    private final int chunkSize;
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-cache-warm-start");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CustomerCacheWarmStart(CachingCustomerDao cachingCustomerDao,
+                                  JdbcTemplate jdbcTemplate,
+                                  ObjectProvider<CustomerCacheInvalidationListener> invalidationListener,
+                                  @Value("${customer.cache.warm-start.enabled:false}") boolean enabled,
+                                  @Value("${customer.cache.warm-start.file:${java.io.tmpdir}/customer-cache.bin}") Path file,
+                                  @Value("${customer.cache.warm-start.save-interval:5m}") Duration saveInterval,
+                                  @Value("${customer.cache.warm-start.maximum-size:10000}") int maximumSize,
+                                  @Value("${customer.cache.warm-start.chunk-size:500}") int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("customer.cache.warm-start.chunk-size must be positive");
+        }
+        this.cachingCustomerDao = cachingCustomerDao;
+        this.jdbcTemplate = jdbcTemplate;
+        this.invalidationListener = invalidationListener;
+        this.enabled = enabled;
+        this.file = file;
+        this.saveInterval = saveInterval;
+        this.maximumSize = maximumSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs on the startup thread: ApplicationReadyEvent listeners finish before readiness is published.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        CustomerCacheInvalidationListener listener = invalidationListener.getIfAvailable();
+        // the listener drops the whole cache when it connects, which would throw the warm entries away again
+        if (listener != null && !listener.awaitListening(LISTEN_TIMEOUT)) {
+            log.warn("Cache invalidation is not listening after {}, warming the customer cache anyway", LISTEN_TIMEOUT);
+        }
+        warm();
+        long interval = saveInterval.toMillis();
+        saver.scheduleWithFixedDelay(this::saveQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return how many customers from the file went into the cache
+     */
+    public int warm() {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        List<Customer> saved;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            saved = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring customer cache file {}: {}", file, e.getMessage());
+            return 0;
+        }
+        int added = cachingCustomerDao.preload(() -> current(saved));
+        log.info("Customer cache warmed in {} ms: {} of {} saved customers were current",
+                (System.nanoTime() - start) / 1_000_000, added, saved.size());
+        return added;
+    }
+
+    /**
+     * The customers whose version is still the one in the database, checked a chunk of ids at a time.
+     */
+    private List<Customer> current(List<Customer> saved) {
+        var sql = """
+                SELECT id, version
+                FROM customer
+                WHERE id = ANY (?)
+                """;
+        List<Customer> current = new ArrayList<>(saved.size());
+        for (int from = 0; from < saved.size(); from += chunkSize) {
+            Map<Long, Customer> chunk = new HashMap<>();
+            for (Customer customer : saved.subList(from, Math.min(saved.size(), from + chunkSize))) {
+                chunk.put(customer.getId(), customer);
+            }
+            jdbcTemplate.query(
+                    sql,
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", chunk.keySet().toArray())),
+                    (RowCallbackHandler) rs -> {
+                        Customer customer = chunk.get(rs.getLong("id"));
+                        if (customer.getVersion() == rs.getLong("version")) {
+                            current.add(customer);
+                        }
+                    });
+        }
+        return current;
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (RuntimeException e) {
+            log.warn("Saving the customer cache to {} failed, keeping the previous file", file, e);
+        }
+    }
+
+    /**
+     * @return how many customers were written
+     */
+    public synchronized int save() {
+        Collection<Customer> hottest = cachingCustomerDao.hottest(maximumSize).values();
+        List<byte[][]> strings = new ArrayList<>(hottest.size());
+        List<Customer> customers = new ArrayList<>(hottest.size());
+        long size = HEADER_BYTES;
+        for (Customer customer : hottest) {
+            byte[] name = customer.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] email = customer.getEmail().getBytes(StandardCharsets.UTF_8);
+            if (customer.getVersion() == null || customer.getUpdatedAt() == null
+                    || name.length > MAX_STRING_BYTES || email.length > MAX_STRING_BYTES) {
+                continue;
+            }
+            customers.add(customer);
+            strings.add(new byte[][]{name, email});
+            size += recordBytes(name, email);
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.position(HEADER_BYTES);
+                for (int i = 0; i < customers.size(); i++) {
+                    encode(buffer, customers.get(i), strings.get(i)[0], strings.get(i)[1]);
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(buffer.slice(HEADER_BYTES, (int) size - HEADER_BYTES));
+                buffer.putInt(0, MAGIC)
+                        .putInt(Integer.BYTES, FORMAT)
+                        .putInt(Integer.BYTES * 2, customers.size())
+                        .putInt(Integer.BYTES * 3, (int) checksum.getValue())
+                        .putLong(Integer.BYTES * 4, System.currentTimeMillis());
+                buffer.force();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return customers.size();
+    }
+
+    private static int recordBytes(byte[] name, byte[] email) {
+        return Long.BYTES * 3 + Integer.BYTES * 2 + Short.BYTES * 2 + name.length + email.length;
+    }
+
+    private static void encode(ByteBuffer buffer, Customer customer, byte[] name, byte[] email) {
+        buffer.putLong(customer.getId())
+                .putLong(customer.getVersion())
+                .putLong(customer.getUpdatedAt().getEpochSecond())
+                .putInt(customer.getUpdatedAt().getNano())
+                .putInt(customer.getAge())
+                .putShort((short) name.length)
+                .put(name)
+                .putShort((short) email.length)
+                .put(email);
+    }
+
+    static List<Customer> decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("not a customer cache file");
+        }
+        if (buffer.getInt(Integer.BYTES) != FORMAT) {
+            throw new IllegalArgumentException("format %s is not %s".formatted(buffer.getInt(Integer.BYTES), FORMAT));
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.slice(HEADER_BYTES, buffer.limit() - HEADER_BYTES));
+        if ((int) checksum.getValue() != buffer.getInt(Integer.BYTES * 3)) {
+            throw new IllegalArgumentException("checksum mismatch");
+        }
+        int count = buffer.getInt(Integer.BYTES * 2);
+        List<Customer> customers = new ArrayList<>(count);
+        ByteBuffer records = buffer.slice(HEADER_BYTES, buffer.limit() - HEADER_BYTES);
+        try {
+            for (int i = 0; i < count; i++) {
+                Customer customer = new Customer();
+                customer.setId(records.getLong());
+                customer.setVersion(records.getLong());
+                long seconds = records.getLong();
+                customer.setUpdatedAt(Instant.ofEpochSecond(seconds, records.getInt()));
+                customer.setAge(records.getInt());
+                customer.setName(string(records));
+                customer.setEmail(string(records));
+                customers.add(customer);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("fewer records than the header says");
+        }
+        return customers;
+    }
+
+    private static String string(ByteBuffer records) {
+        byte[] bytes = new byte[Short.toUnsignedInt(records.getShort())];
+        records.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void destroy() {
+        saver.shutdownNow();
+        if (enabled) {
+            saveQuietly();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.ucentralasia.customer;
+
+import java.time.Instant;
+
+/**
+ * One row of the customer_change outbox. Fields hold the customer as written, or as it was before a delete.
+ *
+ * @param seq identifies the event; pass the last one received as {@code since} to continue after it
+ * @param version the row's version; events of one customer can arrive out of commit order, and only a higher
+ *                version than the last one seen is a newer change
+ */
+public record CustomerChange(
+        long seq,
+        long customerId,
+        Type type,
+        String name,
+        String email,
+        Integer age,
+        Long version,
+        Instant changedAt
+) {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+}
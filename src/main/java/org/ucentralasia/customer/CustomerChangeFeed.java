@@ -0,0 +1,228 @@
+package org.ucentralasia.customer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.ucentralasia.exception.ResourceGoneException;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the customer_change outbox, see V6__Add_Customer_Change_Outbox.sql, with keyset paging on (xid, seq) up
+ * to the oldest running transaction, so a consumer that keeps passing the last seq back never skips an event.
+ * <p>
+ * That order is the order transactions took their xid in, not the order they committed in. When two transactions
+ * change the same customer and the one with the older xid commits last, its event comes first although it holds
+ * the newer row. Consumers have to compare the event's {@code version} with the one they hold and ignore events
+ * that are not newer, and treat DELETED as final.
+ * <p>
+ * Requests that find nothing new can wait for changes. They are parked without a thread, and a single poller
+ * checks the newest final event once per {@code poll-interval} while anyone is waiting; only when it moved are
+ * the waiting requests read again, once per distinct position. Events older than {@code retention} are
+ * deleted, and a consumer that falls further behind than that gets 410 Gone and has to start over from a full
+ * listing.
+ * <p>
+ * Everything is read from the primary: a lagging replica would not know the seq a consumer got from a newer
+ * one and answer 410 for no reason.
+ */
+@Component
+public class CustomerChangeFeed implements DisposableBean {
+
+    static final String COLUMNS = "c.seq, c.customer_id, c.type, c.name, c.email, c.age, c.version, c.changed_at";
+    static final String HORIZON = "pg_snapshot_xmin(pg_current_snapshot())";
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerChangeFeed.class);
+    private static final RowMapper<CustomerChange> CHANGE_MAPPER = (rs, rowNum) -> new CustomerChange(
+            rs.getLong("seq"),
+            rs.getLong("customer_id"),
+            CustomerChange.Type.valueOf(rs.getString("type")),
+            rs.getString("name"),
+            rs.getString("email"),
+            rs.getObject("age", Integer.class),
+            rs.getObject("version", Long.class),
+            rs.getTimestamp("changed_at").toInstant()
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration pollInterval;
+    private final Duration retention;
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CustomerChangeFeed(JdbcTemplate jdbcTemplate,
+                              @Value("${customer.changes.poll-interval:200ms}") Duration pollInterval,
+                              @Value("${customer.changes.retention:7d}") Duration retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.pollInterval = pollInterval;
+        this.retention = retention;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        poller.scheduleWithFixedDelay(this::pollQuietly, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        poller.scheduleWithFixedDelay(this::pruneQuietly, 0, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * @param since seq of the last event the caller has, 0 for the beginning
+     * @param wait  how long to hold back an empty answer; zero answers right away
+     */
+    public CompletableFuture<CustomerChangePage> changesAfter(long since, int limit, Duration wait) {
+        CustomerChangePage page = read(since, limit);
+        if (!page.changes().isEmpty() || wait.isZero()) {
+            return CompletableFuture.completedFuture(page);
+        }
+        CompletableFuture<CustomerChangePage> result = new CompletableFuture<>();
+        waiters.add(new Waiter(new Position(since, limit), System.nanoTime() + wait.toNanos(), result));
+        return result;
+    }
+
+    CustomerChangePage read(long since, int limit) {
+        List<CustomerChange> changes;
+        if (since == 0) {
+            var sql = """
+                    SELECT %s
+                    FROM customer_change c
+                    WHERE c.xid < %s
+                    ORDER BY c.xid, c.seq
+                    LIMIT ?
+                    """.formatted(COLUMNS, HORIZON);
+            changes = jdbcTemplate.query(sql, CHANGE_MAPPER, limit);
+        } else {
+            var sql = """
+                    SELECT %s
+                    FROM customer_change c, (SELECT xid, seq FROM customer_change WHERE seq = ?) AS after
+                    WHERE (c.xid, c.seq) > (after.xid, after.seq) AND c.xid < %s
+                    ORDER BY c.xid, c.seq
+                    LIMIT ?
+                    """.formatted(COLUMNS, HORIZON);
+            changes = jdbcTemplate.query(sql, CHANGE_MAPPER, since, limit);
+            if (changes.isEmpty() && !exists(since)) {
+                throw new ResourceGoneException("Change [%s] is not known, or older than the %s retention; start over from a full listing."
+                        .formatted(since, retention));
+            }
+        }
+        return new CustomerChangePage(changes, changes.isEmpty() ? since : changes.get(changes.size() - 1).seq());
+    }
+
+    private boolean exists(long seq) {
+        var sql = """
+                SELECT EXISTS (SELECT 1 FROM customer_change WHERE seq = ?)
+                """;
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, seq));
+    }
+
+    /**
+     * The newest event below the horizon, or null while there are none.
+     */
+    Long head() {
+        var sql = """
+                SELECT c.seq
+                FROM customer_change c
+                WHERE c.xid < %s
+                ORDER BY c.xid DESC, c.seq DESC
+                LIMIT 1
+                """.formatted(HORIZON);
+        return jdbcTemplate.query(sql, rs -> rs.next() ? rs.getLong(1) : null);
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            log.warn("Polling customer changes failed, waiting requests are kept", e);
+        }
+    }
+
+    void poll() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        Long head = head();
+        long now = System.nanoTime();
+        Map<Position, CustomerChangePage> pages = new HashMap<>();
+        for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext(); ) {
+            Waiter waiter = iterator.next();
+            if (waiter.result.isDone()) {
+                // timed out or cancelled by the container
+                iterator.remove();
+                continue;
+            }
+            if (head != null && head != waiter.position.since) {
+                try {
+                    CustomerChangePage page = pages.computeIfAbsent(waiter.position, position -> read(position.since, position.limit));
+                    if (!page.changes().isEmpty()) {
+                        iterator.remove();
+                        waiter.result.complete(page);
+                        continue;
+                    }
+                } catch (ResourceGoneException e) {
+                    iterator.remove();
+                    waiter.result.completeExceptionally(e);
+                    continue;
+                }
+            }
+            if (now - waiter.deadline >= 0) {
+                iterator.remove();
+                waiter.result.complete(new CustomerChangePage(List.of(), waiter.position.since));
+            }
+        }
+    }
+
+    int waiting() {
+        return waiters.size();
+    }
+
+    private void pruneQuietly() {
+        try {
+            prune();
+        } catch (RuntimeException e) {
+            log.warn("Pruning customer changes failed", e);
+        }
+    }
+
+    public int prune() {
+        var sql = """
+                DELETE FROM customer_change
+                WHERE changed_at < ?
+                """;
+        int deleted = jdbcTemplate.update(sql, Timestamp.from(Instant.now().minus(retention)));
+        if (deleted > 0) {
+            log.info("Pruned {} customer changes older than {}", deleted, retention);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void destroy() {
+        poller.shutdownNow();
+    }
+
+    private record Position(long since, int limit) {
+    }
+
+    private record Waiter(Position position, long deadline, CompletableFuture<CustomerChangePage> result) {
+    }
+}
@@ -0,0 +1,11 @@
+package org.ucentralasia.customer;
+
+import java.util.List;
+
+/**
+ * @param changes events in the order they became final, which is not always seq order
+ * @param next    the {@code since} for the next request: the seq of the last event, or the requested one when
+ *                there were none
+ */
+public record CustomerChangePage(List<CustomerChange> changes, long next) {
+}
@@ -1,28 +1,142 @@
 package org.ucentralasia.customer;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.ucentralasia.exception.PreconditionFailedException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping(path = "api/v1/customers")
 public class CustomerController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final CustomerService customerService;
+    private final ObjectMapper objectMapper;
+    private final CustomerJsonSerializer customerJsonSerializer;
 
-    public CustomerController(CustomerService customerService) {
+    public CustomerController(CustomerService customerService,
+                              ObjectMapper objectMapper,
+                              CustomerJsonSerializer customerJsonSerializer) {
         this.customerService = customerService;
+        this.objectMapper = objectMapper;
+        this.customerJsonSerializer = customerJsonSerializer;
     }
 
 
+    /**
+     * Without after and limit the whole list comes back in one response, as before paging; either parameter
+     * switches to pages of limit (default 100) with the next cursor in X-Next-Cursor.
+     * <p>
+     * The ETag is a digest of the ids and versions on the page. A request with If-None-Match is first checked
+     * against a digest computed in the database, so an unchanged page costs one small query and a 304.
+     */
     @GetMapping("")
-    public List<Customer> getCustomers() {
-        return customerService.getAllCustomers();
+    public ResponseEntity<List<Customer>> getCustomers(@RequestParam(required = false) Long after,
+                                                       @RequestParam(required = false) Integer limit,
+                                                       WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                && request.checkNotModified(eTag(customerService.getCustomersVersion(after, limit)))) {
+            return null;
+        }
+        CustomerPage page = customerService.getCustomers(after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag(page.version()));
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor().toString());
+        }
+        return response.body(page.customers());
+    }
+
+    /**
+     * Query parameters: email (prefix), name (fragment), minAge, maxAge, sort (id, -id, age, -age), after, limit.
+     */
+    @GetMapping("search")
+    public ResponseEntity<List<Customer>> searchCustomers(CustomerSearchRequest request) {
+        CustomerSearchPage page = customerService.searchCustomers(request);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.customers());
+    }
+
+    @GetMapping("stats")
+    public CustomerStats getStatistics(@RequestParam(required = false) Integer domains) {
+        return customerService.getStatistics(domains);
+    }
+
+    /**
+     * Query parameters: since (seq of the last event received, 0 or absent for the beginning), limit, and wait,
+     * the seconds to hold the request open while there is nothing new, up to 60.
+     */
+    @GetMapping("changes")
+    public CompletableFuture<CustomerChangePage> getChanges(@RequestParam(required = false) Long since,
+                                                            @RequestParam(required = false) Integer limit,
+                                                            @RequestParam(required = false) Integer wait) {
+        return customerService.getChanges(since, limit, wait);
     }
 
+    @GetMapping(value = "export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportCustomers() {
+        // rows go straight into the generator buffer, which is only flushed to the socket when it fills up
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                // the newline is the only separator; Jackson's default would start every later line with a space
+                generator.setRootValueSeparator(null);
+                customerService.exportCustomers(customer -> {
+                    try {
+                        customerJsonSerializer.write(customer, generator);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Conditional requests are answered from the version columns, usually straight from the customer cache, and
+     * only a changed customer is loaded and sent. A customer with updates still in the write-behind queue has no
+     * version yet, so it is always sent, without validators.
+     */
     @GetMapping("{id}")
-    public Customer getCustomer(@PathVariable Long id) {
-        return customerService.getCustomer(id);
+    public ResponseEntity<Customer> getCustomer(@PathVariable Long id, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null) {
+            CustomerVersion version = customerService.getCustomerVersion(id);
+            if (version != null && request.checkNotModified(version.eTag(), version.updatedAt().toEpochMilli())) {
+                return null;
+            }
+        }
+        Customer customer = customerService.getCustomer(id);
+        if (customer.getVersion() == null) {
+            return ResponseEntity.ok(customer);
+        }
+        CustomerVersion version = CustomerVersion.of(customer);
+        return ResponseEntity.ok()
+                .eTag(version.eTag())
+                .lastModified(version.updatedAt())
+                .body(customer);
+    }
+
+    private static String eTag(String version) {
+        return "\"" + version + "\"";
     }
 
     @PostMapping("")
@@ -30,13 +144,48 @@ public class CustomerController {
         customerService.addCustomer(customerRegistrationRequest);
     }
 
+    @PostMapping("bulk")
+    public List<CustomerRegistrationResult> registerCustomers(@RequestBody List<CustomerRegistrationRequest> customerRegistrationRequests) {
+        return customerService.addCustomers(customerRegistrationRequests);
+    }
+
     @DeleteMapping("{id}")
     public void deleteCustomer(@PathVariable Long id) {
         customerService.deleteCustomer(id);
     }
 
+    /**
+     * With If-Match the update only applies to the version the client has seen, and fails with 412 otherwise.
+     * The response carries the new ETag, so a client can chain updates without reading the customer again.
+     */
     @PutMapping("{id}")
-    public void updateCustomer(@PathVariable Long id, @RequestBody CustomerUpdateRequest customerUpdateRequest) {
-        customerService.updateCustomer(id, customerUpdateRequest);
+    public ResponseEntity<Void> updateCustomer(@PathVariable Long id,
+                                               @RequestBody CustomerUpdateRequest customerUpdateRequest,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long version = customerService.updateCustomer(id, customerUpdateRequest, expectedVersion(ifMatch));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (version != null) {
+            response.eTag(eTag(version.toString()));
+        }
+        return response.build();
+    }
+
+    /**
+     * If-Match compares strong ETags, so a weak or unparsable one can never match. {@code *} only asks for the
+     * customer to exist, which an update checks anyway.
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.strip().equals("*")) {
+            return null;
+        }
+        String eTag = ifMatch.strip();
+        if (eTag.length() > 2 && eTag.startsWith("\"") && eTag.endsWith("\"")) {
+            try {
+                return Long.parseLong(eTag.substring(1, eTag.length() - 1));
+            } catch (NumberFormatException ignored) {
+                // falls through to the precondition failure
+            }
+        }
+        throw new PreconditionFailedException("If-Match [%s] is not an ETag of this customer.".formatted(ifMatch));
     }
 }
@@ -1,15 +1,26 @@
 package org.ucentralasia.customer;
 
 import javax.swing.text.html.Option;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface CustomerDao {
     List<Customer> selectAllCustomers();
+    List<Customer> selectCustomersAfterId(Long id, int limit);
+    String selectCustomersVersionAfterId(Long id, int limit);
+    List<Customer> searchCustomers(CustomerSearch search, int limit);
+    void forEachCustomer(Consumer<Customer> action);
     Optional<Customer> selectCustomerById(Long id);
-    void insertCustomer(Customer customer);
+    Optional<CustomerVersion> selectCustomerVersionById(Long id);
+    boolean insertCustomer(Customer customer);
+    int[] insertCustomers(List<Customer> customers);
     boolean existsCustomerWithEmail(String email);
+    Set<String> selectExistingEmails(Collection<String> emails);
     boolean existsCustomerWithId(Long id);
-    void deleteCustomerById(Long id);
-    void updateCustomer(Customer customer);
+    Optional<Customer> deleteCustomerById(Long id);
+    boolean updateCustomer(Customer customer);
+    int[] updateCustomers(List<Customer> customers);
 }
@@ -0,0 +1,75 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Runtime control of {@link RoutingCustomerDao}:
+ * <ul>
+ *     <li>{@code GET /actuator/customerdao} shows the effective route of every operation</li>
+ *     <li>{@code POST /actuator/customerdao} with {@code defaultBackend}, {@code shadow} (empty to turn it off)
+ *     and {@code shadowSampleRate}, all optional</li>
+ *     <li>{@code POST /actuator/customerdao/{operation}} with {@code backend} pins one operation</li>
+ *     <li>{@code DELETE /actuator/customerdao/{operation}} sends it back to the default backend</li>
+ * </ul>
+ */
+@Component
+@Endpoint(id = "customerdao")
+public class CustomerDaoRoutingEndpoint {
+
+    private final RoutingCustomerDao routingCustomerDao;
+
+    public CustomerDaoRoutingEndpoint(RoutingCustomerDao routingCustomerDao) {
+        this.routingCustomerDao = routingCustomerDao;
+    }
+
+    @ReadOperation
+    public RoutingState routing() {
+        RoutingCustomerDao.Routing routing = routingCustomerDao.routing();
+        return new RoutingState(routing.defaultBackend(), routing.effectiveRoutes(), routing.shadow(), routing.shadowSampleRate());
+    }
+
+    @WriteOperation
+    public RoutingState configure(@Nullable String defaultBackend, @Nullable String shadow, @Nullable Double shadowSampleRate) {
+        try {
+            routingCustomerDao.configure(defaultBackend, shadow, shadowSampleRate);
+        } catch (IllegalArgumentException | InvalidDataAccessApiUsageException e) {
+            // the @Repository proxy translates IllegalArgumentException
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        return routing();
+    }
+
+    @WriteOperation
+    public RoutingState route(@Selector String operation, String backend) {
+        try {
+            routingCustomerDao.route(operation, backend);
+        } catch (IllegalArgumentException | InvalidDataAccessApiUsageException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        return routing();
+    }
+
+    @DeleteOperation
+    public RoutingState resetRoute(@Selector String operation) {
+        routingCustomerDao.route(operation, null);
+        return routing();
+    }
+
+    public record RoutingState(
+            String defaultBackend,
+            Map<String, String> routes,
+            String shadow,
+            double shadowSampleRate
+    ) {
+    }
+}
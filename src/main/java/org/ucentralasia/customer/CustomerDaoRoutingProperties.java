@@ -0,0 +1,22 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Startup routing for {@link RoutingCustomerDao}; the customerdao actuator endpoint changes it at runtime.
+ *
+ * @param defaultBackend    bean name used for every operation without an explicit route
+ * @param operations        CustomerDao method name to bean name, e.g. {@code updateCustomer: jpa}
+ * @param shadow            bean name that repeats read operations in the background for comparison, or empty
+ * @param shadowSampleRate  fraction of reads that are repeated on the shadow backend
+ */
+@ConfigurationProperties("customer.dao.routing")
+public record CustomerDaoRoutingProperties(
+        String defaultBackend,
+        Map<String, String> operations,
+        String shadow,
+        double shadowSampleRate
+) {
+}
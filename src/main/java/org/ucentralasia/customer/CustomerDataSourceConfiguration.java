@@ -0,0 +1,80 @@
+package org.ucentralasia.customer;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces Spring Boot's single pool with a primary pool plus replicas once {@code customer.datasource.replicas}
+ * is set. The application-facing DataSource is a lazy proxy: it only fetches a physical connection at the first
+ * statement, after the transaction has been marked read-only, and takes it from the replicas in that case.
+ * Everything else, including Flyway, the cache invalidation listener and the lookups that fill the customer
+ * cache, stays on the primary.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "customer.datasource", name = "replicas[0].url")
+@EnableConfigurationProperties(CustomerDataSourceProperties.class)
+public class CustomerDataSourceConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * One pool per replica, sized and metered like the primary.
+     */
+    @Bean
+    public ReplicaDataSource replicaDataSource(@Qualifier("primaryDataSource") HikariDataSource primary,
+                                               CustomerDataSourceProperties properties) {
+        List<ReplicaDataSource.Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < properties.replicas().size(); i++) {
+            CustomerDataSourceProperties.Replica replica = properties.replicas().get(i);
+            HikariConfig config = new HikariConfig();
+            primary.copyStateTo(config);
+            config.setPoolName("customer-replica-" + i);
+            config.setJdbcUrl(replica.url());
+            if (replica.username() != null) {
+                config.setUsername(replica.username());
+            }
+            if (replica.password() != null) {
+                config.setPassword(replica.password());
+            }
+            config.setReadOnly(true);
+            // start even if a replica is unreachable; the probe keeps it out of rotation until it answers
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new ReplicaDataSource.Replica(config.getPoolName(), new HikariDataSource(config)));
+        }
+        return new ReplicaDataSource(primary, replicas, properties.selection(), properties.probeInterval());
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primary,
+                                 ReplicaDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public ReadYourWritesFilter readYourWritesFilter(CustomerDataSourceProperties properties) {
+        return new ReadYourWritesFilter(properties.readYourWritesWindow(), Clock.systemUTC());
+    }
+}
@@ -0,0 +1,26 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Read replicas behind {@link ReplicaDataSource}. Nothing changes until at least one replica url is set.
+ *
+ * @param replicas             replica connection settings; username and password default to spring.datasource
+ * @param selection            how a replica is picked for each read-only connection
+ * @param readYourWritesWindow how long a client's reads stay on the primary after it wrote
+ * @param probeInterval        how often every replica is checked with {@code SELECT 1}
+ */
+@ConfigurationProperties("customer.datasource")
+public record CustomerDataSourceProperties(
+        List<Replica> replicas,
+        ReplicaDataSource.Selection selection,
+        Duration readYourWritesWindow,
+        Duration probeInterval
+) {
+
+    public record Replica(String url, String username, String password) {
+    }
+}
@@ -0,0 +1,161 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory negative lookup for customer emails. When {@link #mightExist} returns false the email is definitely
+ * not registered through this node, so the database lookup can be skipped. Emails written by other nodes or
+ * removed by deletes are not tracked; that is safe because inserts still go through customer_email_unique,
+ * and a {@link #rebuild()} every {@code rebuild-interval}, or through the actuator endpoint, resets the
+ * accumulated false positives.
+ */
+@Component
+public class CustomerEmailFilter implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerEmailFilter.class);
+
+    private final CustomerDao customerDao;
+    private final TaskExecutor taskExecutor;
+    private final long expectedInsertions;
+    private final double falsePositiveProbability;
+    private final Duration rebuildInterval;
+    private final ScheduledExecutorService rebuilder = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-email-filter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile EmailBloomFilter current;
+    private volatile EmailBloomFilter rebuilding;
+
+    public CustomerEmailFilter(@Qualifier("jdbc") CustomerDao customerDao,
+                               TaskExecutor taskExecutor,
+                               MeterRegistry meterRegistry,
+                               @Value("${customer.email-filter.expected-insertions}") long expectedInsertions,
+                               @Value("${customer.email-filter.false-positive-probability}") double falsePositiveProbability,
+                               @Value("${customer.email-filter.rebuild-interval:6h}") Duration rebuildInterval) {
+        this.customerDao = customerDao;
+        this.taskExecutor = taskExecutor;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.rebuildInterval = rebuildInterval;
+        Gauge.builder("customer.email.filter.memory", this, f -> f.current == null ? 0 : f.current.memoryBytes())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("customer.email.filter.insertions", this, f -> f.current == null ? 0 : f.current.insertions())
+                .register(meterRegistry);
+        Gauge.builder("customer.email.filter.false.positive.probability", this,
+                        f -> f.current == null ? 1 : f.current.expectedFalsePositiveProbability())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Answers true for every email until the first build has finished.
+     */
+    public boolean mightExist(String email) {
+        EmailBloomFilter filter = current;
+        return filter == null || filter.mightContain(email);
+    }
+
+    public void add(String email) {
+        EmailBloomFilter filter = current;
+        if (filter != null) {
+            filter.put(email);
+        }
+        // a rebuild in progress may already have streamed past this row
+        EmailBloomFilter next = rebuilding;
+        if (next != null) {
+            next.put(email);
+        }
+    }
+
+    /**
+     * Builds the filter and schedules the rebuilds; a zero {@code rebuild-interval} leaves them to the endpoint.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        rebuildAsync();
+        if (!rebuildInterval.isZero()) {
+            long interval = rebuildInterval.toMillis();
+            rebuilder.scheduleWithFixedDelay(this::rebuild, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void rebuildAsync() {
+        taskExecutor.execute(this::rebuild);
+    }
+
+    /**
+     * Streams every email into a fresh filter and swaps it in. Lookups keep using the old filter meanwhile.
+     */
+    public void rebuild() {
+        EmailBloomFilter previous = current;
+        long size = Math.max(expectedInsertions, previous == null ? 0 : previous.insertions() * 2);
+        EmailBloomFilter next = new EmailBloomFilter(size, falsePositiveProbability);
+        synchronized (this) {
+            if (rebuilding != null) {
+                return;
+            }
+            rebuilding = next;
+        }
+        try {
+            long start = System.nanoTime();
+            customerDao.forEachCustomer(customer -> next.put(customer.getEmail()));
+            current = next;
+            log.info("Customer email filter built with {} emails in {} ms: {} bytes, expected false-positive rate {}",
+                    next.insertions(), (System.nanoTime() - start) / 1_000_000,
+                    next.memoryBytes(), next.expectedFalsePositiveProbability());
+        } catch (RuntimeException e) {
+            log.warn("Customer email filter rebuild failed, keeping the previous filter", e);
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        rebuilder.shutdownNow();
+    }
+
+    public Stats stats() {
+        EmailBloomFilter filter = current;
+        if (filter == null) {
+            return new Stats(false, rebuilding != null, 0, 0, 0, 0, 1);
+        }
+        return new Stats(
+                true,
+                rebuilding != null,
+                filter.bitSize(),
+                filter.memoryBytes(),
+                filter.hashFunctions(),
+                filter.insertions(),
+                filter.expectedFalsePositiveProbability()
+        );
+    }
+
+    public record Stats(
+            boolean ready,
+            boolean rebuilding,
+            long bitSize,
+            long memoryBytes,
+            int hashFunctions,
+            long insertions,
+            double expectedFalsePositiveProbability
+    ) {
+    }
+}
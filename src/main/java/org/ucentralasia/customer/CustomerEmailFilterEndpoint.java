@@ -0,0 +1,27 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id = "emailfilter")
+public class CustomerEmailFilterEndpoint {
+
+    private final CustomerEmailFilter customerEmailFilter;
+
+    public CustomerEmailFilterEndpoint(CustomerEmailFilter customerEmailFilter) {
+        this.customerEmailFilter = customerEmailFilter;
+    }
+
+    @ReadOperation
+    public CustomerEmailFilter.Stats stats() {
+        return customerEmailFilter.stats();
+    }
+
+    @WriteOperation
+    public void rebuild() {
+        customerEmailFilter.rebuildAsync();
+    }
+}
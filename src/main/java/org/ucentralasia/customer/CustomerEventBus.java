@@ -0,0 +1,248 @@
+package org.ucentralasia.customer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans customer changes made through {@link CustomerService} out to Server-Sent Events subscribers. Publishing
+ * only hands the change to a dispatcher thread, which renders it to JSON once and offers the same frame to every
+ * subscriber's bounded buffer. A small pool of sender threads writes the buffers to the sockets, one subscriber
+ * at a time and at most a buffer's worth before moving on, so a slow socket cannot hold up the others for long.
+ * <p>
+ * A subscriber whose buffer is full loses what is in it and gets a {@value #RESYNC} event in its place, telling
+ * it to reload the list. The resync carries the id of the event that did not fit, and later events follow it in
+ * order; so does a reconnecting client whose Last-Event-ID is not the latest event. Event ids are only
+ * meaningful within one run of one node. Changes made on other nodes are not published, and imports only send
+ * a resync; GET /changes is the complete feed. Idle connections get a comment every {@code heartbeat-interval}, which also
+ * finds clients that went away.
+ * <p>
+ * A connection costs the emitter, its async request and a buffer of {@code buffer-size} references to frames
+ * that all subscribers share.
+ */
+@Component
+public class CustomerEventBus implements DisposableBean {
+
+    static final String RESYNC = "resync";
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerEventBus.class);
+    private static final Set<DataWithMediaType> HEARTBEAT = SseEmitter.event().comment("heartbeat").build();
+
+    private final ObjectMapper objectMapper;
+    private final int bufferSize;
+    private final Duration timeout;
+    private final Executor dispatcher;
+    private final Executor senders;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("customer-events-heartbeat"));
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // only the dispatcher advances these; a restarted node starts over with a new prefix
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private long sequence;
+    private volatile String lastEventId = runId + "-0";
+
+    @Autowired
+    public CustomerEventBus(ObjectMapper objectMapper,
+                            @Value("${customer.events.buffer-size:256}") int bufferSize,
+                            @Value("${customer.events.sender-threads:4}") int senderThreads,
+                            @Value("${customer.events.heartbeat-interval:30s}") Duration heartbeatInterval,
+                            @Value("${customer.events.timeout:30m}") Duration timeout) {
+        this(objectMapper, bufferSize, timeout,
+                Executors.newSingleThreadExecutor(daemon("customer-events")),
+                Executors.newFixedThreadPool(senderThreads, daemon("customer-events-sender")));
+        long interval = heartbeatInterval.toMillis();
+        heartbeat.scheduleWithFixedDelay(() -> dispatcher.execute(this::sendHeartbeats), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    CustomerEventBus(ObjectMapper objectMapper, int bufferSize, Duration timeout, Executor dispatcher, Executor senders) {
+        this.objectMapper = objectMapper;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        this.dispatcher = dispatcher;
+        this.senders = senders;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger threads = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        subscribe(emitter, lastEventId);
+        return emitter;
+    }
+
+    void subscribe(SseEmitter emitter, String lastEventId) {
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        // EventSource reconnects on its own, with Last-Event-ID
+        emitter.onTimeout(emitter::complete);
+        subscribers.add(subscriber);
+        // commits the response, so the client sees the stream open before the first change
+        subscriber.offerQuietly(HEARTBEAT);
+        String latest = this.lastEventId;
+        if (lastEventId != null && !lastEventId.equals(latest)) {
+            subscriber.resync(latest);
+        }
+    }
+
+    int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * @param customer the customer as written; for an update only the fields that were sent, the others are null
+     */
+    public void publish(CustomerChange.Type type, Customer customer) {
+        dispatcher.execute(() -> {
+            String id = nextEventId();
+            if (subscribers.isEmpty()) {
+                return;
+            }
+            Set<DataWithMediaType> frame = SseEmitter.event()
+                    .id(id)
+                    .name(type.name().toLowerCase(Locale.ROOT))
+                    .data(toJson(customer), MediaType.APPLICATION_JSON)
+                    .build();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(frame, id);
+            }
+        });
+    }
+
+    /**
+     * For changes that were not published one by one, such as imports.
+     */
+    public void resyncAll() {
+        dispatcher.execute(() -> {
+            String id = nextEventId();
+            subscribers.forEach(subscriber -> subscriber.resync(id));
+        });
+    }
+
+    private String nextEventId() {
+        lastEventId = runId + "-" + ++sequence;
+        return lastEventId;
+    }
+
+    private String toJson(Customer customer) {
+        try {
+            return objectMapper.writeValueAsString(customer);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offerQuietly(HEARTBEAT);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+        for (Executor executor : new Executor[]{dispatcher, senders}) {
+            if (executor instanceof ExecutorService service) {
+                service.shutdownNow();
+            }
+        }
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private final class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<Set<DataWithMediaType>> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Producers are serialized here, so only the sender takes frames out while these run.
+         */
+        synchronized void offer(Set<DataWithMediaType> frame, String id) {
+            if (buffer.offer(frame)) {
+                schedule();
+            } else {
+                // taken now rather than when the resync goes out, when later events may already be buffered
+                resync(id);
+            }
+        }
+
+        synchronized void offerQuietly(Set<DataWithMediaType> frame) {
+            if (buffer.offer(frame)) {
+                schedule();
+            }
+        }
+
+        /**
+         * Replaces whatever is buffered, so the resync goes out before anything published after the event with
+         * this id.
+         */
+        synchronized void resync(String id) {
+            buffer.clear();
+            buffer.offer(SseEmitter.event().id(id).name(RESYNC).data("").build());
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int sent = 0; sent < bufferSize; sent++) {
+                    Set<DataWithMediaType> frame = buffer.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    emitter.send(frame);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client went away or the emitter is complete; the container reports the error to the emitter
+                log.debug("Dropping customer event subscriber", e);
+                subscribers.remove(this);
+                return;
+            }
+            scheduled.set(false);
+            if (!buffer.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
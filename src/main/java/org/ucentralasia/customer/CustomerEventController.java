@@ -0,0 +1,32 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping(path = "api/v1/customers")
+public class CustomerEventController {
+
+    static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    private final CustomerEventBus customerEventBus;
+
+    public CustomerEventController(CustomerEventBus customerEventBus) {
+        this.customerEventBus = customerEventBus;
+    }
+
+    /**
+     * Live created, updated and deleted events, with the customer as data. A resync event means events were
+     * dropped and the list has to be loaded again.
+     */
+    @GetMapping(path = "events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        return customerEventBus.subscribe(lastEventId);
+    }
+}
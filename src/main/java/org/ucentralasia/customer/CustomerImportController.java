@@ -0,0 +1,46 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.InputStream;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping(path = "api/v1/customers/import")
+public class CustomerImportController {
+
+    private final CustomerImportService customerImportService;
+    private final CustomerStatistics customerStatistics;
+    private final CustomerEventBus customerEventBus;
+
+    public CustomerImportController(CustomerImportService customerImportService,
+                                    CustomerStatistics customerStatistics,
+                                    CustomerEventBus customerEventBus) {
+        this.customerImportService = customerImportService;
+        this.customerStatistics = customerStatistics;
+        this.customerEventBus = customerEventBus;
+    }
+
+    // COPY bypasses CustomerService, so the statistics are recounted instead of updated row by row, and event
+    // subscribers are told to reload instead of getting an event per row
+
+    @PostMapping(value = "", consumes = "text/csv")
+    public CustomerImportResult importCsv(InputStream body) {
+        CustomerImportResult result = customerImportService.importCsv(body);
+        customerStatistics.reconcileAsync();
+        customerEventBus.resyncAll();
+        return result;
+    }
+
+    @PostMapping(value = "", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public CustomerImportResult importNdjson(InputStream body) {
+        CustomerImportResult result = customerImportService.importNdjson(body);
+        customerStatistics.reconcileAsync();
+        customerEventBus.resyncAll();
+        return result;
+    }
+}
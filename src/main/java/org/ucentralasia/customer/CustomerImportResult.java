@@ -0,0 +1,10 @@
+package org.ucentralasia.customer;
+
+public record CustomerImportResult(
+        long rowsRead,
+        long rowsImported,
+        long rowsSkipped,
+        long durationMillis,
+        long rowsPerSecond
+) {
+}
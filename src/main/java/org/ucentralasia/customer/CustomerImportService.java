@@ -0,0 +1,168 @@
+package org.ucentralasia.customer;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.ucentralasia.customer.exception.RequestValidationException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk import through the PostgreSQL COPY protocol. The upload is streamed into a temporary staging table
+ * and merged into {@code customer} with a single set-based INSERT, so no {@link Customer} is ever built.
+ */
+@Service
+public class CustomerImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerImportService.class);
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public CustomerImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Expects a header line followed by {@code name,email,age} records.
+     */
+    public CustomerImportResult importCsv(InputStream csv) {
+        return runImport(
+                """
+                CREATE TEMP TABLE customer_import (
+                    name TEXT,
+                    email TEXT,
+                    age INT
+                ) ON COMMIT DROP
+                """,
+                """
+                COPY customer_import (name, email, age) FROM STDIN WITH (FORMAT csv, HEADER true)
+                """,
+                """
+                INSERT INTO customer(name, email, age)
+                SELECT name, email, age
+                FROM customer_import
+                WHERE name IS NOT NULL AND email IS NOT NULL AND age IS NOT NULL
+                ON CONFLICT ON CONSTRAINT customer_email_unique DO NOTHING
+                """,
+                csv
+        );
+    }
+
+    /**
+     * Expects one {@code {"name": ..., "email": ..., "age": ...}} document per line.
+     */
+    public CustomerImportResult importNdjson(InputStream ndjson) {
+        // CSV with quote and delimiter characters that never appear in JSON copies every line verbatim
+        return runImport(
+                """
+                CREATE TEMP TABLE customer_import (
+                    doc JSONB
+                ) ON COMMIT DROP
+                """,
+                """
+                COPY customer_import (doc) FROM STDIN WITH (FORMAT csv, QUOTE e'\\x01', DELIMITER e'\\x02')
+                """,
+                """
+                INSERT INTO customer(name, email, age)
+                SELECT r.name, r.email, r.age
+                FROM customer_import, jsonb_to_record(doc) AS r(name TEXT, email TEXT, age INT)
+                WHERE r.name IS NOT NULL AND r.email IS NOT NULL AND r.age IS NOT NULL
+                ON CONFLICT ON CONSTRAINT customer_email_unique DO NOTHING
+                """,
+                ndjson
+        );
+    }
+
+    private CustomerImportResult runImport(String stagingSql, String copySql, String mergeSql, InputStream input) {
+        long start = System.nanoTime();
+        ProgressInputStream progress = new ProgressInputStream(input, start);
+        long[] counts;
+        try {
+            counts = transactionTemplate.execute(status -> {
+                jdbcTemplate.execute(stagingSql);
+                long read = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+                    try {
+                        return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql, progress);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                log.info("Staged {} customers, merging into customer table", read);
+                long imported = jdbcTemplate.update(mergeSql);
+                return new long[]{read, imported};
+            });
+        } catch (DataIntegrityViolationException e) {
+            throw new RequestValidationException("Import rejected: " + e.getMostSpecificCause().getMessage());
+        }
+
+        long elapsedNanos = Math.max(System.nanoTime() - start, 1);
+        CustomerImportResult result = new CustomerImportResult(
+                counts[0],
+                counts[1],
+                counts[0] - counts[1],
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                counts[0] * TimeUnit.SECONDS.toNanos(1) / elapsedNanos
+        );
+        log.info("Customer import finished: {}", result);
+        return result;
+    }
+
+    /**
+     * Counts lines as the driver pulls the upload and logs throughput every few seconds.
+     */
+    private static final class ProgressInputStream extends FilterInputStream {
+        private final long start;
+        private long lines;
+        private long lastReport;
+
+        private ProgressInputStream(InputStream in, long start) {
+            super(in);
+            this.start = start;
+            this.lastReport = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == '\n') {
+                lines++;
+            }
+            report();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            for (int i = offset; i < offset + read; i++) {
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+            report();
+            return read;
+        }
+
+        private void report() {
+            long now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                lastReport = now;
+                log.info("Customer import progress: {} lines read, {} lines/sec",
+                        lines, lines * TimeUnit.SECONDS.toNanos(1) / (now - start));
+            }
+        }
+    }
+}
@@ -1,14 +1,31 @@
 package org.ucentralasia.customer;
 
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Repository("jdbc")
 public class CustomerJDBCDataAccessService implements CustomerDao{
+    private static final int STREAM_FETCH_SIZE = 1000;
+
     private final JdbcTemplate jdbcTemplate;
     private final RowMapper customerRowMapper;
 
@@ -20,12 +37,62 @@ public class CustomerJDBCDataAccessService implements CustomerDao{
     @Override
     public List<Customer> selectAllCustomers() {
         var sql = """
-                SELECT id, name, email, age 
+                SELECT id, name, email, age, version, updated_at
                 FROM customer
         """;
         return jdbcTemplate.query(sql, customerRowMapper);
     }
 
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        var sql = """
+                SELECT id, name, email, age, version, updated_at
+                FROM customer
+                WHERE id > ?
+                ORDER BY id
+                LIMIT ?
+                """;
+        return jdbcTemplate.query(sql, customerRowMapper, id, limit);
+    }
+
+    /**
+     * See {@link CustomerPage#VERSION_SQL}.
+     */
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return jdbcTemplate.queryForObject(CustomerPage.VERSION_SQL, String.class, id, limit);
+    }
+
+    @Override
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        CustomerSearchQuery query = CustomerSearchQuery.of(search, limit);
+        return jdbcTemplate.query(query.sql(), customerRowMapper, query.args());
+    }
+
+    /**
+     * The PostgreSQL driver only uses a server-side cursor when auto-commit is off and a fetch size is set,
+     * hence the read-only transaction. There is deliberately no ORDER BY so the first rows are sent
+     * without waiting for a sort of the whole table.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachCustomer(Consumer<Customer> action) {
+        var sql = """
+                SELECT id, name, email, age, version, updated_at
+                FROM customer
+                """;
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+                    );
+                    statement.setFetchSize(STREAM_FETCH_SIZE);
+                    return statement;
+                },
+                (RowCallbackHandler) rs -> action.accept((Customer) customerRowMapper.mapRow(rs, rs.getRow()))
+        );
+    }
+
     @Override
     public Optional selectCustomerById(Long id) {
         var sql = """
@@ -38,13 +105,95 @@ public class CustomerJDBCDataAccessService implements CustomerDao{
     }
 
     @Override
-    public void insertCustomer(Customer customer) {
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        var sql = """
+                SELECT id, version, updated_at
+                FROM customer
+                WHERE id = ?
+                """;
+        return jdbcTemplate.query(
+                sql,
+                (rs, rowNum) -> new CustomerVersion(
+                        rs.getLong("id"),
+                        rs.getLong("version"),
+                        rs.getTimestamp("updated_at").toInstant()
+                ),
+                id
+        ).stream().findFirst();
+    }
+
+    /**
+     * Relies on customer_email_unique instead of a separate existence check. Sets the generated id and version
+     * on the customer and returns false when the email is already taken.
+     */
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        var sql = """
+                INSERT INTO customer(name, email, age)
+                VALUES (?, ?, ?)
+                ON CONFLICT ON CONSTRAINT customer_email_unique DO NOTHING
+                RETURNING id, version, updated_at
+                """;
+        List<Boolean> inserted = jdbcTemplate.query(
+                sql,
+                (rs, rowNum) -> {
+                    customer.setId(rs.getLong("id"));
+                    customer.setVersion(rs.getLong("version"));
+                    customer.setUpdatedAt(rs.getTimestamp("updated_at").toInstant());
+                    return true;
+                },
+                customer.getName(), customer.getEmail(), customer.getAge()
+        );
+        return !inserted.isEmpty();
+    }
+
+    /**
+     * Sends the whole list as one JDBC batch. Rows whose email was taken in the meantime are skipped
+     * instead of failing the batch; their update count is 0. The inserted customers get their generated id and
+     * version from one follow-up query by email, since batched statements cannot return rows.
+     */
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
         var sql = """
                 INSERT INTO customer(name, email, age)
                 VALUES (?, ?, ?)
+                ON CONFLICT ON CONSTRAINT customer_email_unique DO NOTHING
                 """;
-        int update = jdbcTemplate.update(sql, customer.getName(), customer.getEmail(), customer.getAge());
-        System.out.println("jdbcTemplate.update = " + update);
+        int[] updateCounts = insertCustomerBatch(sql, customers);
+        Map<String, Customer> inserted = new HashMap<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] != 0) inserted.put(customers.get(i).getEmail(), customers.get(i));
+        }
+        if (!inserted.isEmpty()) {
+            jdbcTemplate.query(
+                    "SELECT id, email, version, updated_at FROM customer WHERE email = ANY (?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", inserted.keySet().toArray())),
+                    (RowCallbackHandler) rs -> {
+                        Customer customer = inserted.get(rs.getString("email"));
+                        customer.setId(rs.getLong("id"));
+                        customer.setVersion(rs.getLong("version"));
+                        customer.setUpdatedAt(rs.getTimestamp("updated_at").toInstant());
+                    }
+            );
+        }
+        return updateCounts;
+    }
+
+    private int[] insertCustomerBatch(String sql, List<Customer> customers) {
+        return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Customer customer = customers.get(i);
+                ps.setString(1, customer.getName());
+                ps.setString(2, customer.getEmail());
+                ps.setInt(3, customer.getAge());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return customers.size();
+            }
+        });
     }
 
     @Override
@@ -58,6 +207,20 @@ public class CustomerJDBCDataAccessService implements CustomerDao{
         return count != null && count > 0;
     }
 
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        var sql = """
+                SELECT email
+                FROM customer
+                WHERE email = ANY (?)
+                """;
+        return new HashSet<>(jdbcTemplate.query(
+                sql,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", emails.toArray())),
+                (rs, rowNum) -> rs.getString("email")
+        ));
+    }
+
     @Override
     public boolean existsCustomerWithId(Long id) {
         var sql = """
@@ -70,45 +233,99 @@ public class CustomerJDBCDataAccessService implements CustomerDao{
     }
 
     @Override
-    public void deleteCustomerById(Long id) {
+    public Optional<Customer> deleteCustomerById(Long id) {
         var sql = """
                 DELETE
                 FROM customer
                 WHERE id = ?
+                RETURNING id, name, email, age, version, updated_at
                 """;
-        int result = jdbcTemplate.update(sql, id);
-        System.out.println("result = " + result);
+        List<Customer> deleted = jdbcTemplate.query(sql, customerRowMapper, id);
+        return deleted.stream().findFirst();
     }
 
+    /**
+     * Writes every non-null field in one statement. The IS DISTINCT FROM guard skips the write entirely when
+     * nothing differs, so an unchanged PUT does not leave a dead row version behind. A non-null version makes
+     * the write conditional on the stored version, and on success the new version is set on the customer.
+     * Returns false when no row was changed, because the id does not exist, the version is stale or nothing
+     * differs.
+     */
     @Override
-    public void updateCustomer(Customer customer) {
+    public boolean updateCustomer(Customer customer) {
         if (customer.getId() == null) throw new IllegalArgumentException("Customer id is null");
+        List<String> columns = new ArrayList<>(3);
+        List<Object> values = new ArrayList<>(3);
         if (customer.getName() != null) {
-            var sql = """
-                    UPDATE customer
-                    SET name = ?
-                    WHERE id = ?
-                    """;
-            int result = jdbcTemplate.update(sql, customer.getName(), customer.getId());
-            System.out.println("Change name result is " + result);
+            columns.add("name");
+            values.add(customer.getName());
         }
-        if (customer.getEmail()!= null) {
-            var sql = """
-                    UPDATE customer
-                    SET email = ?
-                    WHERE id = ?
-                    """;
-            int result = jdbcTemplate.update(sql, customer.getEmail(), customer.getId());
-            System.out.println("Change email result is " + result);
+        if (customer.getEmail() != null) {
+            columns.add("email");
+            values.add(customer.getEmail());
         }
         if (customer.getAge() != null) {
-            var sql = """
-                    UPDATE customer
-                    SET age = ?
-                    WHERE id = ?
-                    """;
-            int result = jdbcTemplate.update(sql, customer.getAge(), customer.getId());
-            System.out.println("Change age result is " + result);
+            columns.add("age");
+            values.add(customer.getAge());
+        }
+        if (columns.isEmpty()) {
+            return false;
+        }
+        var sql = """
+                UPDATE customer
+                SET %s
+                WHERE id = ?%s AND (%s)
+                RETURNING version
+                """.formatted(
+                columns.stream().map(column -> column + " = ?").collect(Collectors.joining(", ")),
+                customer.getVersion() == null ? "" : " AND version = ?",
+                columns.stream().map(column -> column + " IS DISTINCT FROM ?").collect(Collectors.joining(" OR "))
+        );
+        List<Object> args = new ArrayList<>(values.size() * 2 + 2);
+        args.addAll(values);
+        args.add(customer.getId());
+        if (customer.getVersion() != null) {
+            args.add(customer.getVersion());
+        }
+        args.addAll(values);
+        List<Long> versions = jdbcTemplate.queryForList(sql, Long.class, args.toArray());
+        if (versions.isEmpty()) {
+            return false;
         }
+        customer.setVersion(versions.get(0));
+        return true;
+    }
+
+    /**
+     * Sends the whole list as one JDBC batch with the same statement for every row; null fields keep their
+     * stored value, and a non-null version makes the row's update conditional on the stored version. Rows that no
+     * longer exist, are at another version or already hold these values are skipped with an update count of 0.
+     */
+    @Override
+    public int[] updateCustomers(List<Customer> customers) {
+        var sql = """
+                UPDATE customer
+                SET name = coalesce(?, name), email = coalesce(?, email), age = coalesce(?, age)
+                WHERE id = ? AND version = coalesce(?, version)
+                  AND (name, email, age) IS DISTINCT FROM (coalesce(?, name), coalesce(?, email), coalesce(?, age))
+                """;
+        return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Customer customer = customers.get(i);
+                for (int offset : new int[]{0, 5}) {
+                    ps.setString(offset + 1, customer.getName());
+                    ps.setString(offset + 2, customer.getEmail());
+                    ps.setObject(offset + 3, customer.getAge(), Types.INTEGER);
+                }
+                ps.setLong(4, customer.getId());
+                ps.setObject(5, customer.getVersion(), Types.BIGINT);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return customers.size();
+            }
+        });
     }
 }
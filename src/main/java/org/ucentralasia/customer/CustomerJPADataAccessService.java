@@ -1,33 +1,134 @@
 package org.ucentralasia.customer;
 
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Repository("jpa")
 public class CustomerJPADataAccessService implements CustomerDao{
 
     private final CustomerRespository customerRespository;
+    private final EntityManager entityManager;
 
-    public CustomerJPADataAccessService(CustomerRespository customerRespository) {
+    public CustomerJPADataAccessService(CustomerRespository customerRespository, EntityManager entityManager) {
         this.customerRespository = customerRespository;
+        this.entityManager = entityManager;
     }
     @Override
     public List<Customer> selectAllCustomers() {
         return customerRespository.findAll();
     }
 
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        return customerRespository.findByIdGreaterThanOrderByIdAsc(id, Limit.of(limit));
+    }
+
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return (String) entityManager.createNativeQuery(CustomerPage.VERSION_SQL)
+                .setParameter(1, id)
+                .setParameter(2, limit)
+                .getSingleResult();
+    }
+
+    /**
+     * Runs the same native SQL as the JDBC backend, since JPQL has no way to express the index-friendly
+     * predicates.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        CustomerSearchQuery searchQuery = CustomerSearchQuery.of(search, limit);
+        Query query = entityManager.createNativeQuery(searchQuery.sql(), Customer.class);
+        Object[] args = searchQuery.args();
+        for (int i = 0; i < args.length; i++) {
+            query.setParameter(i + 1, args[i]);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachCustomer(Consumer<Customer> action) {
+        try (Stream<Customer> customers = customerRespository.streamAllBy()) {
+            customers.forEach(customer -> {
+                action.accept(customer);
+                // keep the persistence context from growing with every row we scroll past
+                entityManager.detach(customer);
+            });
+        }
+    }
+
     @Override
     public Optional<Customer> selectCustomerById(Long id) {
         return customerRespository.findById(Math.toIntExact(id));
     }
 
     @Override
-    public void insertCustomer(Customer customer) {
-        customerRespository.save(customer);
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        return customerRespository.findVersionById(id);
+    }
+
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        try {
+            customerRespository.save(customer);
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            if (isEmailConflict(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Relies on hibernate.jdbc.batch_size to group the inserts into JDBC batches. An email registered
+     * concurrently rolls the whole batch back, so the rows are then inserted one by one to get the same
+     * per-row outcome as the JDBC backend: 1, or 0 for an email that is taken.
+     */
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
+        int[] updateCounts = new int[customers.size()];
+        try {
+            customerRespository.saveAll(customers);
+            Arrays.fill(updateCounts, 1);
+            return updateCounts;
+        } catch (DataIntegrityViolationException e) {
+            // a constraint other than the email fails again below, on its own row
+        }
+        for (int i = 0; i < customers.size(); i++) {
+            Customer customer = customers.get(i);
+            // the rolled back batch left its generated id and initial version behind, which would make the
+            // entity look detached
+            customer.setId(null);
+            customer.setVersion(null);
+            if (insertCustomer(customer)) {
+                updateCounts[i] = 1;
+            } else {
+                customer.setId(null);
+                customer.setVersion(null);
+            }
+        }
+        return updateCounts;
     }
 
     @Override
@@ -35,18 +136,94 @@ public class CustomerJPADataAccessService implements CustomerDao{
         return customerRespository.existsCustomerByEmail(email);
     }
 
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        return customerRespository.findExistingEmails(emails);
+    }
+
     @Override
     public boolean existsCustomerWithId(Long id) {
         return customerRespository.existsCustomerById(id);
     }
 
     @Override
-    public void deleteCustomerById(Long id) {
-        customerRespository.deleteById(Math.toIntExact(id));
+    public Optional<Customer> deleteCustomerById(Long id) {
+        Optional<Customer> customer = customerRespository.findById(Math.toIntExact(id));
+        customer.ifPresent(customerRespository::delete);
+        return customer;
     }
 
+    /**
+     * Applies the non-null fields of the given customer to the stored one. A non-null version has to match the
+     * stored one, and on success the new version is set on the customer. Returns false when there is no such
+     * customer, the version is stale or nothing differs; a write that races with another one fails the
+     * {@code @Version} check with an {@link org.springframework.orm.ObjectOptimisticLockingFailureException}.
+     */
     @Override
-    public void updateCustomer(Customer customer) {
-        customerRespository.save(customer);
+    public boolean updateCustomer(Customer customer) {
+        Optional<Customer> stored = customerRespository.findById(Math.toIntExact(customer.getId()));
+        if (stored.isEmpty()) {
+            return false;
+        }
+        Customer existing = stored.get();
+        if (customer.getVersion() != null && !customer.getVersion().equals(existing.getVersion())) {
+            return false;
+        }
+        if (!applyChanges(customer, existing)) {
+            return false;
+        }
+        try {
+            customer.setVersion(customerRespository.save(existing).getVersion());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            if (isEmailConflict(e)) {
+                throw new DuplicateKeyException(e.getMessage(), e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads all rows with one query and lets dirty checking write the changed ones when the transaction
+     * commits, in JDBC batches of {@code hibernate.jdbc.batch_size}. A non-null version has to match the stored
+     * one, or the row is skipped.
+     */
+    @Override
+    @Transactional
+    public int[] updateCustomers(List<Customer> customers) {
+        Map<Long, Customer> stored = new HashMap<>();
+        customerRespository.findAllById(customers.stream().map(customer -> Math.toIntExact(customer.getId())).toList())
+                .forEach(customer -> stored.put(customer.getId(), customer));
+        int[] updateCounts = new int[customers.size()];
+        for (int i = 0; i < updateCounts.length; i++) {
+            Customer update = customers.get(i);
+            Customer existing = stored.get(update.getId());
+            updateCounts[i] = existing != null
+                    && (update.getVersion() == null || update.getVersion().equals(existing.getVersion()))
+                    && applyChanges(update, existing) ? 1 : 0;
+        }
+        return updateCounts;
+    }
+
+    private static boolean applyChanges(Customer update, Customer existing) {
+        boolean changes = false;
+        if (update.getName() != null && !update.getName().equals(existing.getName())) {
+            existing.setName(update.getName());
+            changes = true;
+        }
+        if (update.getEmail() != null && !update.getEmail().equals(existing.getEmail())) {
+            existing.setEmail(update.getEmail());
+            changes = true;
+        }
+        if (update.getAge() != null && !update.getAge().equals(existing.getAge())) {
+            existing.setAge(update.getAge());
+            changes = true;
+        }
+        return changes;
+    }
+
+    private static boolean isEmailConflict(DataIntegrityViolationException e) {
+        return e.getCause() instanceof ConstraintViolationException violation
+                && "customer_email_unique".equals(violation.getConstraintName());
     }
 }
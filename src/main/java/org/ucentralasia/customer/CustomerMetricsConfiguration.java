@@ -0,0 +1,40 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class CustomerMetricsConfiguration {
+
+    /**
+     * Enables {@code @Timed} on {@link CustomerService}.
+     */
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    /**
+     * Wraps every CustomerDao implementation in a {@link MeteredCustomerDao} tagged with its bean name. The cache
+     * and the router are left alone so each call is only measured once, at the implementation. This runs after
+     * the transaction proxy has been applied, so the metered time includes commit.
+     */
+    @Bean
+    public static BeanPostProcessor meteredCustomerDaoPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof CustomerDao customerDao
+                        && !(bean instanceof CachingCustomerDao)
+                        && !(bean instanceof RoutingCustomerDao)) {
+                    return new MeteredCustomerDao(customerDao, beanName, meterRegistry.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+package org.ucentralasia.customer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * @param version digest of the ids and versions of every row the page was built from, including the one fetched
+ *                to find the next cursor; null when the rows carry no version
+ */
+public record CustomerPage(
+        List<Customer> customers,
+        Long nextCursor,
+        String version
+) {
+
+    /**
+     * Computes {@link #version(List)} in the database for the rows after an id, so a conditional request for
+     * an unchanged page is answered without sending the rows over.
+     */
+    static final String VERSION_SQL = """
+            SELECT md5(coalesce(string_agg(id || ':' || version, ',' ORDER BY id), ''))
+            FROM (
+                SELECT id, version
+                FROM customer
+                WHERE id > ?
+                ORDER BY id
+                LIMIT ?
+            ) AS page
+            """;
+
+    static String version(List<Customer> rows) {
+        StringBuilder ids = new StringBuilder(rows.size() * 16);
+        for (Customer customer : rows) {
+            if (!ids.isEmpty()) {
+                ids.append(',');
+            }
+            ids.append(customer.getId()).append(':').append(customer.getVersion());
+        }
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(md5.digest(ids.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is required by every Java platform", e);
+        }
+    }
+}
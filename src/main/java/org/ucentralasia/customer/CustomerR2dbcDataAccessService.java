@@ -0,0 +1,167 @@
+package org.ucentralasia.customer;
+
+import io.r2dbc.spi.Readable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Repository("r2dbc")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class CustomerR2dbcDataAccessService implements ReactiveCustomerDao {
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private final DatabaseClient databaseClient;
+
+    public CustomerR2dbcDataAccessService(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Rows are pulled from a portal {@value #STREAM_FETCH_SIZE} at a time as the subscriber requests them, so a
+     * slow client holds back the query instead of filling the heap.
+     */
+    @Override
+    public Flux<Customer> selectAllCustomers() {
+        var sql = """
+                SELECT id, name, email, age
+                FROM customer
+                """;
+        return databaseClient.sql(sql)
+                .filter(statement -> statement.fetchSize(STREAM_FETCH_SIZE))
+                .map(CustomerR2dbcDataAccessService::mapRow)
+                .all();
+    }
+
+    @Override
+    public Flux<Customer> selectCustomersAfterId(Long id, int limit) {
+        var sql = """
+                SELECT id, name, email, age
+                FROM customer
+                WHERE id > $1
+                ORDER BY id
+                LIMIT $2
+                """;
+        return databaseClient.sql(sql)
+                .bind(0, id)
+                .bind(1, limit)
+                .map(CustomerR2dbcDataAccessService::mapRow)
+                .all();
+    }
+
+    @Override
+    public Mono<Customer> selectCustomerById(Long id) {
+        var sql = """
+                SELECT id, name, email, age
+                FROM customer
+                WHERE id = $1
+                """;
+        return databaseClient.sql(sql)
+                .bind(0, id)
+                .map(CustomerR2dbcDataAccessService::mapRow)
+                .one();
+    }
+
+    @Override
+    public Mono<Boolean> insertCustomer(Customer customer) {
+        var sql = """
+                INSERT INTO customer(name, email, age)
+                VALUES ($1, $2, $3)
+                ON CONFLICT ON CONSTRAINT customer_email_unique DO NOTHING
+                RETURNING id
+                """;
+        return databaseClient.sql(sql)
+                .bind(0, customer.getName())
+                .bind(1, customer.getEmail())
+                .bind(2, customer.getAge())
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .doOnNext(customer::setId)
+                .hasElement();
+    }
+
+    @Override
+    public Mono<Boolean> existsCustomerWithId(Long id) {
+        var sql = """
+                SELECT EXISTS(SELECT 1 FROM customer WHERE id = $1)
+                """;
+        return databaseClient.sql(sql)
+                .bind(0, id)
+                .map(row -> row.get(0, Boolean.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Customer> deleteCustomerById(Long id) {
+        var sql = """
+                DELETE FROM customer
+                WHERE id = $1
+                RETURNING id, name, email, age
+                """;
+        return databaseClient.sql(sql)
+                .bind(0, id)
+                .map(CustomerR2dbcDataAccessService::mapRow)
+                .one();
+    }
+
+    @Override
+    public Mono<Boolean> updateCustomer(Customer customer) {
+        if (customer.getId() == null) {
+            return Mono.error(new IllegalArgumentException("Customer id is null"));
+        }
+        List<String> columns = new ArrayList<>(3);
+        List<Object> values = new ArrayList<>(3);
+        if (customer.getName() != null) {
+            columns.add("name");
+            values.add(customer.getName());
+        }
+        if (customer.getEmail() != null) {
+            columns.add("email");
+            values.add(customer.getEmail());
+        }
+        if (customer.getAge() != null) {
+            columns.add("age");
+            values.add(customer.getAge());
+        }
+        if (columns.isEmpty()) {
+            return Mono.just(false);
+        }
+        // $1..$n hold the new values and $n+1 the id; the values are referenced twice by position
+        List<String> assignments = new ArrayList<>(columns.size());
+        List<String> changes = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            assignments.add(columns.get(i) + " = $" + (i + 1));
+            changes.add(columns.get(i) + " IS DISTINCT FROM $" + (i + 1));
+        }
+        var sql = """
+                UPDATE customer
+                SET %s
+                WHERE id = $%d AND (%s)
+                """.formatted(
+                String.join(", ", assignments),
+                columns.size() + 1,
+                String.join(" OR ", changes)
+        );
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql);
+        for (int i = 0; i < values.size(); i++) {
+            spec = spec.bind(i, values.get(i));
+        }
+        return spec.bind(values.size(), customer.getId())
+                .fetch()
+                .rowsUpdated()
+                .map(count -> count > 0);
+    }
+
+    private static Customer mapRow(Readable row) {
+        return new Customer(
+                row.get("id", Long.class),
+                row.get("name", String.class),
+                row.get("email", String.class),
+                row.get("age", Integer.class)
+        );
+    }
+}
@@ -0,0 +1,13 @@
+package org.ucentralasia.customer;
+
+public record CustomerRegistrationResult(
+        int index,
+        String email,
+        Status status
+) {
+    public enum Status {
+        CREATED,
+        DUPLICATE,
+        INVALID
+    }
+}
@@ -1,8 +1,37 @@
 package org.ucentralasia.customer;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 public interface CustomerRespository extends JpaRepository<Customer, Integer> {
     boolean existsCustomerByEmail(String email);
     boolean existsCustomerById(Long id);
+
+    @Query("SELECT c.email FROM Customer c WHERE c.email IN :emails")
+    Set<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+    List<Customer> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    @Query("SELECT new org.ucentralasia.customer.CustomerVersion(c.id, c.version, c.updatedAt) FROM Customer c WHERE c.id = :id")
+    Optional<CustomerVersion> findVersionById(@Param("id") Long id);
+
+    @Query("SELECT c FROM Customer c")
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")
+    })
+    Stream<Customer> streamAllBy();
 }
@@ -10,11 +10,14 @@ import java.sql.SQLException;
 public class CustomerRowMapper implements RowMapper<Customer> {
     @Override
     public Customer mapRow(ResultSet rs, int rowNum) throws SQLException {
-        return new Customer(
+        Customer customer = new Customer(
                 (long)rs.getInt("id"),
                 rs.getString("name"),
                 rs.getString("email"),
                 rs.getInt("age")
         );
+        customer.setVersion(rs.getLong("version"));
+        customer.setUpdatedAt(rs.getTimestamp("updated_at").toInstant());
+        return customer;
     }
 }
@@ -0,0 +1,90 @@
+package org.ucentralasia.customer;
+
+import org.ucentralasia.customer.exception.RequestValidationException;
+
+import java.util.Arrays;
+
+/**
+ * A validated customer search. Filters that are null are not applied.
+ *
+ * @param emailPrefix case-insensitive prefix of the email
+ * @param name        case-insensitive fragment of the name, at least {@value #MIN_NAME_LENGTH} characters
+ * @param minAge      inclusive lower bound of the age
+ * @param maxAge      inclusive upper bound of the age
+ * @param sort        result order, always ending in the id so the keyset is unique
+ * @param after       position of the last row of the previous page, or null for the first page
+ */
+public record CustomerSearch(
+        String emailPrefix,
+        String name,
+        Integer minAge,
+        Integer maxAge,
+        Sort sort,
+        Cursor after
+) {
+
+    /**
+     * Shorter fragments have no trigram to look up in the name index.
+     */
+    static final int MIN_NAME_LENGTH = 3;
+
+    public enum Sort {
+        ID("id"),
+        ID_DESC("-id"),
+        AGE("age"),
+        AGE_DESC("-age");
+
+        private final String value;
+
+        Sort(String value) {
+            this.value = value;
+        }
+
+        static Sort parse(String value) {
+            return Arrays.stream(values())
+                    .filter(sort -> sort.value.equals(value))
+                    .findFirst()
+                    .orElseThrow(() -> new RequestValidationException(
+                            "sort must be one of id, -id, age, -age."));
+        }
+
+        boolean byAge() {
+            return this == AGE || this == AGE_DESC;
+        }
+
+        boolean descending() {
+            return this == ID_DESC || this == AGE_DESC;
+        }
+    }
+
+    /**
+     * Keyset position; {@code age} is only set when sorting by age. Encoded as {@code id} or {@code age:id}.
+     */
+    public record Cursor(Integer age, long id) {
+
+        static Cursor of(Customer customer, Sort sort) {
+            return new Cursor(sort.byAge() ? customer.getAge() : null, customer.getId());
+        }
+
+        static Cursor parse(String value, Sort sort) {
+            try {
+                if (!sort.byAge()) {
+                    return new Cursor(null, Long.parseLong(value));
+                }
+                int separator = value.indexOf(':');
+                if (separator > 0) {
+                    return new Cursor(
+                            Integer.parseInt(value.substring(0, separator)),
+                            Long.parseLong(value.substring(separator + 1)));
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            throw new RequestValidationException("after [%s] is not a cursor for sort %s.".formatted(value, sort.value));
+        }
+
+        String encode() {
+            return age == null ? Long.toString(id) : age + ":" + id;
+        }
+    }
+}
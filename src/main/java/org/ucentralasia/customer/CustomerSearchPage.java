@@ -0,0 +1,9 @@
+package org.ucentralasia.customer;
+
+import java.util.List;
+
+public record CustomerSearchPage(
+        List<Customer> customers,
+        String nextCursor
+) {
+}
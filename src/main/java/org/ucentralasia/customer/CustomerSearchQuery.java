@@ -0,0 +1,73 @@
+package org.ucentralasia.customer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Native SQL for a {@link CustomerSearch}, shared by the JDBC and JPA backends so both run the same plan. Every
+ * predicate is written the way its index expects it:
+ * <ul>
+ *     <li>{@code lower(email) LIKE 'prefix%'} matches {@code customer_email_lower_pattern_idx}, whose
+ *     text_pattern_ops turn the prefix into a btree range under any collation</li>
+ *     <li>{@code name ILIKE '%fragment%'} matches the trigram index {@code customer_name_trgm_idx}</li>
+ *     <li>age bounds and the age keyset use {@code customer_age_id_idx} on {@code (age, id)}, which also returns
+ *     rows already in {@code ORDER BY age, id} order, in either direction</li>
+ *     <li>the id keyset uses the primary key</li>
+ * </ul>
+ * The keyset is a row comparison rather than an OR of columns, so Postgres can start the index scan right at
+ * the cursor.
+ */
+record CustomerSearchQuery(String sql, Object[] args) {
+
+    static CustomerSearchQuery of(CustomerSearch search, int limit) {
+        List<String> predicates = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (search.emailPrefix() != null) {
+            predicates.add("lower(email) LIKE ?");
+            args.add(escapeLike(search.emailPrefix().toLowerCase(Locale.ROOT)) + "%");
+        }
+        if (search.name() != null) {
+            predicates.add("name ILIKE ?");
+            args.add("%" + escapeLike(search.name()) + "%");
+        }
+        if (search.minAge() != null) {
+            predicates.add("age >= ?");
+            args.add(search.minAge());
+        }
+        if (search.maxAge() != null) {
+            predicates.add("age <= ?");
+            args.add(search.maxAge());
+        }
+        CustomerSearch.Sort sort = search.sort();
+        String comparison = sort.descending() ? "<" : ">";
+        if (search.after() != null) {
+            if (sort.byAge()) {
+                predicates.add("(age, id) " + comparison + " (?, ?)");
+                args.add(search.after().age());
+            } else {
+                predicates.add("id " + comparison + " ?");
+            }
+            args.add(search.after().id());
+        }
+        String direction = sort.descending() ? " DESC" : "";
+        String orderBy = sort.byAge() ? "age" + direction + ", id" + direction : "id" + direction;
+        args.add(limit);
+
+        var sql = """
+                SELECT id, name, email, age, version, updated_at
+                FROM customer
+                %s
+                ORDER BY %s
+                LIMIT ?
+                """.formatted(predicates.isEmpty() ? "" : "WHERE " + String.join(" AND ", predicates), orderBy);
+        return new CustomerSearchQuery(sql, args.toArray());
+    }
+
+    /**
+     * Backslash is the default LIKE escape character in Postgres.
+     */
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,12 @@
+package org.ucentralasia.customer;
+
+public record CustomerSearchRequest(
+        String email,
+        String name,
+        Integer minAge,
+        Integer maxAge,
+        String sort,
+        String after,
+        Integer limit
+) {
+}
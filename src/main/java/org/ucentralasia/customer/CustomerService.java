@@ -1,74 +1,389 @@
 package org.ucentralasia.customer;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.ConcurrentUpdateException;
 import org.ucentralasia.exception.DublicateResourceException;
+import org.ucentralasia.exception.PreconditionFailedException;
 import org.ucentralasia.exception.ResourseNotFoundException;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Service
+@Timed(value = "customer.service", description = "Latency of CustomerService calls", histogram = true)
 public class CustomerService {
 
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int DEFAULT_STATS_DOMAINS = 10;
+    static final Duration MAX_CHANGES_WAIT = Duration.ofSeconds(60);
+
     private final CustomerDao customerDao;
+    private final CustomerEmailFilter customerEmailFilter;
+    private final CustomerStatistics customerStatistics;
+    private final CustomerWriteBehindQueue writeBehindQueue;
+    private final CustomerChangeFeed customerChangeFeed;
+    private final CustomerEventBus customerEventBus;
+    private final int bulkChunkSize;
+    private final int updateMaxRetries;
 
-    public CustomerService(@Qualifier("jdbc") CustomerDao customerDao) {
+    public CustomerService(@Qualifier("cached") CustomerDao customerDao,
+                           CustomerEmailFilter customerEmailFilter,
+                           CustomerStatistics customerStatistics,
+                           CustomerWriteBehindQueue writeBehindQueue,
+                           CustomerChangeFeed customerChangeFeed,
+                           CustomerEventBus customerEventBus,
+                           @Value("${customer.bulk.chunk-size:500}") int bulkChunkSize,
+                           @Value("${customer.update.max-retries:3}") int updateMaxRetries) {
+        if (bulkChunkSize < 1) {
+            throw new IllegalArgumentException("customer.bulk.chunk-size must be positive");
+        }
         this.customerDao = customerDao;
+        this.customerEmailFilter = customerEmailFilter;
+        this.customerStatistics = customerStatistics;
+        this.writeBehindQueue = writeBehindQueue;
+        this.customerChangeFeed = customerChangeFeed;
+        this.customerEventBus = customerEventBus;
+        this.bulkChunkSize = bulkChunkSize;
+        this.updateMaxRetries = updateMaxRetries;
     }
 
+    @Transactional(readOnly = true)
     public List<Customer> getAllCustomers() {
         return customerDao.selectAllCustomers();
     }
 
+    @Transactional(readOnly = true)
+    public CustomerPage getCustomers(Long after, Integer limit) {
+        if (isUnpaged(after, limit)) {
+            List<Customer> customers = customerDao.selectCustomersAfterId(0L, Integer.MAX_VALUE);
+            return new CustomerPage(customers, null, CustomerPage.version(customers));
+        }
+        int pageSize = pageSize(limit);
+        // fetch one extra row to find out whether there is a next page without a COUNT query
+        List<Customer> customers = customerDao.selectCustomersAfterId(after == null ? 0L : after, pageSize + 1);
+        String version = CustomerPage.version(customers);
+        if (customers.size() <= pageSize) {
+            return new CustomerPage(customers, null, version);
+        }
+        List<Customer> page = customers.subList(0, pageSize);
+        return new CustomerPage(page, page.get(pageSize - 1).getId(), version);
+    }
+
+    /**
+     * The {@link CustomerPage#version()} the same request to {@link #getCustomers} would return, computed in
+     * the database from the ids and versions alone.
+     */
+    @Transactional(readOnly = true)
+    public String getCustomersVersion(Long after, Integer limit) {
+        if (isUnpaged(after, limit)) {
+            return customerDao.selectCustomersVersionAfterId(0L, Integer.MAX_VALUE);
+        }
+        return customerDao.selectCustomersVersionAfterId(after == null ? 0L : after, pageSize(limit) + 1);
+    }
+
+    /**
+     * Clients from before paging send neither parameter and keep getting the whole list, without a cursor.
+     */
+    private static boolean isUnpaged(Long after, Integer limit) {
+        return after == null && limit == null;
+    }
+
+    private static int pageSize(Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new RequestValidationException("limit must be between 1 and %s.".formatted(MAX_PAGE_SIZE));
+        }
+        return pageSize;
+    }
+
+    /**
+     * Filters and pages in the database; every combination of filters and sort is served by an index, see
+     * {@link CustomerSearchQuery}.
+     */
+    @Transactional(readOnly = true)
+    public CustomerSearchPage searchCustomers(CustomerSearchRequest request) {
+        int pageSize = pageSize(request.limit());
+        String emailPrefix = request.email() == null || request.email().isBlank() ? null : request.email();
+        String name = request.name() == null || request.name().isBlank() ? null : request.name().strip();
+        if (name != null && name.length() < CustomerSearch.MIN_NAME_LENGTH) {
+            throw new RequestValidationException("name must have at least %s characters.".formatted(CustomerSearch.MIN_NAME_LENGTH));
+        }
+        if (request.minAge() != null && request.maxAge() != null && request.minAge() > request.maxAge()) {
+            throw new RequestValidationException("minAge must not be greater than maxAge.");
+        }
+        CustomerSearch.Sort sort = request.sort() == null ? CustomerSearch.Sort.ID : CustomerSearch.Sort.parse(request.sort());
+        CustomerSearch.Cursor after = request.after() == null ? null : CustomerSearch.Cursor.parse(request.after(), sort);
+
+        CustomerSearch search = new CustomerSearch(emailPrefix, name, request.minAge(), request.maxAge(), sort, after);
+        List<Customer> customers = customerDao.searchCustomers(search, pageSize + 1);
+        if (customers.size() <= pageSize) {
+            return new CustomerSearchPage(customers, null);
+        }
+        List<Customer> page = customers.subList(0, pageSize);
+        return new CustomerSearchPage(page, CustomerSearch.Cursor.of(page.get(pageSize - 1), sort).encode());
+    }
+
+    /**
+     * Incremental alternative to paging through all customers: the events after {@code since}, read from the
+     * outbox the triggers fill in the same transaction as each change. Completes later when asked to wait.
+     */
+    public CompletableFuture<CustomerChangePage> getChanges(Long since, Integer limit, Integer waitSeconds) {
+        long after = since == null ? 0 : since;
+        if (after < 0) {
+            throw new RequestValidationException("since must not be negative.");
+        }
+        Duration wait = Duration.ofSeconds(waitSeconds == null ? 0 : waitSeconds);
+        if (wait.isNegative() || wait.compareTo(MAX_CHANGES_WAIT) > 0) {
+            throw new RequestValidationException("wait must be between 0 and %s seconds.".formatted(MAX_CHANGES_WAIT.toSeconds()));
+        }
+        return customerChangeFeed.changesAfter(after, pageSize(limit), wait);
+    }
+
+    @Transactional(readOnly = true)
+    public void exportCustomers(Consumer<Customer> action) {
+        customerDao.forEachCustomer(action);
+    }
+
+    /**
+     * Includes updates still waiting in the write-behind queue; such a customer comes without a version.
+     */
+    @Transactional(readOnly = true)
     public Customer getCustomer(Long id) {
-        return customerDao.selectCustomerById(id).orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)));
+        Customer customer = customerDao.selectCustomerById(id).orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)));
+        return writeBehindQueue.isPending(id) ? writeBehindQueue.overlay(customer) : customer;
+    }
+
+    /**
+     * Null while the customer has updates waiting in the write-behind queue, since the stored version no longer
+     * describes what {@link #getCustomer} returns.
+     */
+    @Transactional(readOnly = true)
+    public CustomerVersion getCustomerVersion(Long id) {
+        if (writeBehindQueue.isPending(id)) {
+            return null;
+        }
+        return customerDao.selectCustomerVersionById(id).orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)));
     }
 
     public void addCustomer(CustomerRegistrationRequest customerRegistrationRequest) {
-        if (customerDao.existsCustomerWithEmail(customerRegistrationRequest.email())) {
+        Customer customer = new Customer(
+                customerRegistrationRequest.name(),
+                customerRegistrationRequest.email(),
+                customerRegistrationRequest.age()
+        );
+        if (!customerDao.insertCustomer(customer)) {
             throw new DublicateResourceException("Customer with email [%s] already exists.".formatted(customerRegistrationRequest.email()));
         }
-        customerDao.insertCustomer(
-                new Customer(
-                        customerRegistrationRequest.name(),
-                        customerRegistrationRequest.email(),
-                        customerRegistrationRequest.age()
-                )
-        );
+        customerEmailFilter.add(customerRegistrationRequest.email());
+        customerStatistics.recordInsert(customer);
+        customerEventBus.publish(CustomerChange.Type.CREATED, customer);
     }
 
-    public void deleteCustomer(Long id) {
-        if (!customerDao.existsCustomerWithId(id)) {
-            throw new ResourseNotFoundException("Customer with id [%s] not found".formatted(id));
+    public List<CustomerRegistrationResult> addCustomers(List<CustomerRegistrationRequest> requests) {
+        List<CustomerRegistrationResult> results = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += bulkChunkSize) {
+            int to = Math.min(from + bulkChunkSize, requests.size());
+            results.addAll(addCustomerChunk(requests.subList(from, to), from));
         }
-        customerDao.deleteCustomerById(id);
+        return results;
     }
 
-    public void updateCustomer(Long id, CustomerUpdateRequest customerUpdateRequest) {
-        Customer customer = getCustomer(id);
+    /**
+     * One query to find the emails that are already taken and one JDBC batch for the rest. Emails the filter
+     * has never seen skip the lookup; the unique constraint still catches anything it missed.
+     */
+    private List<CustomerRegistrationResult> addCustomerChunk(List<CustomerRegistrationRequest> chunk, int offset) {
+        Set<String> emails = new HashSet<>();
+        for (CustomerRegistrationRequest request : chunk) {
+            if (isValid(request) && customerEmailFilter.mightExist(request.email())) {
+                emails.add(request.email());
+            }
+        }
+        Set<String> takenEmails = emails.isEmpty() ? Set.of() : customerDao.selectExistingEmails(emails);
 
-        boolean changes = false;
+        CustomerRegistrationResult[] results = new CustomerRegistrationResult[chunk.size()];
+        Set<String> seenEmails = new HashSet<>();
+        List<Customer> customers = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            CustomerRegistrationRequest request = chunk.get(i);
+            if (!isValid(request)) {
+                results[i] = new CustomerRegistrationResult(
+                        offset + i, request == null ? null : request.email(), CustomerRegistrationResult.Status.INVALID);
+            } else if (takenEmails.contains(request.email()) || !seenEmails.add(request.email())) {
+                results[i] = new CustomerRegistrationResult(
+                        offset + i, request.email(), CustomerRegistrationResult.Status.DUPLICATE);
+            } else {
+                customers.add(new Customer(request.name(), request.email(), request.age()));
+                positions.add(i);
+            }
+        }
 
-        if (customerUpdateRequest.name() != null && !customerUpdateRequest.name().equals(customer.getName())) {
-            customer.setName(customerUpdateRequest.name());
-            changes = true;
+        if (!customers.isEmpty()) {
+            int[] updateCounts = customerDao.insertCustomers(customers);
+            for (int j = 0; j < positions.size(); j++) {
+                int i = positions.get(j);
+                // 0 means the email was registered concurrently after our lookup
+                CustomerRegistrationResult.Status status = updateCounts[j] == 0
+                        ? CustomerRegistrationResult.Status.DUPLICATE
+                        : CustomerRegistrationResult.Status.CREATED;
+                results[i] = new CustomerRegistrationResult(offset + i, chunk.get(i).email(), status);
+                customerEmailFilter.add(chunk.get(i).email());
+                if (status == CustomerRegistrationResult.Status.CREATED) {
+                    customerStatistics.recordInsert(customers.get(j));
+                    customerEventBus.publish(CustomerChange.Type.CREATED, customers.get(j));
+                }
+            }
         }
+        return Arrays.asList(results);
+    }
+
+    private static boolean isValid(CustomerRegistrationRequest request) {
+        return request != null && request.name() != null && request.email() != null && request.age() != null;
+    }
 
-        if (customerUpdateRequest.age() != null && !customerUpdateRequest.age().equals(customer.getAge())) {
-            customer.setAge(customerUpdateRequest.age());
-            changes = true;
+    public void deleteCustomer(Long id) {
+        Customer deleted = customerDao.deleteCustomerById(id)
+                .orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] not found".formatted(id)));
+        customerStatistics.recordDelete(deleted);
+        customerEventBus.publish(CustomerChange.Type.DELETED, deleted);
+    }
+
+    public CustomerStats getStatistics(Integer domains) {
+        int domainLimit = domains == null ? DEFAULT_STATS_DOMAINS : domains;
+        if (domainLimit < 0 || domainLimit > MAX_PAGE_SIZE) {
+            throw new RequestValidationException("domains must be between 0 and %s.".formatted(MAX_PAGE_SIZE));
         }
+        return customerStatistics.stats(domainLimit);
+    }
 
-        if (customerUpdateRequest.email() != null && !customerUpdateRequest.email().equals(customer.getEmail())) {
-            if (customerDao.existsCustomerWithEmail(customerUpdateRequest.email())) {
-                throw new DublicateResourceException("email already taken");
+    public Long updateCustomer(Long id, CustomerUpdateRequest customerUpdateRequest) {
+        return updateCustomer(id, customerUpdateRequest, null);
+    }
+
+    /**
+     * Sends only the requested fields and lets the database do the diffing, so the common case is a single
+     * round trip. The id is only looked up again when nothing was updated, to tell a missing customer apart
+     * from a request without changes. Changes to age or email also read the current row first, usually from the
+     * cache, so the statistics can move the customer between buckets.
+     * <p>
+     * With an expected version, from If-Match, the write only happens while the stored version still matches.
+     * Without one, changes to age or email are made conditional on the version they were read at, so the
+     * statistics always replace the row that was really there; if another write gets in between, the read and
+     * the write are retried right away up to {@code customer.update.max-retries} times. Nothing is locked, so
+     * concurrent updates of other customers are never held up.
+     * <p>
+     * With write-behind enabled, changes to name and age without an expected version go to
+     * {@link CustomerWriteBehindQueue} instead and are acknowledged once journaled, unless the queue refuses them
+     * because they may conflict with its own changes. Email changes still need the unique constraint's answer and
+     * conditional updates the stored version, so both are written directly, like refused ones, after flushing the
+     * queue if it holds older changes of the same customer.
+     *
+     * @return the new version, when the backend reports it; null for a queued update
+     */
+    public Long updateCustomer(Long id, CustomerUpdateRequest customerUpdateRequest, Long expectedVersion) {
+        if (customerUpdateRequest.name() == null
+                && customerUpdateRequest.email() == null
+                && customerUpdateRequest.age() == null) {
+            throw new RequestValidationException("No changes provided.");
+        }
+        if (writeBehindQueue.isEnabled() && expectedVersion == null && customerUpdateRequest.email() == null
+                && queueUpdate(id, customerUpdateRequest)) {
+            return null;
+        }
+        if (writeBehindQueue.isPending(id)) {
+            // a direct write must not be overtaken by older queued changes
+            writeBehindQueue.flush();
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return tryUpdateCustomer(id, customerUpdateRequest, expectedVersion);
+            } catch (OptimisticLockingFailureException e) {
+                if (expectedVersion != null) {
+                    throw new PreconditionFailedException("Customer with id [%s] is no longer at version %s.".formatted(id, expectedVersion));
+                }
+                if (attempt >= updateMaxRetries) {
+                    throw new ConcurrentUpdateException("Customer with id [%s] kept changing, try again.".formatted(id));
+                }
             }
-            customer.setEmail(customerUpdateRequest.email());
-            changes = true;
         }
+    }
+
+    /**
+     * @return false when the queue refused the update and it has to be written directly
+     */
+    private boolean queueUpdate(Long id, CustomerUpdateRequest customerUpdateRequest) {
+        long readAt = writeBehindQueue.flushCount();
+        Customer stored = customerDao.selectCustomerById(id).orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)));
+        Customer before = writeBehindQueue.isPending(id) ? writeBehindQueue.overlay(stored) : stored;
+        boolean changes = customerUpdateRequest.name() != null && !customerUpdateRequest.name().equals(before.getName())
+                || customerUpdateRequest.age() != null && !customerUpdateRequest.age().equals(before.getAge());
         if (!changes) {
             throw new RequestValidationException("No changes provided.");
         }
-        customerDao.updateCustomer(customer);
+        Customer update = new Customer(id, customerUpdateRequest.name(), null, customerUpdateRequest.age());
+        update.setVersion(stored.getVersion());
+        if (!writeBehindQueue.enqueue(update, readAt)) {
+            return false;
+        }
+        customerStatistics.recordUpdate(before, update);
+        customerEventBus.publish(CustomerChange.Type.UPDATED, update);
+        return true;
+    }
+
+    private Long tryUpdateCustomer(Long id, CustomerUpdateRequest customerUpdateRequest, Long expectedVersion) {
+        Customer update = new Customer(
+                id,
+                customerUpdateRequest.name(),
+                customerUpdateRequest.email(),
+                customerUpdateRequest.age()
+        );
+        Customer before = customerUpdateRequest.email() != null || customerUpdateRequest.age() != null
+                ? customerDao.selectCustomerById(id).orElse(null)
+                : null;
+        Long version = expectedVersion != null ? expectedVersion : before == null ? null : before.getVersion();
+        update.setVersion(version);
+        boolean updated;
+        try {
+            updated = customerDao.updateCustomer(update);
+        } catch (DuplicateKeyException e) {
+            throw new DublicateResourceException("email already taken");
+        }
+        if (!updated) {
+            if (version == null) {
+                if (!customerDao.existsCustomerWithId(id)) {
+                    throw new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id));
+                }
+                throw new RequestValidationException("No changes provided.");
+            }
+            CustomerVersion current = customerDao.selectCustomerVersionById(id)
+                    .orElseThrow(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)));
+            if (current.version() != version) {
+                throw new OptimisticLockingFailureException(
+                        "Customer with id [%s] is at version %s, not %s".formatted(id, current.version(), version));
+            }
+            throw new RequestValidationException("No changes provided.");
+        }
+        if (customerUpdateRequest.email() != null) {
+            customerEmailFilter.add(customerUpdateRequest.email());
+        }
+        if (before != null) {
+            customerStatistics.recordUpdate(before, update);
+        }
+        customerEventBus.publish(CustomerChange.Type.UPDATED, update);
+        return update.getVersion();
     }
 }
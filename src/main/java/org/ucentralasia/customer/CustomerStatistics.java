@@ -0,0 +1,250 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Customer count, age histogram and email domain counts kept in memory, so dashboards can poll them without
+ * touching the database. {@link CustomerService} applies each insert, update and delete it makes. Writes from
+ * other nodes, imports and races between concurrent updates are picked up by {@link #reconcile()}, which recounts
+ * everything in one scan and swaps the result in; like {@link CustomerEmailFilter}, writes made while it runs are
+ * applied to both the old and the new counts.
+ */
+@Component
+public class CustomerStatistics implements DisposableBean {
+
+    static final int AGE_BUCKET_WIDTH = 10;
+    // 0-9 up to 90-99, then everything from 100
+    static final int AGE_BUCKETS = 11;
+    static final String DRIFT = "customer.stats.drift";
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerStatistics.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration reconcileInterval;
+    private final AtomicLong drift = new AtomicLong();
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-stats-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Aggregates current = new Aggregates(null);
+    private volatile Aggregates rebuilding;
+    private volatile Snapshot snapshot;
+
+    public CustomerStatistics(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${customer.stats.reconcile-interval}") Duration reconcileInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // the recount is a full scan, so let it go to a replica when there is one
+        this.transactionTemplate.setReadOnly(true);
+        this.reconcileInterval = reconcileInterval;
+        Gauge.builder(DRIFT, drift, AtomicLong::get)
+                .description("Difference between the in-memory and the recounted customer total at the last reconciliation")
+                .register(meterRegistry);
+    }
+
+    public void recordInsert(Customer customer) {
+        apply(customer.getAge(), customer.getEmail(), 1);
+    }
+
+    public void recordDelete(Customer customer) {
+        apply(customer.getAge(), customer.getEmail(), -1);
+    }
+
+    /**
+     * @param before the stored customer before the update
+     * @param update the fields that were written; null fields were left unchanged
+     */
+    public void recordUpdate(Customer before, Customer update) {
+        Integer age = update.getAge() == null ? before.getAge() : update.getAge();
+        String email = update.getEmail() == null ? before.getEmail() : update.getEmail();
+        if (age.equals(before.getAge()) && email.equals(before.getEmail())) {
+            return;
+        }
+        apply(before.getAge(), before.getEmail(), -1);
+        apply(age, email, 1);
+    }
+
+    private void apply(int age, String email, int delta) {
+        current.add(age, email, delta);
+        Aggregates next = rebuilding;
+        if (next != null) {
+            next.add(age, email, delta);
+        }
+    }
+
+    /**
+     * Served from memory. The sorted domain list is only rebuilt after a write, so polling an idle node costs a
+     * few volatile reads.
+     */
+    public CustomerStats stats(int domains) {
+        Aggregates aggregates = current;
+        Snapshot cached = snapshot;
+        long version = aggregates.version.get();
+        if (cached == null || cached.source != aggregates || cached.version != version) {
+            cached = Snapshot.of(aggregates, version);
+            snapshot = cached;
+        }
+        return cached.toStats(domains);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long interval = reconcileInterval.toMillis();
+        reconciler.scheduleWithFixedDelay(this::reconcileQuietly, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void reconcileAsync() {
+        reconciler.execute(this::reconcileQuietly);
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            log.warn("Customer statistics reconciliation failed, keeping the incremental counts", e);
+        }
+    }
+
+    /**
+     * Recounts everything in a single GROUPING SETS scan and swaps the result in.
+     */
+    public synchronized void reconcile() {
+        var sql = """
+                SELECT GROUPING(age_bucket) AS by_domain, age_bucket, domain, count(*) AS customers
+                FROM (
+                    SELECT LEAST(GREATEST(age, 0) / %d, %d) AS age_bucket,
+                           coalesce(lower(substring(email from '@([^@]*)$')), '') AS domain
+                    FROM customer
+                ) AS c
+                GROUP BY GROUPING SETS ((age_bucket), (domain))
+                """.formatted(AGE_BUCKET_WIDTH, AGE_BUCKETS - 1);
+        long start = System.nanoTime();
+        Aggregates next = new Aggregates(Instant.now());
+        rebuilding = next;
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+                long customers = rs.getLong("customers");
+                if (rs.getInt("by_domain") == 1) {
+                    next.domains.computeIfAbsent(rs.getString("domain"), domain -> new LongAdder()).add(customers);
+                } else {
+                    next.ages.addAndGet(rs.getInt("age_bucket"), customers);
+                    next.total.add(customers);
+                }
+            }));
+            long difference = current.total.sum() - next.total.sum();
+            drift.set(difference);
+            current = next;
+            log.info("Customer statistics reconciled in {} ms: {} customers, drift {}",
+                    (System.nanoTime() - start) / 1_000_000, next.total.sum(), difference);
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        reconciler.shutdownNow();
+    }
+
+    static int ageBucket(int age) {
+        return Math.min(Math.max(age, 0) / AGE_BUCKET_WIDTH, AGE_BUCKETS - 1);
+    }
+
+    static String ageBucketLabel(int bucket) {
+        int from = bucket * AGE_BUCKET_WIDTH;
+        return bucket == AGE_BUCKETS - 1 ? from + "+" : from + "-" + (from + AGE_BUCKET_WIDTH - 1);
+    }
+
+    /**
+     * Same as the recount query: everything after the last @, lower-cased, or empty without one.
+     */
+    static String emailDomain(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 ? "" : email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Aggregates {
+
+        private final Instant reconciledAt;
+        private final LongAdder total = new LongAdder();
+        private final AtomicLongArray ages = new AtomicLongArray(AGE_BUCKETS);
+        private final Map<String, LongAdder> domains = new ConcurrentHashMap<>();
+        private final AtomicLong version = new AtomicLong();
+
+        private Aggregates(Instant reconciledAt) {
+            this.reconciledAt = reconciledAt;
+        }
+
+        private void add(int age, String email, int delta) {
+            total.add(delta);
+            ages.addAndGet(ageBucket(age), delta);
+            domains.computeIfAbsent(emailDomain(email), domain -> new LongAdder()).add(delta);
+            version.incrementAndGet();
+        }
+    }
+
+    private record DomainCount(String domain, long customers) {
+    }
+
+    private record Snapshot(Aggregates source, long version, long total, Map<String, Long> ages, List<DomainCount> domains) {
+
+        static Snapshot of(Aggregates aggregates, long version) {
+            Map<String, Long> ages = new LinkedHashMap<>();
+            for (int bucket = 0; bucket < AGE_BUCKETS; bucket++) {
+                ages.put(ageBucketLabel(bucket), aggregates.ages.get(bucket));
+            }
+            List<DomainCount> domains = new ArrayList<>(aggregates.domains.size());
+            aggregates.domains.forEach((domain, customers) -> {
+                long count = customers.sum();
+                if (count > 0) {
+                    domains.add(new DomainCount(domain, count));
+                }
+            });
+            domains.sort(Comparator.comparingLong(DomainCount::customers).reversed()
+                    .thenComparing(DomainCount::domain));
+            return new Snapshot(aggregates, version, aggregates.total.sum(), Collections.unmodifiableMap(ages), domains);
+        }
+
+        CustomerStats toStats(int limit) {
+            Map<String, Long> top = new LinkedHashMap<>();
+            for (DomainCount domain : domains.subList(0, Math.min(limit, domains.size()))) {
+                top.put(domain.domain(), domain.customers());
+            }
+            return new CustomerStats(total, ages, top, domains.size(), source.reconciledAt);
+        }
+    }
+}
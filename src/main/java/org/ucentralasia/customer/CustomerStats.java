@@ -0,0 +1,20 @@
+package org.ucentralasia.customer;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * @param total                number of customers
+ * @param ageHistogram         customers per age range, e.g. {@code "30-39"}, in ascending order
+ * @param emailDomains         the most common email domains with their customer counts, most common first
+ * @param distinctEmailDomains number of email domains in use
+ * @param reconciledAt         when the counts were last recounted from the database, or null before the first run
+ */
+public record CustomerStats(
+        long total,
+        Map<String, Long> ageHistogram,
+        Map<String, Long> emailDomains,
+        int distinctEmailDomains,
+        Instant reconciledAt
+) {
+}
@@ -0,0 +1,17 @@
+package org.ucentralasia.customer;
+
+import java.time.Instant;
+
+/**
+ * The version columns of one customer, enough to answer a conditional GET without loading the rest of the row.
+ */
+public record CustomerVersion(Long id, long version, Instant updatedAt) {
+
+    static CustomerVersion of(Customer customer) {
+        return new CustomerVersion(customer.getId(), customer.getVersion(), customer.getUpdatedAt());
+    }
+
+    public String eTag() {
+        return "\"" + version + "\"";
+    }
+}
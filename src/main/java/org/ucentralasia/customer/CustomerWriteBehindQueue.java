@@ -0,0 +1,483 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind for customer updates during update storms. An update is acknowledged once it is appended to a
+ * local journal and forced to disk; concurrent writers share one fsync. Pending updates are collapsed per id,
+ * only the latest value of each field is kept, and a background flush writes them with
+ * {@link CustomerDao#updateCustomers} in batches of {@code batch-size}, so a customer updated a hundred times
+ * between two flushes costs one row in one batch.
+ * <p>
+ * Every update carries the stored version it was made against, and is first written only while the row is still
+ * at that version. A row that moved on, because another node or a stale cache entry got in between, is written
+ * again without the check, which is what a direct update without If-Match does as well: the client was told the
+ * update succeeded, so it is never dropped. Such overwrites are logged. A later update that finds the queue
+ * holding changes against another version, or a customer a flush may have written since it was read, is
+ * refused by {@link #enqueue} and written directly instead, so this node never races its own flushes.
+ * <p>
+ * Each flush swaps in a new journal file first, and the old one is only deleted once all its updates are in the
+ * database, so a crash or a failed flush loses nothing: journals left behind are replayed on the next start.
+ * Writing a row a failed flush already wrote again changes nothing, since the update holds values rather than
+ * increments. The journal lives on this node's disk, so its updates wait for the node to come back; the directory
+ * has to be set explicitly and must survive a restart. Until an update is
+ * flushed, {@link #overlay} puts it on top of the stored customer.
+ */
+@Component
+public class CustomerWriteBehindQueue implements DisposableBean {
+
+    static final String PENDING = "customer.write-behind.pending";
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerWriteBehindQueue.class);
+
+    private final CustomerDao customerDao;
+    private final boolean enabled;
+    private final Path journalDirectory;
+    private final Duration flushInterval;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "customer-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private long generation;
+    private volatile Batch current;
+    private volatile Batch flushing;
+    private volatile long flushCount;
+
+    public CustomerWriteBehindQueue(@Qualifier("cached") CustomerDao customerDao,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${customer.write-behind.enabled:false}") boolean enabled,
+                                    @Value("${customer.write-behind.journal-directory:#{null}}") Path journalDirectory,
+                                    @Value("${customer.write-behind.flush-interval:200ms}") Duration flushInterval,
+                                    @Value("${customer.write-behind.batch-size:500}") int batchSize) {
+        this.customerDao = customerDao;
+        this.enabled = enabled;
+        this.journalDirectory = journalDirectory;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        if (enabled && journalDirectory == null) {
+            throw new IllegalArgumentException("customer.write-behind.journal-directory must be set when write-behind is enabled");
+        }
+        if (enabled) {
+            recover();
+            current = Batch.open(journalDirectory, ++generation);
+            Gauge.builder(PENDING, this, CustomerWriteBehindQueue::pending)
+                    .description("Customer updates acknowledged but not yet written to the database")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Taken before reading the stored version an update is made against, and handed to {@link #enqueue}.
+     */
+    public long flushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Journals the non-null fields of the given customer, with the stored version they were made against, and
+     * returns once they are on disk.
+     *
+     * @param readAt the {@link #flushCount} from before the stored version was read
+     * @return false, with nothing journaled, when a flush may have written the customer since {@code readAt} or
+     * the queue holds changes made against another version; the update has to be written directly
+     */
+    public boolean enqueue(Customer update, long readAt) {
+        if (!enabled) {
+            throw new IllegalStateException("Customer write-behind is disabled");
+        }
+        Customer queued = copy(update);
+        queued.setVersion(update.getVersion());
+        ByteBuffer record = encode(queued);
+        Batch batch;
+        long end;
+        synchronized (appendLock) {
+            Batch previous = flushing;
+            Customer pending = current.updates.get(update.getId());
+            if (flushCount != readAt
+                    || previous != null && previous.updates.containsKey(update.getId())
+                    || pending != null && !Objects.equals(pending.getVersion(), update.getVersion())) {
+                return false;
+            }
+            batch = current;
+            end = batch.append(record);
+            batch.updates.merge(update.getId(), queued, CustomerWriteBehindQueue::merge);
+        }
+        batch.force(end);
+        return true;
+    }
+
+    public boolean isPending(Long id) {
+        Batch batch = current;
+        Batch previous = flushing;
+        return batch != null && batch.updates.containsKey(id) || previous != null && previous.updates.containsKey(id);
+    }
+
+    /**
+     * The stored customer with its pending updates applied, as a copy. Version and modification time are left
+     * empty, since neither is known before the row is written.
+     */
+    public Customer overlay(Customer stored) {
+        Customer merged = copy(stored);
+        for (Batch batch : new Batch[]{flushing, current}) {
+            Customer pending = batch == null ? null : batch.updates.get(stored.getId());
+            if (pending != null) {
+                merged = merge(merged, pending);
+            }
+        }
+        return merged;
+    }
+
+    long pending() {
+        Batch batch = current;
+        Batch previous = flushing;
+        return (batch == null ? 0 : batch.updates.size()) + (previous == null ? 0 : previous.updates.size());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            long interval = flushInterval.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushQuietly, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Customer write-behind flush failed, keeping the journal for the next attempt", e);
+        }
+    }
+
+    /**
+     * Writes everything that is pending. A batch that failed to flush is retried before the next one is taken.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (flushing == null) {
+                synchronized (appendLock) {
+                    if (current.updates.isEmpty()) {
+                        return;
+                    }
+                    flushing = current;
+                    current = Batch.open(journalDirectory, ++generation);
+                }
+                flushing.close();
+            }
+            List<Customer> updates = new ArrayList<>(flushing.updates.values());
+            long start = System.nanoTime();
+            long written = 0;
+            long overwritten = 0;
+            for (int from = 0; from < updates.size(); from += batchSize) {
+                List<Customer> batch = updates.subList(from, Math.min(from + batchSize, updates.size()));
+                int[] updateCounts = customerDao.updateCustomers(batch);
+                // rows at another version, or with nothing to change, get the write without the version check
+                List<Customer> unchecked = new ArrayList<>();
+                for (int i = 0; i < updateCounts.length; i++) {
+                    if (updateCounts[i] != 0) {
+                        written++;
+                    } else if (batch.get(i).getVersion() != null) {
+                        unchecked.add(copy(batch.get(i)));
+                    }
+                }
+                if (!unchecked.isEmpty()) {
+                    for (int updateCount : customerDao.updateCustomers(unchecked)) {
+                        overwritten += updateCount == 0 ? 0 : 1;
+                    }
+                }
+            }
+            flushing.delete();
+            synchronized (appendLock) {
+                flushing = null;
+                flushCount++;
+            }
+            if (overwritten > 0) {
+                log.info("{} pending customer updates found their row changed by another write and were written over it",
+                        overwritten);
+            }
+            log.debug("Flushed {} pending customer updates, {} rows changed, in {} ms",
+                    updates.size(), written + overwritten, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Collects the updates of journals left behind by a previous run, oldest first. They are written by the
+     * first flush and their files deleted after that.
+     */
+    private void recover() {
+        List<Path> journals;
+        try {
+            Files.createDirectories(journalDirectory);
+            try (Stream<Path> files = Files.list(journalDirectory)) {
+                journals = files.filter(file -> file.getFileName().toString().endsWith(JOURNAL_SUFFIX)).sorted().toList();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read customer write-behind journals in " + journalDirectory, e);
+        }
+        if (journals.isEmpty()) {
+            return;
+        }
+        Batch recovered = new Batch(new ArrayList<>(journals), null);
+        for (Path journal : journals) {
+            replay(journal, recovered.updates);
+            String name = journal.getFileName().toString();
+            generation = Math.max(generation, Long.parseLong(name.substring(0, name.length() - JOURNAL_SUFFIX.length())));
+        }
+        flushing = recovered;
+        log.info("Recovered {} pending customer updates from {} journal(s)", recovered.updates.size(), journals.size());
+    }
+
+    /**
+     * A record cut short or failing its checksum can only be the last one, written by a run that stopped before
+     * the fsync and so never acknowledged it; replay stops there.
+     */
+    static void replay(Path journal, Map<Long, Customer> updates) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException end) {
+                    return;
+                }
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                byte[] payload = length < 0 ? null : in.readNBytes(length);
+                if (payload == null || payload.length < length || checksum(payload) != checksum) {
+                    log.warn("Ignoring a torn record at the end of customer write-behind journal {}", journal);
+                    return;
+                }
+                Customer update = decode(payload);
+                updates.merge(update.getId(), update, CustomerWriteBehindQueue::merge);
+            }
+        } catch (EOFException torn) {
+            log.warn("Ignoring a torn record at the end of customer write-behind journal {}", journal);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay customer write-behind journal " + journal, e);
+        }
+    }
+
+    /**
+     * Length, CRC32 of the payload, then id, the optional version and the three optional fields.
+     */
+    static ByteBuffer encode(Customer update) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(update.getId());
+            out.writeBoolean(update.getVersion() != null);
+            out.writeLong(update.getVersion() == null ? 0 : update.getVersion());
+            writeOptional(out, update.getName());
+            writeOptional(out, update.getEmail());
+            out.writeBoolean(update.getAge() != null);
+            out.writeInt(update.getAge() == null ? 0 : update.getAge());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        return ByteBuffer.allocate(Integer.BYTES * 2 + payload.length)
+                .putInt(payload.length)
+                .putInt((int) checksum(payload))
+                .put(payload)
+                .flip();
+    }
+
+    private static Customer decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long id = in.readLong();
+        boolean hasVersion = in.readBoolean();
+        long version = in.readLong();
+        String name = readOptional(in);
+        String email = readOptional(in);
+        boolean hasAge = in.readBoolean();
+        int age = in.readInt();
+        Customer update = new Customer(id, name, email, hasAge ? age : null);
+        update.setVersion(hasVersion ? version : null);
+        return update;
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        out.writeUTF(value == null ? "" : value);
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        boolean present = in.readBoolean();
+        String value = in.readUTF();
+        return present ? value : null;
+    }
+
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    private static Customer copy(Customer customer) {
+        return new Customer(customer.getId(), customer.getName(), customer.getEmail(), customer.getAge());
+    }
+
+    /**
+     * Keeps the version of the older update, which is the one the stored row has to be at.
+     */
+    private static Customer merge(Customer older, Customer newer) {
+        Customer merged = new Customer(
+                older.getId(),
+                newer.getName() != null ? newer.getName() : older.getName(),
+                newer.getEmail() != null ? newer.getEmail() : older.getEmail(),
+                newer.getAge() != null ? newer.getAge() : older.getAge()
+        );
+        merged.setVersion(older.getVersion());
+        return merged;
+    }
+
+    /**
+     * A final flush, so a clean shutdown leaves no journal behind unless the database is unreachable.
+     */
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        if (enabled) {
+            flushQuietly();
+            current.close();
+            if (current.updates.isEmpty()) {
+                current.delete();
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private final List<Path> journals;
+        private final FileChannel channel;
+        private final Map<Long, Customer> updates = new ConcurrentHashMap<>();
+        private volatile long written;
+        private long forced;
+
+        private Batch(List<Path> journals, FileChannel channel) {
+            this.journals = journals;
+            this.channel = channel;
+        }
+
+        /**
+         * Forces the directory after creating the file, or a crash could lose the journal's entry in it along with
+         * every update already acknowledged from the journal.
+         */
+        static Batch open(Path directory, long generation) {
+            Path journal = directory.resolve("%019d%s".formatted(generation, JOURNAL_SUFFIX));
+            try {
+                FileChannel channel = FileChannel.open(journal,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                try (FileChannel entries = FileChannel.open(directory, StandardOpenOption.READ)) {
+                    entries.force(true);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                return new Batch(List.of(journal), channel);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create customer write-behind journal " + journal, e);
+            }
+        }
+
+        /**
+         * Called under the append lock; returns the journal position the record ends at.
+         */
+        long append(ByteBuffer record) {
+            try {
+                while (record.hasRemaining()) {
+                    written += channel.write(record);
+                }
+                return written;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot append to customer write-behind journal", e);
+            }
+        }
+
+        /**
+         * Group commit: whoever gets the lock first forces everything appended so far, and the writers queued
+         * behind it find their records already on disk.
+         */
+        synchronized void force(long upTo) {
+            if (forced >= upTo) {
+                return;
+            }
+            long end = written;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot sync customer write-behind journal", e);
+            }
+            forced = end;
+        }
+
+        /**
+         * Only called once nothing is appended any more, so whatever was written is forced before the close.
+         */
+        synchronized void close() {
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
+            force(written);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close customer write-behind journal", e);
+            }
+        }
+
+        void delete() {
+            try {
+                for (Path journal : journals) {
+                    Files.deleteIfExists(journal);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot delete customer write-behind journal", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records latency, failures and row counts for every call on another {@link CustomerDao}. All meters carry a
+ * {@code dao} tag with the bean name of the wrapped implementation so jdbc and jpa can be compared side by
+ * side. {@value #ROWS} counts rows returned by reads and rows written by inserts, updates and deletes.
+ */
+public class MeteredCustomerDao implements CustomerDao {
+
+    static final String TIMER = "customer.dao";
+    static final String ERRORS = "customer.dao.errors";
+    static final String ROWS = "customer.dao.rows";
+
+    private final CustomerDao delegate;
+    private final String daoName;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final Map<String, Counter> rowCounters = new HashMap<>();
+
+    public MeteredCustomerDao(CustomerDao delegate, String daoName, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.daoName = daoName;
+        this.meterRegistry = meterRegistry;
+        for (var method : CustomerDao.class.getMethods()) {
+            timers.put(method.getName(), Timer.builder(TIMER)
+                    .description("Latency of CustomerDao calls")
+                    .tag("dao", daoName)
+                    .tag("method", method.getName())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            rowCounters.put(method.getName(), Counter.builder(ROWS)
+                    .description("Rows returned or written by CustomerDao calls")
+                    .tag("dao", daoName)
+                    .tag("method", method.getName())
+                    .register(meterRegistry));
+        }
+    }
+
+    private <T> T record(String method, Supplier<T> call, ToLongFunction<T> rows) {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            Counter.builder(ERRORS)
+                    .description("Failed CustomerDao calls")
+                    .tag("dao", daoName)
+                    .tag("method", method)
+                    .tag("exception", e.getClass().getSimpleName())
+                    .register(meterRegistry)
+                    .increment();
+            throw e;
+        } finally {
+            timers.get(method).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        rowCounters.get(method).increment(rows.applyAsLong(result));
+        return result;
+    }
+
+    @Override
+    public List<Customer> selectAllCustomers() {
+        return record("selectAllCustomers", delegate::selectAllCustomers, List::size);
+    }
+
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        return record("selectCustomersAfterId", () -> delegate.selectCustomersAfterId(id, limit), List::size);
+    }
+
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return record("selectCustomersVersionAfterId", () -> delegate.selectCustomersVersionAfterId(id, limit), version -> 1);
+    }
+
+    @Override
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        return record("searchCustomers", () -> delegate.searchCustomers(search, limit), List::size);
+    }
+
+    @Override
+    public void forEachCustomer(Consumer<Customer> action) {
+        long[] count = new long[1];
+        record("forEachCustomer", () -> {
+            delegate.forEachCustomer(customer -> {
+                count[0]++;
+                action.accept(customer);
+            });
+            return null;
+        }, ignored -> count[0]);
+    }
+
+    @Override
+    public Optional<Customer> selectCustomerById(Long id) {
+        return record("selectCustomerById", () -> delegate.selectCustomerById(id), found -> found.isPresent() ? 1 : 0);
+    }
+
+    @Override
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        return record("selectCustomerVersionById", () -> delegate.selectCustomerVersionById(id), found -> found.isPresent() ? 1 : 0);
+    }
+
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        return record("insertCustomer", () -> delegate.insertCustomer(customer), inserted -> inserted ? 1 : 0);
+    }
+
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
+        return record("insertCustomers", () -> delegate.insertCustomers(customers), updateCounts -> {
+            long rows = 0;
+            for (int updateCount : updateCounts) {
+                // Statement.SUCCESS_NO_INFO (-2) still means the row was written
+                rows += updateCount == 0 ? 0 : 1;
+            }
+            return rows;
+        });
+    }
+
+    @Override
+    public boolean existsCustomerWithEmail(String email) {
+        return record("existsCustomerWithEmail", () -> delegate.existsCustomerWithEmail(email), exists -> exists ? 1 : 0);
+    }
+
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        return record("selectExistingEmails", () -> delegate.selectExistingEmails(emails), Set::size);
+    }
+
+    @Override
+    public boolean existsCustomerWithId(Long id) {
+        return record("existsCustomerWithId", () -> delegate.existsCustomerWithId(id), exists -> exists ? 1 : 0);
+    }
+
+    @Override
+    public Optional<Customer> deleteCustomerById(Long id) {
+        return record("deleteCustomerById", () -> delegate.deleteCustomerById(id), deleted -> deleted.isPresent() ? 1 : 0);
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        return record("updateCustomer", () -> delegate.updateCustomer(customer), updated -> updated ? 1 : 0);
+    }
+
+    @Override
+    public int[] updateCustomers(List<Customer> customers) {
+        return record("updateCustomers", () -> delegate.updateCustomers(customers), updateCounts -> {
+            long rows = 0;
+            for (int updateCount : updateCounts) {
+                rows += updateCount == 0 ? 0 : 1;
+            }
+            return rows;
+        });
+    }
+}
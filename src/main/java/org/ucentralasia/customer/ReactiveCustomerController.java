@@ -0,0 +1,68 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.ucentralasia.customer.CustomerController.NEXT_CURSOR_HEADER;
+
+/**
+ * WebFlux twin of {@link CustomerController}, active when the application runs as a reactive web app.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping(path = "api/v1/customers")
+public class ReactiveCustomerController {
+
+    private final ReactiveCustomerService customerService;
+
+    public ReactiveCustomerController(ReactiveCustomerService customerService) {
+        this.customerService = customerService;
+    }
+
+    @GetMapping("")
+    public Mono<ResponseEntity<List<Customer>>> getCustomers(@RequestParam(required = false) Long after,
+                                                             @RequestParam(required = false) Integer limit) {
+        return customerService.getCustomers(after, limit).map(page -> {
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.nextCursor().toString());
+            }
+            return response.body(page.customers());
+        });
+    }
+
+    /**
+     * Written as the client reads it: WebFlux only requests more rows from the database once the previous ones
+     * have been flushed to the socket.
+     */
+    @GetMapping(value = "export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Customer> exportCustomers() {
+        return customerService.exportCustomers();
+    }
+
+    @GetMapping("{id}")
+    public Mono<Customer> getCustomer(@PathVariable Long id) {
+        return customerService.getCustomer(id);
+    }
+
+    @PostMapping("")
+    public Mono<Void> registerCustomer(@RequestBody CustomerRegistrationRequest customerRegistrationRequest) {
+        return customerService.addCustomer(customerRegistrationRequest);
+    }
+
+    @DeleteMapping("{id}")
+    public Mono<Void> deleteCustomer(@PathVariable Long id) {
+        return customerService.deleteCustomer(id);
+    }
+
+    @PutMapping("{id}")
+    public Mono<Void> updateCustomer(@PathVariable Long id, @RequestBody CustomerUpdateRequest customerUpdateRequest) {
+        return customerService.updateCustomer(id, customerUpdateRequest);
+    }
+}
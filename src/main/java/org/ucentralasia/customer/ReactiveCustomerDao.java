@@ -0,0 +1,18 @@
+package org.ucentralasia.customer;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link CustomerDao} for the WebFlux stack. Same semantics, but results are
+ * published instead of returned, so no caller thread waits on the database.
+ */
+public interface ReactiveCustomerDao {
+    Flux<Customer> selectAllCustomers();
+    Flux<Customer> selectCustomersAfterId(Long id, int limit);
+    Mono<Customer> selectCustomerById(Long id);
+    Mono<Boolean> insertCustomer(Customer customer);
+    Mono<Boolean> existsCustomerWithId(Long id);
+    Mono<Customer> deleteCustomerById(Long id);
+    Mono<Boolean> updateCustomer(Customer customer);
+}
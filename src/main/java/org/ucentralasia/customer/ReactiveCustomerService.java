@@ -0,0 +1,102 @@
+package org.ucentralasia.customer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.DublicateResourceException;
+import org.ucentralasia.exception.ResourseNotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.ucentralasia.customer.CustomerService.DEFAULT_PAGE_SIZE;
+import static org.ucentralasia.customer.CustomerService.MAX_PAGE_SIZE;
+
+/**
+ * {@link CustomerService} for the WebFlux stack: same validation and the same exceptions, signalled as errors.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCustomerService {
+
+    private final ReactiveCustomerDao customerDao;
+
+    public ReactiveCustomerService(ReactiveCustomerDao customerDao) {
+        this.customerDao = customerDao;
+    }
+
+    /**
+     * Without after and limit every customer comes back in id order and without a cursor, as on the servlet stack.
+     */
+    public Mono<CustomerPage> getCustomers(Long after, Integer limit) {
+        if (after == null && limit == null) {
+            return customerDao.selectCustomersAfterId(0L, Integer.MAX_VALUE)
+                    .collectList()
+                    .map(customers -> new CustomerPage(customers, null, null));
+        }
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Mono.error(new RequestValidationException("limit must be between 1 and %s.".formatted(MAX_PAGE_SIZE)));
+        }
+        // the R2DBC rows carry no version, so reactive pages go out without an ETag
+        return customerDao.selectCustomersAfterId(after == null ? 0L : after, pageSize + 1)
+                .collectList()
+                .map(customers -> {
+                    if (customers.size() <= pageSize) {
+                        return new CustomerPage(customers, null, null);
+                    }
+                    List<Customer> page = customers.subList(0, pageSize);
+                    return new CustomerPage(page, page.get(pageSize - 1).getId(), null);
+                });
+    }
+
+    public Flux<Customer> exportCustomers() {
+        return customerDao.selectAllCustomers();
+    }
+
+    public Mono<Customer> getCustomer(Long id) {
+        return customerDao.selectCustomerById(id)
+                .switchIfEmpty(Mono.error(() -> new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id))));
+    }
+
+    public Mono<Void> addCustomer(CustomerRegistrationRequest customerRegistrationRequest) {
+        return customerDao.insertCustomer(
+                        new Customer(
+                                customerRegistrationRequest.name(),
+                                customerRegistrationRequest.email(),
+                                customerRegistrationRequest.age()
+                        ))
+                .flatMap(inserted -> inserted
+                        ? Mono.<Void>empty()
+                        : Mono.error(new DublicateResourceException("Customer with email [%s] already exists.".formatted(customerRegistrationRequest.email()))));
+    }
+
+    public Mono<Void> deleteCustomer(Long id) {
+        return customerDao.deleteCustomerById(id)
+                .switchIfEmpty(Mono.error(() -> new ResourseNotFoundException("Customer with id [%s] not found".formatted(id))))
+                .then();
+    }
+
+    public Mono<Void> updateCustomer(Long id, CustomerUpdateRequest customerUpdateRequest) {
+        if (customerUpdateRequest.name() == null
+                && customerUpdateRequest.email() == null
+                && customerUpdateRequest.age() == null) {
+            return Mono.error(new RequestValidationException("No changes provided."));
+        }
+        Customer update = new Customer(
+                id,
+                customerUpdateRequest.name(),
+                customerUpdateRequest.email(),
+                customerUpdateRequest.age()
+        );
+        return customerDao.updateCustomer(update)
+                .onErrorMap(DuplicateKeyException.class, e -> new DublicateResourceException("email already taken"))
+                .flatMap(updated -> updated
+                        ? Mono.<Void>empty()
+                        : customerDao.existsCustomerWithId(id).flatMap(exists -> Mono.error(exists
+                                ? new RequestValidationException("No changes provided.")
+                                : new ResourseNotFoundException("Customer with id [%s] doesnt exist.".formatted(id)))));
+    }
+}
@@ -0,0 +1,226 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out connections for read-only transactions from one of several replica pools, falling back to the primary
+ * when every replica is down or the current request is pinned to the primary after a write. A background probe runs
+ * {@code SELECT 1} on each replica to track whether it is up and, for {@link Selection#LEAST_LATENCY}, how fast it
+ * answers.
+ */
+public class ReplicaDataSource extends AbstractDataSource implements InitializingBean, DisposableBean, MeterBinder {
+
+    public enum Selection {
+        ROUND_ROBIN,
+        LEAST_LATENCY
+    }
+
+    static final String REPLICA_UP = "customer.datasource.replica.up";
+    static final String REPLICA_LATENCY = "customer.datasource.replica.latency";
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaDataSource.class);
+    private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+    // weight of the newest probe in the moving average, so one slow probe does not flip the choice
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final Selection selection;
+    private final Duration probeInterval;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService prober;
+
+    public ReplicaDataSource(DataSource primary, List<Replica> replicas, Selection selection, Duration probeInterval) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("at least one replica is required");
+        }
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.selection = selection;
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Sends every read-only connection on the current thread to the primary until {@link #unpin()} is called.
+     */
+    public static void pinToPrimary() {
+        PINNED_TO_PRIMARY.set(Boolean.TRUE);
+    }
+
+    public static void unpin() {
+        PINNED_TO_PRIMARY.remove();
+    }
+
+    static boolean isPinnedToPrimary() {
+        return PINNED_TO_PRIMARY.get() != null;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (isPinnedToPrimary()) {
+            return primary.getConnection();
+        }
+        Replica replica = select();
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            // the probe brings it back once it answers again
+            replica.markDown(e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) {
+        throw new UnsupportedOperationException("replica connections use the configured credentials");
+    }
+
+    Replica select() {
+        return switch (selection) {
+            case ROUND_ROBIN -> selectRoundRobin();
+            case LEAST_LATENCY -> selectLeastLatency();
+        };
+    }
+
+    private Replica selectRoundRobin() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.up) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private Replica selectLeastLatency() {
+        Replica fastest = null;
+        for (Replica replica : replicas) {
+            if (replica.up && (fastest == null || replica.latencyNanos < fastest.latencyNanos)) {
+                fastest = replica;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Checks every replica once. Runs on the probe thread; package-private so tests can drive it directly.
+     */
+    void probe() {
+        for (Replica replica : replicas) {
+            long start = System.nanoTime();
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SELECT 1");
+                replica.markUp(System.nanoTime() - start);
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown(e);
+            }
+        }
+    }
+
+    List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        probe();
+        prober = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "customer-replica-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = probeInterval.toMillis();
+        prober.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            Gauge.builder(REPLICA_UP, replica, r -> r.up ? 1 : 0)
+                    .description("Whether the replica answered its last probe")
+                    .tag("replica", replica.name)
+                    .register(registry);
+            Gauge.builder(REPLICA_LATENCY, replica, r -> r.latencyNanos / 1e9)
+                    .description("Smoothed round trip of the replica probe")
+                    .tag("replica", replica.name)
+                    .baseUnit("seconds")
+                    .register(registry);
+        }
+    }
+
+    static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean up = true;
+        private volatile double latencyNanos;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        String name() {
+            return name;
+        }
+
+        boolean isUp() {
+            return up;
+        }
+
+        private void markUp(long roundTripNanos) {
+            if (!up) {
+                log.info("Replica {} is back up", name);
+            }
+            // only the probe thread writes the latency, so read-modify-write is safe here
+            latencyNanos = latencyNanos == 0
+                    ? roundTripNanos
+                    : LATENCY_SMOOTHING * roundTripNanos + (1 - LATENCY_SMOOTHING) * latencyNanos;
+            up = true;
+        }
+
+        private void markDown(Exception e) {
+            if (up) {
+                log.warn("Replica {} is down, routing its reads elsewhere", name, e);
+            }
+            up = false;
+        }
+    }
+}
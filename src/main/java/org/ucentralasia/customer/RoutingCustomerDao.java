@@ -0,0 +1,279 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Repository;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Sends each {@link CustomerDao} operation to the backend configured for it, so JDBC and JPA can be mixed and
+ * switched while the application runs.
+ * <p>
+ * In shadow mode, a sample of read operations is repeated on a second backend on a small background pool and
+ * the two results are compared; latency of both sides is already recorded per backend by
+ * {@link MeteredCustomerDao}. Writes are never shadowed since both backends share one database. A shadow read
+ * can still disagree when a write lands between the two queries, so isolated mismatches are expected under
+ * write load.
+ */
+@Repository("routing")
+@EnableConfigurationProperties(CustomerDaoRoutingProperties.class)
+public class RoutingCustomerDao implements CustomerDao, DisposableBean {
+
+    static final String SHADOW_COMPARISONS = "customer.dao.shadow.comparisons";
+    static final Set<String> OPERATIONS = Arrays.stream(CustomerDao.class.getMethods())
+            .map(Method::getName)
+            .collect(Collectors.toUnmodifiableSet());
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingCustomerDao.class);
+
+    private final Map<String, CustomerDao> backends;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor shadowExecutor = new ThreadPoolExecutor(
+            2, 2, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1_000),
+            runnable -> {
+                Thread thread = new Thread(runnable, "customer-dao-shadow");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile Routing routing;
+
+    public RoutingCustomerDao(@Qualifier("jdbc") CustomerDao jdbc,
+                              @Qualifier("jpa") CustomerDao jpa,
+                              CustomerDaoRoutingProperties properties,
+                              MeterRegistry meterRegistry) {
+        this.backends = Map.of("jdbc", jdbc, "jpa", jpa);
+        this.meterRegistry = meterRegistry;
+        this.routing = new Routing(
+                properties.defaultBackend() == null ? "jdbc" : properties.defaultBackend(),
+                properties.operations() == null ? Map.of() : properties.operations(),
+                properties.shadow() == null || properties.shadow().isBlank() ? null : properties.shadow(),
+                properties.shadowSampleRate()
+        ).validated(backends.keySet());
+        meterRegistry.gauge("customer.dao.shadow.queue", shadowExecutor, executor -> executor.getQueue().size());
+    }
+
+    /**
+     * Immutable routing table; changes build a new one and swap it in.
+     */
+    public record Routing(String defaultBackend, Map<String, String> operations, String shadow, double shadowSampleRate) {
+
+        Routing validated(Set<String> backends) {
+            requireBackend(backends, defaultBackend);
+            operations.forEach((operation, backend) -> {
+                if (!OPERATIONS.contains(operation)) {
+                    throw new IllegalArgumentException("Unknown CustomerDao operation [%s]".formatted(operation));
+                }
+                requireBackend(backends, backend);
+            });
+            if (shadow != null) {
+                requireBackend(backends, shadow);
+            }
+            if (shadowSampleRate < 0 || shadowSampleRate > 1) {
+                throw new IllegalArgumentException("shadowSampleRate must be between 0 and 1");
+            }
+            return new Routing(defaultBackend, Map.copyOf(operations), shadow, shadowSampleRate);
+        }
+
+        private static void requireBackend(Set<String> backends, String backend) {
+            if (!backends.contains(backend)) {
+                throw new IllegalArgumentException("Unknown CustomerDao backend [%s], expected one of %s".formatted(backend, backends));
+            }
+        }
+
+        String backendFor(String operation) {
+            return operations.getOrDefault(operation, defaultBackend);
+        }
+
+        public Map<String, String> effectiveRoutes() {
+            Map<String, String> routes = new TreeMap<>();
+            OPERATIONS.forEach(operation -> routes.put(operation, backendFor(operation)));
+            return routes;
+        }
+    }
+
+    public Routing routing() {
+        return routing;
+    }
+
+    public synchronized void route(String operation, String backend) {
+        Map<String, String> operations = new HashMap<>(routing.operations());
+        if (backend == null) {
+            operations.remove(operation);
+        } else {
+            operations.put(operation, backend);
+        }
+        swap(new Routing(routing.defaultBackend(), operations, routing.shadow(), routing.shadowSampleRate()));
+    }
+
+    public synchronized void configure(String defaultBackend, String shadow, Double shadowSampleRate) {
+        Routing current = routing;
+        swap(new Routing(
+                defaultBackend == null ? current.defaultBackend() : defaultBackend,
+                current.operations(),
+                shadow == null ? current.shadow() : shadow.isBlank() ? null : shadow,
+                shadowSampleRate == null ? current.shadowSampleRate() : shadowSampleRate
+        ));
+    }
+
+    private void swap(Routing next) {
+        routing = next.validated(backends.keySet());
+        log.info("CustomerDao routing changed: default={} operations={} shadow={} sampleRate={}",
+                routing.defaultBackend(), routing.operations(), routing.shadow(), routing.shadowSampleRate());
+    }
+
+    private CustomerDao backend(String operation) {
+        return backends.get(routing.backendFor(operation));
+    }
+
+    private <T> T read(String operation, Function<CustomerDao, T> call, Function<? super T, ?> comparable) {
+        Routing current = routing;
+        String primaryName = current.backendFor(operation);
+        T result = call.apply(backends.get(primaryName));
+        String shadowName = current.shadow();
+        if (shadowName != null && !shadowName.equals(primaryName)
+                && ThreadLocalRandom.current().nextDouble() < current.shadowSampleRate()) {
+            Object expected = comparable.apply(result);
+            shadowExecutor.execute(() -> compare(operation, shadowName, expected, () -> comparable.apply(call.apply(backends.get(shadowName)))));
+        }
+        return result;
+    }
+
+    private void compare(String operation, String shadowName, Object expected, Supplier<Object> shadowCall) {
+        String outcome;
+        try {
+            Object actual = shadowCall.get();
+            if (Objects.equals(expected, actual)) {
+                outcome = "match";
+            } else {
+                outcome = "mismatch";
+                log.warn("Shadow {} on {} disagrees: primary={} shadow={}", operation, shadowName, expected, actual);
+            }
+        } catch (RuntimeException e) {
+            outcome = "error";
+            log.warn("Shadow {} on {} failed", operation, shadowName, e);
+        }
+        Counter.builder(SHADOW_COMPARISONS)
+                .description("Shadow reads compared against the primary backend")
+                .tag("method", operation)
+                .tag("shadow", shadowName)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Lists without ORDER BY may legitimately come back in a different order from each backend.
+     */
+    private static Object sortedById(List<Customer> customers) {
+        return customers.stream().sorted(Comparator.comparing(Customer::getId)).toList();
+    }
+
+    @Override
+    public List<Customer> selectAllCustomers() {
+        return read("selectAllCustomers", CustomerDao::selectAllCustomers, RoutingCustomerDao::sortedById);
+    }
+
+    @Override
+    public List<Customer> selectCustomersAfterId(Long id, int limit) {
+        return read("selectCustomersAfterId", dao -> dao.selectCustomersAfterId(id, limit), Function.identity());
+    }
+
+    @Override
+    public String selectCustomersVersionAfterId(Long id, int limit) {
+        return read("selectCustomersVersionAfterId", dao -> dao.selectCustomersVersionAfterId(id, limit), Function.identity());
+    }
+
+    @Override
+    public List<Customer> searchCustomers(CustomerSearch search, int limit) {
+        return read("searchCustomers", dao -> dao.searchCustomers(search, limit), Function.identity());
+    }
+
+    /**
+     * Not shadowed: the action may have side effects, such as writing to a response.
+     */
+    @Override
+    public void forEachCustomer(Consumer<Customer> action) {
+        backend("forEachCustomer").forEachCustomer(action);
+    }
+
+    @Override
+    public Optional<Customer> selectCustomerById(Long id) {
+        return read("selectCustomerById", dao -> dao.selectCustomerById(id), Function.identity());
+    }
+
+    @Override
+    public Optional<CustomerVersion> selectCustomerVersionById(Long id) {
+        return read("selectCustomerVersionById", dao -> dao.selectCustomerVersionById(id), Function.identity());
+    }
+
+    @Override
+    public boolean insertCustomer(Customer customer) {
+        return backend("insertCustomer").insertCustomer(customer);
+    }
+
+    @Override
+    public int[] insertCustomers(List<Customer> customers) {
+        return backend("insertCustomers").insertCustomers(customers);
+    }
+
+    @Override
+    public boolean existsCustomerWithEmail(String email) {
+        return read("existsCustomerWithEmail", dao -> dao.existsCustomerWithEmail(email), Function.identity());
+    }
+
+    @Override
+    public Set<String> selectExistingEmails(Collection<String> emails) {
+        return read("selectExistingEmails", dao -> dao.selectExistingEmails(emails), Function.identity());
+    }
+
+    @Override
+    public boolean existsCustomerWithId(Long id) {
+        return read("existsCustomerWithId", dao -> dao.existsCustomerWithId(id), Function.identity());
+    }
+
+    @Override
+    public Optional<Customer> deleteCustomerById(Long id) {
+        return backend("deleteCustomerById").deleteCustomerById(id);
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        return backend("updateCustomer").updateCustomer(customer);
+    }
+
+    @Override
+    public int[] updateCustomers(List<Customer> customers) {
+        return backend("updateCustomers").updateCustomers(customers);
+    }
+
+    @Override
+    public void destroy() {
+        shadowExecutor.shutdownNow();
+    }
+}
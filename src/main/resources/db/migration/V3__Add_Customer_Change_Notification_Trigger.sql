@@ -0,0 +1,38 @@
+-- Publishes the ids touched by every statement on the customer table on the customer_changes channel,
+-- so each application node can drop those ids from its local cache. Notifications are only delivered
+-- on commit. Statements touching more ids than fit into one payload publish '*' instead.
+CREATE FUNCTION notify_customer_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    changed_ids BIGINT[];
+BEGIN
+    SELECT array_agg(id) INTO changed_ids
+    FROM (SELECT id FROM changed_rows LIMIT 301) AS changed;
+
+    IF changed_ids IS NULL THEN
+        RETURN NULL;
+    END IF;
+
+    IF cardinality(changed_ids) > 300 THEN
+        PERFORM pg_notify('customer_changes', '*');
+    ELSE
+        PERFORM pg_notify('customer_changes', array_to_string(changed_ids, ','));
+    END IF;
+    RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER customer_insert_notify
+AFTER INSERT ON customer
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION notify_customer_changes();
+
+CREATE TRIGGER customer_update_notify
+AFTER UPDATE ON customer
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION notify_customer_changes();
+
+CREATE TRIGGER customer_delete_notify
+AFTER DELETE ON customer
+REFERENCING OLD TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION notify_customer_changes();
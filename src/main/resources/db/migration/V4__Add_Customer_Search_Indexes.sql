@@ -0,0 +1,11 @@
+-- Indexes behind GET /api/v1/customers/search, see CustomerSearchQuery for the predicates they serve.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- age ranges, and ORDER BY age, id for the keyset pages of sort=age
+CREATE INDEX customer_age_id_idx ON customer (age, id);
+
+-- lower(email) LIKE 'prefix%'; text_pattern_ops compares bytes, so the prefix becomes a range under any collation
+CREATE INDEX customer_email_lower_pattern_idx ON customer (lower(email) text_pattern_ops);
+
+-- name ILIKE '%fragment%'
+CREATE INDEX customer_name_trgm_idx ON customer USING gin (name gin_trgm_ops);
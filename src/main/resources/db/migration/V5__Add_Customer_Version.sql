@@ -0,0 +1,20 @@
+-- Row version and modification time behind the ETag and Last-Modified headers. The trigger bumps both on
+-- every update that changes the row, whichever backend or import wrote it, so the application never has to.
+ALTER TABLE customer
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 1,
+    ADD COLUMN updated_at TIMESTAMPTZ NOT NULL DEFAULT now();
+
+CREATE FUNCTION bump_customer_version() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    NEW.version := OLD.version + 1;
+    NEW.updated_at := now();
+    RETURN NEW;
+END;
+$$;
+
+CREATE TRIGGER customer_bump_version
+BEFORE UPDATE ON customer
+FOR EACH ROW
+WHEN (OLD.* IS DISTINCT FROM NEW.*)
+EXECUTE FUNCTION bump_customer_version();
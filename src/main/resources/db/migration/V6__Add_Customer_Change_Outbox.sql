@@ -0,0 +1,53 @@
+-- Transactional outbox of customer changes behind GET /api/v1/customers/changes. The triggers append one event per
+-- changed row in the same transaction as the change, whichever backend, import or batch made it.
+--
+-- seq is taken when the row is inserted, not when it commits, so seq order is not commit order. Readers go by
+-- (xid, seq) instead and only up to the oldest transaction still running: every event below that horizon is
+-- committed or gone for good, and every later one sorts after it.
+--
+-- (xid, seq) is still not commit order across transactions: one with an older xid can commit after a younger one,
+-- and when both changed the same customer its event comes first although it is the newer change. Consumers have to
+-- compare version and ignore an event that is not newer than what they hold; a DELETED event is final.
+CREATE TABLE customer_change (
+    seq BIGSERIAL PRIMARY KEY,
+    xid XID8 NOT NULL DEFAULT pg_current_xact_id(),
+    customer_id BIGINT NOT NULL,
+    type TEXT NOT NULL,
+    name TEXT,
+    email TEXT,
+    age INT,
+    version BIGINT,
+    changed_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX customer_change_xid_seq_idx ON customer_change (xid, seq);
+
+CREATE FUNCTION record_customer_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        INSERT INTO customer_change (customer_id, type, name, email, age, version)
+        SELECT id, 'DELETED', name, email, age, version FROM changed_rows ORDER BY id;
+    ELSE
+        INSERT INTO customer_change (customer_id, type, name, email, age, version)
+        SELECT id, CASE TG_OP WHEN 'INSERT' THEN 'CREATED' ELSE 'UPDATED' END, name, email, age, version
+        FROM changed_rows ORDER BY id;
+    END IF;
+    RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER customer_insert_record_change
+AFTER INSERT ON customer
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION record_customer_changes();
+
+CREATE TRIGGER customer_update_record_change
+AFTER UPDATE ON customer
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION record_customer_changes();
+
+CREATE TRIGGER customer_delete_record_change
+AFTER DELETE ON customer
+REFERENCING OLD TABLE AS changed_rows
+FOR EACH STATEMENT EXECUTE FUNCTION record_customer_changes();
@@ -1,11 +1,15 @@
 package org.ucentralasia;
 
 import com.github.javafaker.Faker;
+import com.zaxxer.hikari.HikariDataSource;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
 import org.flywaydb.core.Flyway;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.test.context.DynamicPropertySource;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
@@ -50,18 +54,39 @@ public abstract class AbstractTestcontainersUnitTest {
         assertThat(postgreSQLContainer.isRunning()).isTrue();
     }
 
-    private static DataSource getDataSource() {
-        return DataSourceBuilder.create()
-                .driverClassName(postgreSQLContainer.getDriverClassName())
-                .url(postgreSQLContainer.getJdbcUrl())
-                .username(postgreSQLContainer.getUsername())
-                .password(postgreSQLContainer.getPassword())
-                .build();
+    private static HikariDataSource dataSource;
+
+    // one pool per container instead of a new one per call, which kept its connections open until the JVM exited;
+    // the container is restarted for each test class, so a new url means a new pool
+    private static synchronized DataSource getDataSource() {
+        if (dataSource == null || !dataSource.getJdbcUrl().equals(postgreSQLContainer.getJdbcUrl())) {
+            if (dataSource != null) {
+                dataSource.close();
+            }
+            dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .driverClassName(postgreSQLContainer.getDriverClassName())
+                    .url(postgreSQLContainer.getJdbcUrl())
+                    .username(postgreSQLContainer.getUsername())
+                    .password(postgreSQLContainer.getPassword())
+                    .build();
+        }
+        return dataSource;
     }
     protected  static JdbcTemplate getJdbcTemplate() {
         return new JdbcTemplate(getDataSource());
     }
 
+    protected static DatabaseClient getDatabaseClient() {
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(
+                        postgreSQLContainer.getJdbcUrl().replaceFirst("^jdbc:", "r2dbc:").replaceFirst("\\?.*$", ""))
+                .mutate()
+                .option(ConnectionFactoryOptions.USER, postgreSQLContainer.getUsername())
+                .option(ConnectionFactoryOptions.PASSWORD, postgreSQLContainer.getPassword())
+                .build();
+        return DatabaseClient.create(ConnectionFactories.get(options));
+    }
+
     protected static final Faker FAKER = new Faker();
 
     protected Customer randomCustomer() {
@@ -0,0 +1,177 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CachingCustomerDaoTest {
+
+    @Mock
+    private CustomerDao delegate;
+    private SimpleMeterRegistry meterRegistry;
+    private CachingCustomerDao underTest;
+
+    private final Customer customer = new Customer(1L, "Alex", "alex@gmail.com", 19);
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        underTest = new CachingCustomerDao(delegate, 100, Duration.ofMinutes(1), meterRegistry);
+    }
+
+    @Test
+    void selectCustomerByIdIsServedFromCacheAfterFirstLookup() {
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+
+        verify(delegate, times(1)).selectCustomerById(1L);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void selectCustomerVersionByIdIsServedFromACachedCustomer() {
+        customer.setVersion(3L);
+        customer.setUpdatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        underTest.selectCustomerById(1L);
+
+        assertThat(underTest.selectCustomerVersionById(1L)).contains(CustomerVersion.of(customer));
+        verify(delegate, never()).selectCustomerVersionById(1L);
+    }
+
+    @Test
+    void selectCustomerVersionByIdMissDoesNotLoadTheCustomer() {
+        CustomerVersion version = new CustomerVersion(1L, 2, Instant.parse("2024-01-01T00:00:00Z"));
+        when(delegate.selectCustomerVersionById(1L)).thenReturn(Optional.of(version));
+
+        assertThat(underTest.selectCustomerVersionById(1L)).contains(version);
+        verify(delegate, never()).selectCustomerById(1L);
+    }
+
+    @Test
+    void missesAreNotCached() {
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.empty(), Optional.of(customer));
+
+        assertThat(underTest.selectCustomerById(1L)).isEmpty();
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+    }
+
+    @Test
+    void updateCustomerInvalidatesEntry() {
+        Customer updated = new Customer(1L, "Alexandr", "alex@gmail.com", 19);
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer), Optional.of(updated));
+        when(delegate.updateCustomer(updated)).thenReturn(true);
+
+        underTest.selectCustomerById(1L);
+        underTest.updateCustomer(updated);
+
+        assertThat(underTest.selectCustomerById(1L)).contains(updated);
+    }
+
+    @Test
+    void deleteCustomerByIdInvalidatesEntry() {
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer), Optional.empty());
+        when(delegate.deleteCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        underTest.selectCustomerById(1L);
+        underTest.deleteCustomerById(1L);
+
+        assertThat(underTest.selectCustomerById(1L)).isEmpty();
+    }
+
+    @Test
+    void insertCustomerInvalidatesEntry() {
+        Customer created = new Customer("Alex", "alex@gmail.com", 19);
+        when(delegate.insertCustomer(created)).thenAnswer(invocation -> {
+            created.setId(1L);
+            return true;
+        });
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        underTest.selectCustomerById(1L);
+        underTest.insertCustomer(created);
+        underTest.selectCustomerById(1L);
+
+        verify(delegate, times(2)).selectCustomerById(1L);
+    }
+
+    @Test
+    void evictRemovesEntry() {
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        underTest.selectCustomerById(1L);
+        underTest.evict(1L);
+        underTest.selectCustomerById(1L);
+
+        verify(delegate, times(2)).selectCustomerById(1L);
+    }
+
+    @Test
+    void invalidationDuringLoadDiscardsLoadedValue() {
+        when(delegate.selectCustomerById(1L)).thenAnswer(invocation -> {
+            underTest.evict(1L);
+            return Optional.of(customer);
+        }).thenReturn(Optional.of(customer));
+
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+        underTest.selectCustomerById(1L);
+
+        verify(delegate, times(2)).selectCustomerById(1L);
+    }
+
+    @Test
+    void loadFailureIsRethrownAndNotCached() {
+        when(delegate.selectCustomerById(1L))
+                .thenThrow(new IllegalStateException("connection lost"))
+                .thenReturn(Optional.of(customer));
+
+        assertThatThrownBy(() -> underTest.selectCustomerById(1L))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("connection lost");
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+    }
+
+    @Test
+    void preloadKeepsCachedEntriesAndDropsThoseInvalidatedMeanwhile() {
+        Customer cached = new Customer(1L, "Alexandr", "alex@gmail.com", 19);
+        Customer bob = new Customer(2L, "Bob", "bob@gmail.com", 25);
+        Customer carl = new Customer(3L, "Carl", "carl@mail.ru", 40);
+        when(delegate.selectCustomerById(1L)).thenReturn(Optional.of(cached));
+        when(delegate.selectCustomerById(3L)).thenReturn(Optional.of(carl));
+        underTest.selectCustomerById(1L);
+
+        int added = underTest.preload(() -> {
+            // a write from another node while the versions are being checked
+            underTest.evict(3L);
+            return List.of(customer, bob, carl);
+        });
+
+        assertThat(added).isEqualTo(2);
+        assertThat(underTest.selectCustomerById(1L)).contains(cached);
+        assertThat(underTest.selectCustomerById(2L)).contains(bob);
+        assertThat(underTest.selectCustomerById(3L)).contains(carl);
+        verify(delegate, never()).selectCustomerById(2L);
+        verify(delegate).selectCustomerById(3L);
+        assertThat(underTest.hottest(10)).containsOnlyKeys(1L, 2L, 3L);
+    }
+}
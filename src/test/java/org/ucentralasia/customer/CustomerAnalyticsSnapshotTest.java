@@ -0,0 +1,209 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.ServiceUnavailableException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CustomerAnalyticsSnapshotTest extends AbstractTestcontainersUnitTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private JdbcTemplate jdbcTemplate;
+    private CustomerJDBCDataAccessService customerDao;
+    private CustomerChangeFeed customerChangeFeed;
+    private CustomerAnalyticsSnapshot customerAnalyticsSnapshotUnderTest;
+    private String domain;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = getJdbcTemplate();
+        customerDao = new CustomerJDBCDataAccessService(jdbcTemplate, new CustomerRowMapper());
+        customerChangeFeed = new CustomerChangeFeed(jdbcTemplate, Duration.ofMillis(200), Duration.ofDays(7));
+        customerAnalyticsSnapshotUnderTest = newSnapshot(true);
+        domain = UUID.randomUUID() + ".analytics.example.com";
+    }
+
+    @AfterEach
+    void tearDown() {
+        customerAnalyticsSnapshotUnderTest.destroy();
+        customerChangeFeed.destroy();
+    }
+
+    private CustomerAnalyticsSnapshot newSnapshot(boolean enabled) {
+        // two rows per chunk, so every query merges several partial results
+        return new CustomerAnalyticsSnapshot(jdbcTemplate, new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+                customerChangeFeed, meterRegistry, enabled, Duration.ofSeconds(1), 2, 2);
+    }
+
+    private Customer insert(String name, int age) {
+        Customer customer = new Customer(name, name.toLowerCase() + "-" + UUID.randomUUID() + "@" + domain, age);
+        customerDao.insertCustomer(customer);
+        return customer;
+    }
+
+    private CustomerAnalytics query(Integer minAge, Integer maxAge) {
+        return customerAnalyticsSnapshotUnderTest.query(new CustomerAnalyticsQuery(minAge, maxAge, domain, null));
+    }
+
+    @Test
+    void aggregatesTheLoadedRows() {
+        insert("Alex", 19);
+        insert("Bob", 25);
+        insert("Carl", 40);
+
+        customerAnalyticsSnapshotUnderTest.load();
+
+        CustomerAnalytics analytics = query(null, null);
+        assertThat(analytics.customers()).isEqualTo(3);
+        assertThat(analytics.averageAge()).isEqualTo(28.0);
+        assertThat(analytics.minAge()).isEqualTo(19);
+        assertThat(analytics.maxAge()).isEqualTo(40);
+        assertThat(analytics.emailDomains()).isEqualTo(Map.of(domain, 3L));
+        assertThat(analytics.refreshedAt()).isNotNull();
+        assertThat(query(20, 40).customers()).isEqualTo(2);
+        assertThat(meterRegistry.get(CustomerAnalyticsSnapshot.OFF_HEAP).gauge().value()).isPositive();
+    }
+
+    @Test
+    void totalsMatchTheCustomerTable() {
+        insert("Alex", 19);
+
+        customerAnalyticsSnapshotUnderTest.load();
+
+        CustomerAnalytics analytics = customerAnalyticsSnapshotUnderTest.query(new CustomerAnalyticsQuery(18, 30, null, 0));
+        Long expected = jdbcTemplate.queryForObject("SELECT count(*) FROM customer WHERE age BETWEEN 18 AND 30", Long.class);
+        assertThat(analytics.customers()).isEqualTo(expected);
+        assertThat(analytics.emailDomains()).isEmpty();
+    }
+
+    @Test
+    void followsTheOutboxAfterLoading() {
+        Customer alex = insert("Alex", 19);
+        Customer bob = insert("Bob", 25);
+        customerAnalyticsSnapshotUnderTest.load();
+
+        insert("Carl", 40);
+        customerDao.updateCustomer(new Customer(alex.getId(), null, null, 30));
+        customerDao.deleteCustomerById(bob.getId());
+        customerAnalyticsSnapshotUnderTest.refresh();
+
+        CustomerAnalytics analytics = query(null, null);
+        assertThat(analytics.customers()).isEqualTo(2);
+        assertThat(analytics.minAge()).isEqualTo(30);
+        assertThat(analytics.maxAge()).isEqualTo(40);
+    }
+
+    @Test
+    void findsRowsThatArrivedOutOfIdOrder() {
+        insert("Alex", 19);
+        customerAnalyticsSnapshotUnderTest.load();
+        // below every id from the sequence, so it lands behind the sorted rows
+        long id = -Math.abs(UUID.randomUUID().getMostSignificantBits() % 1_000_000_000L) - 1;
+        jdbcTemplate.update("INSERT INTO customer (id, name, email, age) VALUES (?, ?, ?, ?)",
+                id, "Bob", "bob-" + UUID.randomUUID() + "@" + domain, 50);
+        customerAnalyticsSnapshotUnderTest.refresh();
+        assertThat(query(null, null).customers()).isEqualTo(2);
+
+        customerDao.updateCustomer(new Customer(id, null, null, 60));
+        customerAnalyticsSnapshotUnderTest.refresh();
+        assertThat(query(null, null).maxAge()).isEqualTo(60);
+
+        customerDao.deleteCustomerById(id);
+        customerAnalyticsSnapshotUnderTest.refresh();
+        assertThat(query(null, null).customers()).isEqualTo(1);
+    }
+
+    /**
+     * Runs the older write in a transaction that takes its xid before the younger write starts and commits after
+     * it, so its events sort first in the outbox although they are the later change.
+     */
+    private void interleave(Runnable olderWrite, Runnable youngerWrite) throws Exception {
+        CompletableFuture<Void> xidTaken = new CompletableFuture<>();
+        CompletableFuture<Void> youngerCommitted = new CompletableFuture<>();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        Thread older = new Thread(() -> transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_current_xact_id()::text", String.class);
+            xidTaken.complete(null);
+            youngerCommitted.join();
+            olderWrite.run();
+        }));
+        older.start();
+        xidTaken.get();
+        youngerWrite.run();
+        youngerCommitted.complete(null);
+        older.join();
+    }
+
+    @Test
+    void keepsTheNewerVersionWhenTransactionsCommitOutOfXidOrder() throws Exception {
+        Customer alex = insert("Alex", 19);
+        customerAnalyticsSnapshotUnderTest.load();
+
+        interleave(() -> customerDao.updateCustomer(new Customer(alex.getId(), null, null, 30)),
+                () -> customerDao.updateCustomer(new Customer(alex.getId(), null, null, 20)));
+        customerAnalyticsSnapshotUnderTest.refresh();
+
+        assertThat(((Customer) customerDao.selectCustomerById(alex.getId()).orElseThrow()).getAge()).isEqualTo(30);
+        CustomerAnalytics analytics = query(null, null);
+        assertThat(analytics.customers()).isEqualTo(1);
+        assertThat(analytics.maxAge()).isEqualTo(30);
+    }
+
+    @Test
+    void deletedCustomerStaysDeletedWhenEarlierChangesArriveLater() throws Exception {
+        Customer alex = insert("Alex", 19);
+        customerAnalyticsSnapshotUnderTest.load();
+        Customer[] bob = new Customer[1];
+
+        interleave(() -> {
+            customerDao.deleteCustomerById(alex.getId());
+            customerDao.deleteCustomerById(bob[0].getId());
+        }, () -> {
+            customerDao.updateCustomer(new Customer(alex.getId(), null, null, 20));
+            bob[0] = insert("Bob", 40);
+        });
+        customerAnalyticsSnapshotUnderTest.refresh();
+
+        assertThat(query(null, null).customers()).isZero();
+    }
+
+    @Test
+    void unknownDomainMatchesNothing() {
+        customerAnalyticsSnapshotUnderTest.load();
+
+        CustomerAnalytics analytics = query(null, null);
+
+        assertThat(analytics.customers()).isZero();
+        assertThat(analytics.averageAge()).isNull();
+        assertThat(analytics.emailDomains()).isEmpty();
+    }
+
+    @Test
+    void rejectsInvalidQueriesAndAnswersUnavailableUntilReady() {
+        assertThatThrownBy(() -> query(null, null)).isInstanceOf(ServiceUnavailableException.class);
+        assertThatThrownBy(() -> query(40, 20)).isInstanceOf(RequestValidationException.class);
+
+        CustomerAnalyticsSnapshot disabled = newSnapshot(false);
+        try {
+            assertThatThrownBy(() -> disabled.query(new CustomerAnalyticsQuery(null, null, null, null)))
+                    .isInstanceOf(ServiceUnavailableException.class)
+                    .hasMessageContaining("not enabled");
+        } finally {
+            disabled.destroy();
+        }
+    }
+}
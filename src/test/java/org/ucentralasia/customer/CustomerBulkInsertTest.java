@@ -0,0 +1,50 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The batched bulk path over several chunks. Its speed against one INSERT per customer is measured by
+ * CustomerBulkInsertBenchmark in the benchmark profile, not by a wall-clock assertion in the unit suite.
+ */
+class CustomerBulkInsertTest extends AbstractTestcontainersUnitTest {
+
+    private static final int ROWS = 2_000;
+    private static final int CHUNK_SIZE = 500;
+
+    private CustomerJDBCDataAccessService underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new CustomerJDBCDataAccessService(getJdbcTemplate(), new CustomerRowMapper());
+    }
+
+    @Test
+    void batchInsertWritesEveryChunkAndSkipsTakenEmails() {
+        List<Customer> customers = randomCustomers();
+        int inserted = 0;
+        for (int from = 0; from < ROWS; from += CHUNK_SIZE) {
+            for (int updateCount : underTest.insertCustomers(customers.subList(from, from + CHUNK_SIZE))) {
+                inserted += updateCount;
+            }
+        }
+
+        assertThat(inserted).isEqualTo(ROWS);
+        assertThat(underTest.selectExistingEmails(customers.stream().map(Customer::getEmail).toList())).hasSize(ROWS);
+        assertThat(underTest.insertCustomers(customers.subList(0, CHUNK_SIZE))).containsOnly(0);
+    }
+
+    private List<Customer> randomCustomers() {
+        List<Customer> customers = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            customers.add(randomCustomer());
+        }
+        return customers;
+    }
+}
@@ -0,0 +1,106 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.postgresql.PGNotification;
+import org.postgresql.core.Notification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class CustomerCacheInvalidationListenerTest extends AbstractTestcontainersUnitTest {
+
+    private CachingCustomerDao cachingCustomerDao;
+    private CustomerCacheInvalidationListener underTest;
+    private CustomerJDBCDataAccessService customerDao;
+
+    @BeforeEach
+    void setUp() {
+        cachingCustomerDao = mock(CachingCustomerDao.class);
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl(postgreSQLContainer.getJdbcUrl());
+        dataSourceProperties.setUsername(postgreSQLContainer.getUsername());
+        dataSourceProperties.setPassword(postgreSQLContainer.getPassword());
+        underTest = new CustomerCacheInvalidationListener(
+                cachingCustomerDao, dataSourceProperties, Duration.ofMillis(50), Duration.ofMillis(200)
+        );
+        customerDao = new CustomerJDBCDataAccessService(getJdbcTemplate(), new CustomerRowMapper());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (underTest.isRunning()) {
+            underTest.stop();
+        }
+    }
+
+    @Test
+    void evictsIdsChangedOnTheDatabase() {
+        underTest.start();
+        // the cache is dropped once LISTEN is in place
+        verify(cachingCustomerDao, timeout(5000)).evictAll();
+
+        Customer customer = randomCustomer();
+        customerDao.insertCustomer(customer);
+        verify(cachingCustomerDao, timeout(5000)).evictAll(Set.of(customer.getId()));
+
+        Mockito.clearInvocations(cachingCustomerDao);
+        customerDao.updateCustomer(new Customer(customer.getId(), null, null, customer.getAge() + 1));
+        verify(cachingCustomerDao, timeout(5000)).evictAll(Set.of(customer.getId()));
+
+        Mockito.clearInvocations(cachingCustomerDao);
+        customerDao.deleteCustomerById(customer.getId());
+        verify(cachingCustomerDao, timeout(5000)).evictAll(Set.of(customer.getId()));
+    }
+
+    @Test
+    void reconnectsAfterAMalformedNotification() {
+        underTest.start();
+        verify(cachingCustomerDao, timeout(5000)).evictAll();
+
+        getJdbcTemplate().execute("SELECT pg_notify('%s', 'not-an-id')".formatted(CustomerCacheInvalidationListener.CHANNEL));
+        // dropped on the failure and again once the new connection listens
+        verify(cachingCustomerDao, timeout(5000).atLeast(3)).evictAll();
+
+        Customer customer = randomCustomer();
+        customerDao.insertCustomer(customer);
+        verify(cachingCustomerDao, timeout(5000)).evictAll(Set.of(customer.getId()));
+    }
+
+    @Test
+    void reconnectsWhenTheConnectionIsKilled() {
+        underTest.start();
+        verify(cachingCustomerDao, timeout(5000)).evictAll();
+
+        getJdbcTemplate().execute("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE query = 'SELECT 1' OR query LIKE 'LISTEN%'");
+        verify(cachingCustomerDao, timeout(5000).atLeast(2)).evictAll();
+    }
+
+    @Test
+    void batchesIdsFromSeveralNotifications() {
+        underTest.apply(new PGNotification[]{
+                new Notification(CustomerCacheInvalidationListener.CHANNEL, 1, "1,2"),
+                new Notification(CustomerCacheInvalidationListener.CHANNEL, 2, "3")
+        });
+        verify(cachingCustomerDao).evictAll(Set.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void evictsEverythingWhenTooManyIdsChanged() {
+        underTest.apply(new PGNotification[]{
+                new Notification(CustomerCacheInvalidationListener.CHANNEL, 1, "1"),
+                new Notification(CustomerCacheInvalidationListener.CHANNEL, 2, CustomerCacheInvalidationListener.ALL)
+        });
+        verify(cachingCustomerDao).evictAll();
+        verify(cachingCustomerDao, never()).evictAll(Mockito.anyCollection());
+    }
+}
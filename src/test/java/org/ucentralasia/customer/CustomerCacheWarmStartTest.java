@@ -0,0 +1,123 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class CustomerCacheWarmStartTest extends AbstractTestcontainersUnitTest {
+
+    @TempDir
+    private Path directory;
+    private JdbcTemplate jdbcTemplate;
+    private CustomerJDBCDataAccessService customerDao;
+    private CustomerCacheWarmStart savingNode;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = getJdbcTemplate();
+        customerDao = new CustomerJDBCDataAccessService(jdbcTemplate, new CustomerRowMapper());
+        savingNode = newWarmStart(newCache(customerDao));
+    }
+
+    @AfterEach
+    void tearDown() {
+        savingNode.destroy();
+    }
+
+    private CachingCustomerDao newCache(CustomerDao delegate) {
+        return new CachingCustomerDao(delegate, 100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+    }
+
+    @SuppressWarnings("unchecked")
+    private CustomerCacheWarmStart newWarmStart(CachingCustomerDao cache) {
+        return new CustomerCacheWarmStart(cache, jdbcTemplate, mock(ObjectProvider.class), true,
+                directory.resolve("customer-cache.bin"), Duration.ofMinutes(5), 100, 2);
+    }
+
+    private Customer insert(String name) {
+        Customer customer = new Customer(name, name.toLowerCase() + "-" + UUID.randomUUID() + "@warm.example.com", 19);
+        customerDao.insertCustomer(customer);
+        return customer;
+    }
+
+    private CachingCustomerDao readThrough(List<Customer> customers) {
+        CachingCustomerDao cache = newCache(customerDao);
+        customers.forEach(customer -> cache.selectCustomerById(customer.getId()));
+        return cache;
+    }
+
+    @Test
+    void warmsANewCacheFromTheSavedFile() {
+        List<Customer> customers = List.of(insert("Alex"), insert("Bob"), insert("Carl"));
+        CustomerCacheWarmStart saving = newWarmStart(readThrough(customers));
+        assertThat(saving.save()).isEqualTo(3);
+
+        CustomerDao delegate = spy(customerDao);
+        CachingCustomerDao restarted = newCache(delegate);
+        assertThat(newWarmStart(restarted).warm()).isEqualTo(3);
+
+        for (Customer customer : customers) {
+            Customer cached = restarted.selectCustomerById(customer.getId()).orElseThrow();
+            Customer stored = (Customer) customerDao.selectCustomerById(customer.getId()).orElseThrow();
+            assertThat(cached).isEqualTo(stored);
+            assertThat(cached.getVersion()).isEqualTo(stored.getVersion());
+            assertThat(cached.getUpdatedAt()).isEqualTo(stored.getUpdatedAt());
+        }
+        verify(delegate, never()).selectCustomerById(customers.get(0).getId());
+    }
+
+    @Test
+    void skipsCustomersThatChangedOrWentAway() {
+        Customer alex = insert("Alex");
+        Customer bob = insert("Bob");
+        Customer carl = insert("Carl");
+        newWarmStart(readThrough(List.of(alex, bob, carl))).save();
+        customerDao.updateCustomer(new Customer(alex.getId(), null, null, 20));
+        customerDao.deleteCustomerById(bob.getId());
+
+        CachingCustomerDao restarted = newCache(customerDao);
+
+        assertThat(newWarmStart(restarted).warm()).isEqualTo(1);
+        assertThat(restarted.hottest(10)).containsOnlyKeys(carl.getId());
+        assertThat(restarted.selectCustomerById(alex.getId()).orElseThrow().getAge()).isEqualTo(20);
+    }
+
+    @Test
+    void ignoresACorruptFile() throws IOException {
+        newWarmStart(readThrough(List.of(insert("Alex")))).save();
+        Path file = directory.resolve("customer-cache.bin");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertThatThrownBy(() -> CustomerCacheWarmStart.decode(ByteBuffer.wrap(bytes)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("checksum mismatch");
+        assertThat(newWarmStart(newCache(customerDao)).warm()).isZero();
+    }
+
+    @Test
+    void missingFileWarmsNothing() {
+        assertThat(savingNode.warm()).isZero();
+    }
+}
@@ -0,0 +1,180 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+import org.ucentralasia.exception.ResourceGoneException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CustomerChangeFeedTest extends AbstractTestcontainersUnitTest {
+
+    private final CustomerRowMapper customerRowMapper = new CustomerRowMapper();
+    private JdbcTemplate jdbcTemplate;
+    private CustomerJDBCDataAccessService customerDao;
+    private CustomerChangeFeed customerChangeFeedUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = getJdbcTemplate();
+        customerDao = new CustomerJDBCDataAccessService(jdbcTemplate, customerRowMapper);
+        customerChangeFeedUnderTest = new CustomerChangeFeed(jdbcTemplate, Duration.ofMillis(200), Duration.ofDays(7));
+    }
+
+    @AfterEach
+    void tearDown() {
+        customerChangeFeedUnderTest.destroy();
+    }
+
+    private long head() {
+        Long head = customerChangeFeedUnderTest.head();
+        return head == null ? 0 : head;
+    }
+
+    private Customer insert() {
+        Customer customer = new Customer("Alex", UUID.randomUUID() + "@changes.example.com", 19);
+        customerDao.insertCustomer(customer);
+        return customer;
+    }
+
+    @Test
+    void recordsEveryWriteInTheSameOrder() {
+        long since = head();
+        Customer customer = insert();
+        customerDao.updateCustomer(new Customer(customer.getId(), null, null, 20));
+        // no row changes, so no event
+        customerDao.updateCustomers(List.of(new Customer(customer.getId(), "Alex", null, 20)));
+        customerDao.deleteCustomerById(customer.getId());
+
+        CustomerChangePage page = customerChangeFeedUnderTest.read(since, 100);
+
+        assertThat(page.changes()).extracting(CustomerChange::customerId).containsOnly(customer.getId());
+        assertThat(page.changes()).extracting(CustomerChange::type).containsExactly(
+                CustomerChange.Type.CREATED, CustomerChange.Type.UPDATED, CustomerChange.Type.DELETED);
+        assertThat(page.changes()).extracting(CustomerChange::age).containsExactly(19, 20, 20);
+        assertThat(page.changes()).extracting(CustomerChange::version).containsExactly(1L, 2L, 2L);
+        assertThat(page.next()).isEqualTo(page.changes().get(2).seq());
+    }
+
+    @Test
+    void pagesWithTheLastSeq() {
+        long since = head();
+        Customer first = insert();
+        Customer second = insert();
+
+        CustomerChangePage firstPage = customerChangeFeedUnderTest.read(since, 1);
+        CustomerChangePage secondPage = customerChangeFeedUnderTest.read(firstPage.next(), 1);
+        CustomerChangePage empty = customerChangeFeedUnderTest.read(secondPage.next(), 1);
+
+        assertThat(firstPage.changes()).extracting(CustomerChange::customerId).containsExactly(first.getId());
+        assertThat(secondPage.changes()).extracting(CustomerChange::customerId).containsExactly(second.getId());
+        assertThat(empty.changes()).isEmpty();
+        assertThat(empty.next()).isEqualTo(secondPage.next());
+    }
+
+    @Test
+    void changesOfOpenTransactionsHoldBackLaterOnes() throws Exception {
+        long since = head();
+        CompletableFuture<Void> openTransaction = new CompletableFuture<>();
+        CompletableFuture<Void> inserted = new CompletableFuture<>();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        Thread writer = new Thread(() -> transactionTemplate.executeWithoutResult(status -> {
+            insert();
+            inserted.complete(null);
+            openTransaction.join();
+        }));
+        writer.start();
+        inserted.get();
+        Customer committed = insert();
+
+        // the open transaction could still commit an event that sorts before this one
+        assertThat(customerChangeFeedUnderTest.read(since, 100).changes()).isEmpty();
+
+        openTransaction.complete(null);
+        writer.join();
+        assertThat(customerChangeFeedUnderTest.read(since, 100).changes())
+                .hasSize(2)
+                .last()
+                .extracting(CustomerChange::customerId)
+                .isEqualTo(committed.getId());
+    }
+
+    @Test
+    void changesOfOneCustomerCanArriveOutOfCommitOrder() throws Exception {
+        Customer customer = insert();
+        long since = head();
+        CompletableFuture<Void> xidTaken = new CompletableFuture<>();
+        CompletableFuture<Void> youngerCommitted = new CompletableFuture<>();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        Thread older = new Thread(() -> transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_current_xact_id()::text", String.class);
+            xidTaken.complete(null);
+            youngerCommitted.join();
+            customerDao.updateCustomer(new Customer(customer.getId(), null, null, 30));
+        }));
+        older.start();
+        xidTaken.get();
+        customerDao.updateCustomer(new Customer(customer.getId(), null, null, 20));
+        youngerCommitted.complete(null);
+        older.join();
+
+        List<CustomerChange> changes = customerChangeFeedUnderTest.read(since, 100).changes();
+
+        // the transaction with the older xid committed last, yet its event comes first; only version tells them apart
+        assertThat(changes).extracting(CustomerChange::age).containsExactly(30, 20);
+        assertThat(changes).extracting(CustomerChange::version).containsExactly(3L, 2L);
+    }
+
+    @Test
+    void unknownSinceIsGone() {
+        assertThatThrownBy(() -> customerChangeFeedUnderTest.read(Long.MAX_VALUE, 10))
+                .isInstanceOf(ResourceGoneException.class);
+    }
+
+    @Test
+    void waitingRequestIsCompletedByTheNextChange() {
+        long since = head();
+        CompletableFuture<CustomerChangePage> result = customerChangeFeedUnderTest.changesAfter(since, 10, Duration.ofMinutes(1));
+        customerChangeFeedUnderTest.poll();
+        assertThat(result).isNotDone();
+
+        Customer customer = insert();
+        customerChangeFeedUnderTest.poll();
+
+        assertThat(result).isCompleted();
+        assertThat(result.join().changes()).extracting(CustomerChange::customerId).containsExactly(customer.getId());
+        assertThat(customerChangeFeedUnderTest.waiting()).isZero();
+    }
+
+    @Test
+    void waitingRequestTimesOutEmpty() {
+        long since = head();
+        CompletableFuture<CustomerChangePage> result = customerChangeFeedUnderTest.changesAfter(since, 10, Duration.ofNanos(1));
+
+        customerChangeFeedUnderTest.poll();
+
+        assertThat(result.join()).isEqualTo(new CustomerChangePage(List.of(), since));
+    }
+
+    @Test
+    void pruneDeletesChangesOlderThanTheRetention() {
+        long since = head();
+        Customer customer = insert();
+        jdbcTemplate.update("UPDATE customer_change SET changed_at = now() - interval '8 days' WHERE customer_id = ?", customer.getId());
+
+        assertThat(customerChangeFeedUnderTest.prune()).isGreaterThanOrEqualTo(1);
+        assertThat(customerChangeFeedUnderTest.read(since, 100).changes())
+                .extracting(CustomerChange::customerId)
+                .doesNotContain(customer.getId());
+    }
+}
@@ -0,0 +1,146 @@
+package org.ucentralasia.customer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerEventBusTest {
+
+    private final Queue<Runnable> sends = new ArrayDeque<>();
+    private CustomerEventBus customerEventBusUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        // publishing runs right away, sending only when the test says so
+        customerEventBusUnderTest = new CustomerEventBus(new ObjectMapper(), 3, Duration.ofMinutes(1), Runnable::run, sends::add);
+    }
+
+    private void runSends() {
+        for (Runnable send = sends.poll(); send != null; send = sends.poll()) {
+            send.run();
+        }
+    }
+
+    @Test
+    void deliversEventsToEverySubscriberInOrder() {
+        RecordingEmitter first = subscribe(null);
+        RecordingEmitter second = subscribe(null);
+
+        customerEventBusUnderTest.publish(CustomerChange.Type.CREATED, new Customer(1L, "Alex", "alex@gmail.com", 19));
+        customerEventBusUnderTest.publish(CustomerChange.Type.DELETED, new Customer(1L, "Alex", "alex@gmail.com", 19));
+        runSends();
+
+        for (RecordingEmitter emitter : List.of(first, second)) {
+            assertThat(emitter.events()).containsExactly("created", "deleted");
+            assertThat(emitter.frames.get(0)).startsWith(":heartbeat");
+            assertThat(emitter.frames.get(1)).contains("data:{\"id\":1,\"name\":\"Alex\"");
+        }
+    }
+
+    @Test
+    void slowSubscriberGetsResyncInsteadOfTheEventsItMissed() {
+        RecordingEmitter slow = subscribe(null);
+        customerEventBusUnderTest.publish(CustomerChange.Type.UPDATED, new Customer(1L, "Alex", null, null));
+        runSends();
+        String first = slow.lastEventId();
+        String run = first.substring(0, first.lastIndexOf('-') + 1);
+
+        // 2 to 4 fill the buffer of three, 5 does not fit and 6 comes after the resync
+        for (long id = 2; id <= 6; id++) {
+            customerEventBusUnderTest.publish(CustomerChange.Type.UPDATED, new Customer(id, "Alex", null, null));
+        }
+        runSends();
+
+        assertThat(slow.events()).containsExactly("updated", CustomerEventBus.RESYNC, "updated");
+        assertThat(slow.eventIds()).containsExactly(run + 1, run + 5, run + 6);
+        assertThat(slow.frames.get(slow.frames.size() - 1)).contains("\"id\":6");
+    }
+
+    @Test
+    void reconnectingWithAnOldEventIdGetsResync() {
+        RecordingEmitter first = subscribe(null);
+        customerEventBusUnderTest.publish(CustomerChange.Type.CREATED, new Customer(1L, "Alex", "alex@gmail.com", 19));
+        runSends();
+        String lastEventId = first.lastEventId();
+
+        assertThat(subscribe(lastEventId).events()).isEmpty();
+
+        customerEventBusUnderTest.publish(CustomerChange.Type.CREATED, new Customer(2L, "Bob", "bob@gmail.com", 19));
+        RecordingEmitter behind = subscribe(lastEventId);
+        runSends();
+        assertThat(behind.events()).containsExactly(CustomerEventBus.RESYNC);
+    }
+
+    @Test
+    void failedSendUnsubscribes() {
+        RecordingEmitter gone = subscribe(null);
+        gone.fail = true;
+
+        customerEventBusUnderTest.publish(CustomerChange.Type.CREATED, new Customer(1L, "Alex", "alex@gmail.com", 19));
+        runSends();
+
+        assertThat(customerEventBusUnderTest.subscribers()).isZero();
+    }
+
+    @Test
+    void resyncAllReachesEverySubscriber() {
+        RecordingEmitter first = subscribe(null);
+        RecordingEmitter second = subscribe(null);
+
+        customerEventBusUnderTest.resyncAll();
+        runSends();
+
+        assertThat(first.events()).containsExactly(CustomerEventBus.RESYNC);
+        assertThat(second.events()).containsExactly(CustomerEventBus.RESYNC);
+    }
+
+    private RecordingEmitter subscribe(String lastEventId) {
+        RecordingEmitter emitter = new RecordingEmitter();
+        customerEventBusUnderTest.subscribe(emitter, lastEventId);
+        return emitter;
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final List<String> frames = new ArrayList<>();
+        private boolean fail;
+
+        @Override
+        public synchronized void send(Set<DataWithMediaType> items) throws IOException {
+            if (fail) {
+                throw new IOException("Broken pipe");
+            }
+            frames.add(items.stream().map(item -> item.getData().toString()).collect(Collectors.joining()));
+        }
+
+        List<String> events() {
+            return frames.stream()
+                    .flatMap(frame -> frame.lines().filter(line -> line.startsWith("event:")).map(line -> line.substring(6)))
+                    .toList();
+        }
+
+        String lastEventId() {
+            String frame = frames.get(frames.size() - 1);
+            return frame.lines().filter(line -> line.startsWith("id:")).findFirst().orElseThrow().substring(3);
+        }
+
+        List<String> eventIds() {
+            return frames.stream()
+                    .flatMap(frame -> frame.lines().filter(line -> line.startsWith("id:")).map(line -> line.substring(3)))
+                    .toList();
+        }
+    }
+}
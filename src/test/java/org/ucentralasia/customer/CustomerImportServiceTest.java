@@ -0,0 +1,89 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+import org.ucentralasia.customer.exception.RequestValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CustomerImportServiceTest extends AbstractTestcontainersUnitTest {
+
+    private CustomerImportService underTest;
+    private CustomerJDBCDataAccessService customerDao;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate jdbcTemplate = getJdbcTemplate();
+        underTest = new CustomerImportService(
+                jdbcTemplate,
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource())
+        );
+        customerDao = new CustomerJDBCDataAccessService(jdbcTemplate, new CustomerRowMapper());
+    }
+
+    @Test
+    void importCsv() {
+        Customer existing = randomCustomer();
+        customerDao.insertCustomer(existing);
+        String first = randomEmail();
+        String second = randomEmail();
+        String csv = """
+                name,email,age
+                Alex,%s,19
+                "Smith, Bob",%s,20
+                Carl,%s,21
+                Dan,%s,
+                """.formatted(first, second, existing.getEmail(), randomEmail());
+
+        CustomerImportResult result = underTest.importCsv(stream(csv));
+
+        assertThat(result.rowsRead()).isEqualTo(4);
+        assertThat(result.rowsImported()).isEqualTo(2);
+        assertThat(result.rowsSkipped()).isEqualTo(2);
+        assertThat(customerDao.selectExistingEmails(List.of(first, second))).containsExactlyInAnyOrder(first, second);
+    }
+
+    @Test
+    void importNdjson() {
+        String email = randomEmail();
+        String ndjson = """
+                {"name": "Alex \\"the\\" Great, Jr.", "email": "%s", "age": 19}
+                {"name": "No Age", "email": "%s"}
+                """.formatted(email, randomEmail());
+
+        CustomerImportResult result = underTest.importNdjson(stream(ndjson));
+
+        assertThat(result.rowsRead()).isEqualTo(2);
+        assertThat(result.rowsImported()).isEqualTo(1);
+        assertThat(customerDao.selectExistingEmails(List.of(email))).containsExactly(email);
+    }
+
+    @Test
+    void willRejectMalformedRows() {
+        String csv = """
+                name,email,age
+                Alex,%s,not-a-number
+                """.formatted(randomEmail());
+
+        assertThatThrownBy(() -> underTest.importCsv(stream(csv)))
+                .isInstanceOf(RequestValidationException.class);
+    }
+
+    private static String randomEmail() {
+        return FAKER.internet().safeEmailAddress() + UUID.randomUUID();
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -2,14 +2,18 @@ package org.ucentralasia.customer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.ucentralasia.AbstractTestcontainersUnitTest;
+import org.ucentralasia.StatementCountingDataSource;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.*;
 
 class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
@@ -38,6 +42,89 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
         assertThat(customers).isNotEmpty();
     }
 
+    @Test
+    void selectCustomersAfterId() {
+        for (int i = 0; i < 3; i++) {
+            customerJDBCDataAccessServiceUnderTest.insertCustomer(randomCustomer());
+        }
+        List<Customer> firstPage = customerJDBCDataAccessServiceUnderTest.selectCustomersAfterId(0L, 2);
+        assertThat(firstPage).hasSize(2);
+        assertThat(firstPage.get(0).getId()).isLessThan(firstPage.get(1).getId());
+
+        Long cursor = firstPage.get(1).getId();
+        List<Customer> nextPage = customerJDBCDataAccessServiceUnderTest.selectCustomersAfterId(cursor, 2);
+        assertThat(nextPage).isNotEmpty().allSatisfy(c -> assertThat(c.getId()).isGreaterThan(cursor));
+    }
+
+    @Test
+    void searchCustomersFiltersByEmailPrefixNameAndAge() {
+        String tag = UUID.randomUUID().toString();
+        List<Customer> customers = List.of(
+                new Customer("Ann " + tag, tag + "-ann@example.com", 20),
+                new Customer("Bob " + tag, tag + "-bob@example.com", 30),
+                new Customer("Cid " + tag, tag + "-cid@example.com", 40),
+                new Customer("Ann Other", "other-" + tag + "@example.com", 30)
+        );
+        customers.forEach(customerJDBCDataAccessServiceUnderTest::insertCustomer);
+
+        List<Customer> byEmail = customerJDBCDataAccessServiceUnderTest.searchCustomers(
+                new CustomerSearch(tag.toUpperCase(), null, null, null, CustomerSearch.Sort.ID, null), 10);
+        List<Customer> byName = customerJDBCDataAccessServiceUnderTest.searchCustomers(
+                new CustomerSearch(null, "ANN " + tag, null, null, CustomerSearch.Sort.ID, null), 10);
+        List<Customer> byAll = customerJDBCDataAccessServiceUnderTest.searchCustomers(
+                new CustomerSearch(tag, tag.substring(0, 8), 25, 40, CustomerSearch.Sort.AGE_DESC, null), 10);
+
+        assertThat(byEmail).containsExactly(customers.get(0), customers.get(1), customers.get(2));
+        assertThat(byName).containsExactly(customers.get(0));
+        assertThat(byAll).containsExactly(customers.get(2), customers.get(1));
+    }
+
+    @Test
+    void searchCustomersTreatsLikeWildcardsLiterally() {
+        String tag = UUID.randomUUID().toString();
+        Customer customer = new Customer("Percent " + tag, tag + "_a%b@example.com", 20);
+        Customer lookalike = new Customer("Percent " + tag, tag + "xaxb@example.com", 20);
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(lookalike);
+
+        assertThat(customerJDBCDataAccessServiceUnderTest.searchCustomers(
+                new CustomerSearch(tag + "_a%", null, null, null, CustomerSearch.Sort.ID, null), 10
+        )).containsExactly(customer);
+    }
+
+    @Test
+    void searchCustomersPagesByAgeKeyset() {
+        String tag = UUID.randomUUID().toString();
+        List<Customer> customers = List.of(
+                new Customer("Dee " + tag, tag + "-1@example.com", 50),
+                new Customer("Dee " + tag, tag + "-2@example.com", 30),
+                new Customer("Dee " + tag, tag + "-3@example.com", 30),
+                new Customer("Dee " + tag, tag + "-4@example.com", 40)
+        );
+        customers.forEach(customerJDBCDataAccessServiceUnderTest::insertCustomer);
+        CustomerSearch firstPage = new CustomerSearch(tag, null, null, null, CustomerSearch.Sort.AGE, null);
+
+        List<Customer> first = customerJDBCDataAccessServiceUnderTest.searchCustomers(firstPage, 2);
+        CustomerSearch.Cursor cursor = CustomerSearch.Cursor.of(first.get(1), CustomerSearch.Sort.AGE);
+        List<Customer> second = customerJDBCDataAccessServiceUnderTest.searchCustomers(
+                new CustomerSearch(tag, null, null, null, CustomerSearch.Sort.AGE, cursor), 2);
+
+        // equal ages fall back to id order
+        assertThat(first).containsExactly(customers.get(1), customers.get(2));
+        assertThat(second).containsExactly(customers.get(3), customers.get(0));
+    }
+
+    @Test
+    void forEachCustomer() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        List<Customer> streamed = new ArrayList<>();
+        customerJDBCDataAccessServiceUnderTest.forEachCustomer(streamed::add);
+        assertThat(streamed)
+                .hasSameSizeAs(customerJDBCDataAccessServiceUnderTest.selectAllCustomers())
+                .anyMatch(c -> c.getEmail().equals(customer.getEmail()));
+    }
+
     @Test
     void selectCustomerById() {
         Customer customer = randomCustomer();
@@ -69,6 +156,51 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
                 .findFirst()).isPresent();
     }
 
+    @Test
+    void insertCustomers() {
+        Customer existing = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(existing);
+        List<Customer> customers = List.of(randomCustomer(), existing, randomCustomer());
+
+        int[] updateCounts = customerJDBCDataAccessServiceUnderTest.insertCustomers(customers);
+
+        assertThat(updateCounts).containsExactly(1, 0, 1);
+        assertThat(customers.get(0).getId()).isNotNull();
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomerById(customers.get(2).getId()))
+                .contains(customers.get(2));
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectExistingEmails(
+                customers.stream().map(Customer::getEmail).toList()
+        )).containsExactlyInAnyOrderElementsOf(customers.stream().map(Customer::getEmail).toList());
+    }
+
+    @Test
+    void selectExistingEmails() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        String unknownEmail = FAKER.internet().safeEmailAddress() + UUID.randomUUID();
+
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectExistingEmails(
+                List.of(customer.getEmail(), unknownEmail)
+        )).containsExactly(customer.getEmail());
+    }
+
+    @Test
+    void insertCustomerSetsGeneratedId() {
+        Customer customer = randomCustomer();
+        assertThat(customerJDBCDataAccessServiceUnderTest.insertCustomer(customer)).isTrue();
+        assertThat(customer.getId()).isNotNull();
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomerById(customer.getId())).contains(customer);
+    }
+
+    @Test
+    void insertCustomerReturnsFalseWhenEmailIsTaken() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        Customer sameEmail = new Customer("Someone Else", customer.getEmail(), 30);
+        assertThat(customerJDBCDataAccessServiceUnderTest.insertCustomer(sameEmail)).isFalse();
+        assertThat(sameEmail.getId()).isNull();
+    }
+
     @Test
     void existsCustomerWithEmail() {
         Customer customer = randomCustomer();
@@ -110,7 +242,8 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
                 .filter(c -> c.getEmail().equals(customer.getEmail()))
                 .findFirst()
                 .orElseThrow();
-        customerJDBCDataAccessServiceUnderTest.deleteCustomerById(customerFromDB.getId());
+        assertThat(customerJDBCDataAccessServiceUnderTest.deleteCustomerById(customerFromDB.getId()))
+                .contains(customerFromDB);
         assertThat(
                 customerJDBCDataAccessServiceUnderTest
                         .selectCustomerById(customerFromDB.getId())
@@ -118,6 +251,28 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
         ).isTrue();
     }
 
+    @Test
+    void deleteCustomerByIdReturnsEmptyWhenMissing() {
+        assertThat(customerJDBCDataAccessServiceUnderTest.deleteCustomerById((long) -1)).isEmpty();
+    }
+
+    @Test
+    void updateCustomerReturnsFalseWhenMissing() {
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomer(new Customer((long) -1, "Name", null, null)))
+                .isFalse();
+    }
+
+    @Test
+    void updateCustomerThrowsDuplicateKeyWhenEmailIsTaken() {
+        Customer taken = randomCustomer();
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(taken);
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        assertThatThrownBy(() -> customerJDBCDataAccessServiceUnderTest.updateCustomer(
+                new Customer(customer.getId(), null, taken.getEmail(), null)
+        )).isInstanceOf(DuplicateKeyException.class);
+    }
+
     @Test
     void updateCustomer() {
         Customer customer = randomCustomer();
@@ -128,7 +283,7 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
                 .findFirst()
                 .orElseThrow();
         customerFromDB.setAge(0);
-        customerJDBCDataAccessServiceUnderTest.updateCustomer(customerFromDB);
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomer(customerFromDB)).isTrue();
         Customer updatedCustomer = customerJDBCDataAccessServiceUnderTest.selectAllCustomers()
                 .stream()
                 .filter(c -> c.getEmail().equals(customer.getEmail()))
@@ -137,6 +292,143 @@ class CustomerJDBCDataAccessServiceTest extends AbstractTestcontainersUnitTest {
         assertThat(updatedCustomer.getAge()).isEqualTo(0);
     }
 
+    @Test
+    void updateCustomerCostsOneRoundTrip() {
+        StatementCountingDataSource dataSource = new StatementCountingDataSource(getJdbcTemplate().getDataSource());
+        CustomerJDBCDataAccessService underTest = new CustomerJDBCDataAccessService(
+                new JdbcTemplate(dataSource), customerRowMapper
+        );
+        Customer customer = randomCustomer();
+        underTest.insertCustomer(customer);
+        Customer customerFromDB = underTest.selectAllCustomers()
+                .stream()
+                .filter(c -> c.getEmail().equals(customer.getEmail()))
+                .findFirst()
+                .orElseThrow();
+        Customer update = new Customer(
+                customerFromDB.getId(),
+                "New Name",
+                FAKER.internet().safeEmailAddress() + UUID.randomUUID(),
+                customerFromDB.getAge() + 1
+        );
+
+        dataSource.reset();
+        underTest.updateCustomer(update);
+
+        // previously one UPDATE per changed column
+        assertThat(dataSource.getStatementCount()).isEqualTo(1);
+        assertThat(underTest.selectCustomerById(update.getId())).contains(update);
+    }
+
+    @Test
+    void updateCustomerWithUnchangedValuesDoesNotWriteANewRowVersion() {
+        JdbcTemplate jdbcTemplate = getJdbcTemplate();
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        Customer customerFromDB = customerJDBCDataAccessServiceUnderTest.selectAllCustomers()
+                .stream()
+                .filter(c -> c.getEmail().equals(customer.getEmail()))
+                .findFirst()
+                .orElseThrow();
+        String xminSql = "SELECT xmin::text FROM customer WHERE id = ?";
+        String xminBefore = jdbcTemplate.queryForObject(xminSql, String.class, customerFromDB.getId());
+
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomer(customerFromDB)).isFalse();
+
+        assertThat(jdbcTemplate.queryForObject(xminSql, String.class, customerFromDB.getId())).isEqualTo(xminBefore);
+    }
+
+    @Test
+    void updateCustomerBumpsVersion() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        assertThat(customer.getVersion()).isEqualTo(1);
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomerVersionById(customer.getId()))
+                .contains(new CustomerVersion(customer.getId(), 1, customer.getUpdatedAt()));
+
+        customerJDBCDataAccessServiceUnderTest.updateCustomer(new Customer(customer.getId(), null, null, 55));
+
+        Customer updated = (Customer) customerJDBCDataAccessServiceUnderTest.selectCustomerById(customer.getId()).orElseThrow();
+        assertThat(updated.getVersion()).isEqualTo(2);
+        assertThat(updated.getUpdatedAt()).isAfterOrEqualTo(customer.getUpdatedAt());
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomerVersionById(customer.getId()))
+                .contains(CustomerVersion.of(updated));
+    }
+
+    @Test
+    void updateCustomerWithVersionOnlyWritesThatVersion() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        Customer first = new Customer(customer.getId(), "First", null, null);
+        first.setVersion(1L);
+        Customer second = new Customer(customer.getId(), "Second", null, null);
+        second.setVersion(1L);
+
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomer(first)).isTrue();
+        assertThat(first.getVersion()).isEqualTo(2);
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomer(second)).isFalse();
+
+        Customer stored = (Customer) customerJDBCDataAccessServiceUnderTest.selectCustomerById(customer.getId()).orElseThrow();
+        assertThat(stored.getName()).isEqualTo("First");
+    }
+
+    @Test
+    void updateCustomersWritesNonNullFieldsAndSkipsUnchangedRows() {
+        Customer first = randomCustomer();
+        Customer second = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(first);
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(second);
+
+        int[] updateCounts = customerJDBCDataAccessServiceUnderTest.updateCustomers(List.of(
+                new Customer(first.getId(), "Renamed", null, null),
+                new Customer(second.getId(), second.getName(), null, second.getAge()),
+                new Customer(-1L, "Missing", null, 1)
+        ));
+
+        assertThat(updateCounts).containsExactly(1, 0, 0);
+        Customer stored = (Customer) customerJDBCDataAccessServiceUnderTest.selectCustomerById(first.getId()).orElseThrow();
+        assertThat(stored.getName()).isEqualTo("Renamed");
+        assertThat(stored.getEmail()).isEqualTo(first.getEmail());
+        assertThat(stored.getAge()).isEqualTo(first.getAge());
+        assertThat(stored.getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    void updateCustomersSkipsRowsAtAnotherVersion() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        Customer stale = new Customer(customer.getId(), "Stale", null, null);
+        stale.setVersion(customer.getVersion() - 1);
+        Customer current = new Customer(customer.getId(), "Current", null, null);
+        current.setVersion(customer.getVersion());
+
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomers(List.of(stale))).containsExactly(0);
+        assertThat(customerJDBCDataAccessServiceUnderTest.updateCustomers(List.of(current))).containsExactly(1);
+        Customer stored = (Customer) customerJDBCDataAccessServiceUnderTest.selectCustomerById(customer.getId()).orElseThrow();
+        assertThat(stored.getName()).isEqualTo("Current");
+    }
+
+    @Test
+    void selectCustomerVersionByIdReturnsEmptyWhenMissing() {
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomerVersionById(-1L)).isEmpty();
+    }
+
+    @Test
+    void selectCustomersVersionAfterIdMatchesThePageItDescribes() {
+        Customer customer = randomCustomer();
+        customerJDBCDataAccessServiceUnderTest.insertCustomer(customer);
+        long after = customer.getId() - 1;
+
+        String version = customerJDBCDataAccessServiceUnderTest.selectCustomersVersionAfterId(after, 3);
+
+        assertThat(version).isEqualTo(CustomerPage.version(
+                customerJDBCDataAccessServiceUnderTest.selectCustomersAfterId(after, 3)));
+        customerJDBCDataAccessServiceUnderTest.updateCustomer(new Customer(customer.getId(), "New Name", null, null));
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomersVersionAfterId(after, 3)).isNotEqualTo(version);
+        assertThat(customerJDBCDataAccessServiceUnderTest.selectCustomersVersionAfterId(Long.MAX_VALUE, 3))
+                .isEqualTo(CustomerPage.version(List.of()));
+    }
+
     @Test
     void existsPersonReturnFalseWhenEmailIsNotPresent() {
         String randomEmail = FAKER.internet().safeEmailAddress()+UUID.randomUUID();
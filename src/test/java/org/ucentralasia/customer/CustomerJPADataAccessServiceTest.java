@@ -1,11 +1,23 @@
 package org.ucentralasia.customer;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.verify;
@@ -16,11 +28,13 @@ class CustomerJPADataAccessServiceTest {
     private AutoCloseable autoCloseable;
     @Mock
     private CustomerRespository customerRespository;
+    @Mock
+    private EntityManager entityManager;
 
     @BeforeEach
     void setUp() {
         autoCloseable = MockitoAnnotations.openMocks(this);
-        underTest = new CustomerJPADataAccessService(customerRespository);
+        underTest = new CustomerJPADataAccessService(customerRespository, entityManager);
     }
 
     @AfterEach
@@ -35,6 +49,37 @@ class CustomerJPADataAccessServiceTest {
         verify(customerRespository).findAll();
     }
 
+    @Test
+    void selectCustomersAfterId() {
+        underTest.selectCustomersAfterId(10L, 5);
+        verify(customerRespository).findByIdGreaterThanOrderByIdAsc(10L, Limit.of(5));
+    }
+
+    @Test
+    void searchCustomersRunsTheSharedNativeQuery() {
+        Query query = Mockito.mock(Query.class);
+        Customer customer = new Customer(1L, "Firuz", "firuz.azi@ga", 19);
+        CustomerSearch search = new CustomerSearch("firuz", null, 18, null, CustomerSearch.Sort.ID, null);
+        CustomerSearchQuery expected = CustomerSearchQuery.of(search, 5);
+        Mockito.when(entityManager.createNativeQuery(expected.sql(), Customer.class)).thenReturn(query);
+        Mockito.when(query.getResultList()).thenReturn(List.of(customer));
+
+        assertEquals(List.of(customer), underTest.searchCustomers(search, 5));
+        verify(query).setParameter(1, "firuz%");
+        verify(query).setParameter(2, 18);
+        verify(query).setParameter(3, 5);
+    }
+
+    @Test
+    void forEachCustomer() {
+        Customer customer = new Customer(1L, "Firuz", "firuz.azi@ga", 19);
+        Mockito.when(customerRespository.streamAllBy()).thenReturn(Stream.of(customer));
+        List<Customer> visited = new ArrayList<>();
+        underTest.forEachCustomer(visited::add);
+        assertEquals(List.of(customer), visited);
+        verify(entityManager).detach(customer);
+    }
+
     @Test
     void selectCustomerById() {
         long id = 1;
@@ -45,10 +90,54 @@ class CustomerJPADataAccessServiceTest {
     @Test
     void insertCustomer() {
         Customer c = new Customer((long) 1, "Firuz ", "Firuz Azizbekov",122 );
-        underTest.insertCustomer(c);
+        assertTrue(underTest.insertCustomer(c));
         verify(customerRespository).save(c);
     }
 
+    @Test
+    void insertCustomerReturnsFalseWhenEmailIsTaken() {
+        Customer c = new Customer("Firuz", "firuz.azi@ga", 19);
+        Mockito.when(customerRespository.save(c)).thenThrow(emailConflict());
+        assertFalse(underTest.insertCustomer(c));
+    }
+
+    @Test
+    void insertCustomers() {
+        List<Customer> customers = List.of(
+                new Customer("Firuz", "firuz.azi@ga", 19),
+                new Customer("Alex", "alex@ga", 20)
+        );
+        int[] updateCounts = underTest.insertCustomers(customers);
+        verify(customerRespository).saveAll(customers);
+        assertArrayEquals(new int[]{1, 1}, updateCounts);
+    }
+
+    @Test
+    void insertCustomersFallsBackToRowByRowOnAConcurrentDuplicate() {
+        Customer firuz = new Customer("Firuz", "firuz.azi@ga", 19);
+        Customer alex = new Customer("Alex", "alex@ga", 20);
+        List<Customer> customers = List.of(firuz, alex);
+        Mockito.when(customerRespository.saveAll(customers)).thenAnswer(invocation -> {
+            firuz.setId(1L);
+            alex.setId(2L);
+            throw emailConflict();
+        });
+        Mockito.when(customerRespository.save(alex)).thenThrow(emailConflict());
+
+        int[] updateCounts = underTest.insertCustomers(customers);
+
+        assertArrayEquals(new int[]{1, 0}, updateCounts);
+        verify(customerRespository).save(firuz);
+        assertNull(alex.getId());
+    }
+
+    @Test
+    void selectExistingEmails() {
+        Set<String> emails = Set.of("firuz.azi@ga");
+        underTest.selectExistingEmails(emails);
+        verify(customerRespository).findExistingEmails(emails);
+    }
+
     @Test
     void existsCustomerWithEmail() {
         underTest.existsCustomerWithEmail("firuz.azi@ga");
@@ -63,14 +152,64 @@ class CustomerJPADataAccessServiceTest {
 
     @Test
     void deleteCustomerById() {
-        underTest.deleteCustomerById((long)3);
-        verify(customerRespository).deleteById(3);
+        Customer customer = new Customer((long) 3, "Firuz", "Azizbekov", 19);
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.of(customer));
+        assertEquals(Optional.of(customer), underTest.deleteCustomerById((long)3));
+        verify(customerRespository).delete(customer);
+    }
+
+    @Test
+    void deleteCustomerByIdReturnsEmptyWhenMissing() {
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.empty());
+        assertTrue(underTest.deleteCustomerById((long)3).isEmpty());
+        verify(customerRespository, Mockito.never()).delete(Mockito.any());
     }
 
     @Test
     void updateCustomer() {
-        Customer customer = new Customer((long) 3,"Firuz", "Azizbekov", 19);
-        underTest.updateCustomer(customer);
-        verify(customerRespository).save(customer);
+        Customer stored = new Customer((long) 3, "Firuz", "Azizbekov", 19);
+        Customer saved = new Customer((long) 3, "Firuz", "Azizbekov", 20);
+        saved.setVersion(5L);
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.of(stored));
+        Mockito.when(customerRespository.save(stored)).thenReturn(saved);
+        Customer update = new Customer((long) 3, null, null, 20);
+        assertTrue(underTest.updateCustomer(update));
+        verify(customerRespository).save(new Customer((long) 3, "Firuz", "Azizbekov", 20));
+        assertEquals(5L, update.getVersion());
+    }
+
+    @Test
+    void updateCustomerReturnsFalseWhenVersionIsStale() {
+        Customer stored = new Customer((long) 3, "Firuz", "Azizbekov", 19);
+        stored.setVersion(5L);
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.of(stored));
+        Customer update = new Customer((long) 3, null, null, 20);
+        update.setVersion(4L);
+        assertFalse(underTest.updateCustomer(update));
+        verify(customerRespository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    void updateCustomerReturnsFalseWhenNothingChanged() {
+        Customer stored = new Customer((long) 3, "Firuz", "Azizbekov", 19);
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.of(stored));
+        assertFalse(underTest.updateCustomer(new Customer((long) 3, "Firuz", null, 19)));
+        verify(customerRespository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    void updateCustomerThrowsDuplicateKeyWhenEmailIsTaken() {
+        Customer stored = new Customer((long) 3, "Firuz", "Azizbekov", 19);
+        Mockito.when(customerRespository.findById(3)).thenReturn(Optional.of(stored));
+        Mockito.when(customerRespository.save(stored)).thenThrow(emailConflict());
+        assertThrows(DuplicateKeyException.class,
+                () -> underTest.updateCustomer(new Customer((long) 3, null, "taken@ga", null)));
+    }
+
+    private static DataIntegrityViolationException emailConflict() {
+        return new DataIntegrityViolationException(
+                "duplicate key",
+                new ConstraintViolationException("duplicate key", null, "customer_email_unique")
+        );
     }
 }
\ No newline at end of file
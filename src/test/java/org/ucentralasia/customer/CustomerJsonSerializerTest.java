@@ -0,0 +1,38 @@
+package org.ucentralasia.customer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerJsonSerializerTest {
+
+    private final ObjectMapper beanMapper = new ObjectMapper();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addSerializer(new CustomerJsonSerializer()));
+
+    @Test
+    void writesTheSameJsonAsTheBeanSerializer() throws Exception {
+        List<Customer> customers = List.of(
+                new Customer(1L, "Alex \"Sasha\" Smith", "alex@gmail.com", 19),
+                new Customer(2L, "Фируз", "firuz@mail.ru", 122),
+                new Customer("Bob", null, null));
+
+        String json = objectMapper.writeValueAsString(customers);
+
+        assertThat(json).isEqualTo(beanMapper.writeValueAsString(customers));
+        assertThat(json).startsWith("[{\"id\":1,\"name\":\"Alex \\\"Sasha\\\" Smith\",\"email\":\"alex@gmail.com\",\"age\":19}");
+    }
+
+    @Test
+    void readsBackIntoTheEntity() throws Exception {
+        Customer customer = new Customer(7L, "Alex", "alex@gmail.com", 31);
+
+        byte[] json = objectMapper.writeValueAsBytes(customer);
+
+        assertThat(objectMapper.readValue(json, Customer.class)).isEqualTo(customer);
+    }
+}
@@ -0,0 +1,133 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerR2dbcDataAccessServiceTest extends AbstractTestcontainersUnitTest {
+
+    private CustomerR2dbcDataAccessService underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new CustomerR2dbcDataAccessService(getDatabaseClient());
+    }
+
+    private Customer insert(Customer customer) {
+        StepVerifier.create(underTest.insertCustomer(customer)).expectNext(true).verifyComplete();
+        return customer;
+    }
+
+    @Test
+    void insertCustomerSetsGeneratedId() {
+        Customer customer = insert(randomCustomer());
+        assertThat(customer.getId()).isNotNull();
+
+        StepVerifier.create(underTest.selectCustomerById(customer.getId()))
+                .assertNext(found -> {
+                    assertThat(found.getId()).isEqualTo(customer.getId());
+                    assertThat(found.getEmail()).isEqualTo(customer.getEmail());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void insertCustomerReturnsFalseWhenEmailIsTaken() {
+        Customer customer = insert(randomCustomer());
+        Customer duplicate = new Customer("Other", customer.getEmail(), 30);
+
+        StepVerifier.create(underTest.insertCustomer(duplicate)).expectNext(false).verifyComplete();
+        assertThat(duplicate.getId()).isNull();
+    }
+
+    @Test
+    void selectCustomerByIdIsEmptyWhenMissing() {
+        StepVerifier.create(underTest.selectCustomerById(-1L)).verifyComplete();
+    }
+
+    @Test
+    void selectCustomersAfterId() {
+        for (int i = 0; i < 3; i++) {
+            insert(randomCustomer());
+        }
+        List<Customer> firstPage = underTest.selectCustomersAfterId(0L, 2).collectList().block();
+        assertThat(firstPage).hasSize(2);
+        assertThat(firstPage.get(0).getId()).isLessThan(firstPage.get(1).getId());
+
+        List<Customer> secondPage = underTest.selectCustomersAfterId(firstPage.get(1).getId(), 2).collectList().block();
+        assertThat(secondPage).isNotEmpty();
+        assertThat(secondPage.get(0).getId()).isGreaterThan(firstPage.get(1).getId());
+    }
+
+    @Test
+    void selectAllCustomersHonoursDemand() {
+        for (int i = 0; i < 3; i++) {
+            insert(randomCustomer());
+        }
+        StepVerifier.create(underTest.selectAllCustomers(), 2)
+                .expectNextCount(2)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void existsCustomerWithId() {
+        Customer customer = insert(randomCustomer());
+        StepVerifier.create(underTest.existsCustomerWithId(customer.getId())).expectNext(true).verifyComplete();
+        StepVerifier.create(underTest.existsCustomerWithId(-1L)).expectNext(false).verifyComplete();
+    }
+
+    @Test
+    void deleteCustomerByIdReturnsDeletedRow() {
+        Customer customer = insert(randomCustomer());
+
+        StepVerifier.create(underTest.deleteCustomerById(customer.getId()))
+                .assertNext(deleted -> assertThat(deleted.getEmail()).isEqualTo(customer.getEmail()))
+                .verifyComplete();
+        StepVerifier.create(underTest.deleteCustomerById(customer.getId())).verifyComplete();
+    }
+
+    @Test
+    void updateCustomer() {
+        Customer customer = insert(randomCustomer());
+
+        StepVerifier.create(underTest.updateCustomer(new Customer(customer.getId(), "Updated", null, 42)))
+                .expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(underTest.selectCustomerById(customer.getId()))
+                .assertNext(updated -> {
+                    assertThat(updated.getName()).isEqualTo("Updated");
+                    assertThat(updated.getEmail()).isEqualTo(customer.getEmail());
+                    assertThat(updated.getAge()).isEqualTo(42);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void updateCustomerReturnsFalseWithoutChanges() {
+        Customer customer = insert(randomCustomer());
+
+        StepVerifier.create(underTest.updateCustomer(new Customer(customer.getId(), customer.getName(), null, null)))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(underTest.updateCustomer(new Customer(-1L, "Nobody", null, null)))
+                .expectNext(false)
+                .verifyComplete();
+    }
+
+    @Test
+    void updateCustomerSignalsDuplicateKeyWhenEmailIsTaken() {
+        Customer first = insert(randomCustomer());
+        Customer second = insert(randomCustomer());
+
+        StepVerifier.create(underTest.updateCustomer(new Customer(second.getId(), null, first.getEmail(), null)))
+                .expectError(DuplicateKeyException.class)
+                .verify();
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
@@ -19,10 +21,14 @@ class CustomerRowMapperTest {
         when(rs.getString("name")).thenReturn("Firuz");
         when(rs.getString("email")).thenReturn("firuz.azi@ga");
         when(rs.getInt("age")).thenReturn(122);
+        when(rs.getLong("version")).thenReturn(3L);
+        when(rs.getTimestamp("updated_at")).thenReturn(Timestamp.from(Instant.parse("2024-01-01T10:15:30Z")));
         Customer customer = customerRowMapper.mapRow(rs, 1);
         assertEquals(1, customer.getId());
         assertEquals("Firuz", customer.getName());
         assertEquals("firuz.azi@ga", customer.getEmail());
         assertEquals(122, customer.getAge());
+        assertEquals(3L, customer.getVersion());
+        assertEquals(Instant.parse("2024-01-01T10:15:30Z"), customer.getUpdatedAt());
     }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package org.ucentralasia.customer;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks with EXPLAIN that every filter and sort combination of {@link CustomerSearchQuery} is served by an
+ * index. Runs on its own database with 100k generated rows and fresh statistics, so the planner makes the same
+ * choices it would on a real table instead of scanning a handful of test rows.
+ */
+@Testcontainers
+class CustomerSearchQueryPlanTest {
+
+    private static final int ROWS = 100_000;
+    // part of md5('4242'), the generated name of row 4242
+    private static final String NAME_FRAGMENT = "fe7ecc4de2";
+
+    @Container
+    private static final PostgreSQLContainer<?> postgreSQLContainer = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("plan")
+            .withUsername("plan")
+            .withPassword("plan");
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static long middleId;
+
+    @BeforeAll
+    static void loadCustomers() {
+        Flyway.configure()
+                .dataSource(postgreSQLContainer.getJdbcUrl(), postgreSQLContainer.getUsername(), postgreSQLContainer.getPassword())
+                .load()
+                .migrate();
+        dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(postgreSQLContainer.getJdbcUrl())
+                .username(postgreSQLContainer.getUsername())
+                .password(postgreSQLContainer.getPassword())
+                .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("""
+                INSERT INTO customer(name, email, age)
+                SELECT 'Customer ' || md5(g::text), 'user' || g || '@example.com', g % 100
+                FROM generate_series(1, ?) AS g
+                ON CONFLICT DO NOTHING
+                """, ROWS);
+        jdbcTemplate.execute("ANALYZE customer");
+        // ids step by the sequence increment, so take the real median as the cursor of a page in the middle
+        middleId = jdbcTemplate.queryForObject(
+                "SELECT percentile_disc(0.5) WITHIN GROUP (ORDER BY id) FROM customer", Long.class);
+    }
+
+    @AfterAll
+    static void closeDataSource() {
+        dataSource.close();
+    }
+
+    /**
+     * Each filter alone and all together, with every sort, on the first page and on a later one. The filter
+     * values are as selective as a support lookup would be.
+     */
+    static List<CustomerSearch> searches() {
+        assertThat(middleId).as("customers are loaded before the searches are built").isPositive();
+        List<CustomerSearch> searches = new ArrayList<>();
+        for (CustomerSearch.Sort sort : CustomerSearch.Sort.values()) {
+            for (CustomerSearch.Cursor after : new CustomerSearch.Cursor[]{
+                    null, new CustomerSearch.Cursor(sort.byAge() ? 30 : null, middleId)}) {
+                searches.add(new CustomerSearch(null, null, null, null, sort, after));
+                searches.add(new CustomerSearch("USER4242", null, null, null, sort, after));
+                searches.add(new CustomerSearch(null, NAME_FRAGMENT, null, null, sort, after));
+                searches.add(new CustomerSearch(null, null, 30, 31, sort, after));
+                searches.add(new CustomerSearch(null, null, 98, null, sort, after));
+                searches.add(new CustomerSearch(null, null, null, 1, sort, after));
+                searches.add(new CustomerSearch("user4242", NAME_FRAGMENT, 30, 60, sort, after));
+            }
+        }
+        return searches;
+    }
+
+    private static String explain(CustomerSearch search) {
+        CustomerSearchQuery query = CustomerSearchQuery.of(search, CustomerService.DEFAULT_PAGE_SIZE + 1);
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + query.sql(), String.class, query.args()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("searches")
+    void everySearchUsesAnIndex(CustomerSearch search) {
+        String plan = explain(search);
+
+        assertThat(plan).as(search.toString()).doesNotContain("Seq Scan").contains("Index");
+    }
+
+    /**
+     * Searches with a single text filter, which should be looked up in that filter's index rather than by
+     * walking another index and filtering.
+     */
+    static List<CustomerSearch> textSearches() {
+        return searches().stream()
+                .filter(search -> (search.emailPrefix() == null) != (search.name() == null))
+                .toList();
+    }
+
+    @ParameterizedTest
+    @MethodSource("textSearches")
+    void textFiltersUseTheirOwnIndex(CustomerSearch search) {
+        String plan = explain(search);
+
+        String index = search.emailPrefix() != null ? "customer_email_lower_pattern_idx" : "customer_name_trgm_idx";
+        assertThat(plan).as(search.toString()).contains(index);
+    }
+}
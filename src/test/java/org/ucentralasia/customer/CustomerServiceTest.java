@@ -6,18 +6,29 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.ConcurrentUpdateException;
 import org.ucentralasia.exception.DublicateResourceException;
+import org.ucentralasia.exception.PreconditionFailedException;
 import org.ucentralasia.exception.ResourseNotFoundException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,11 +40,21 @@ import static org.mockito.Mockito.when;
 class CustomerServiceTest {
     @Mock
     private CustomerDao customerDao;
+    @Mock
+    private CustomerEmailFilter customerEmailFilter;
+    @Mock
+    private CustomerStatistics customerStatistics;
+    @Mock
+    private CustomerWriteBehindQueue writeBehindQueue;
+    @Mock
+    private CustomerChangeFeed customerChangeFeed;
+    @Mock
+    private CustomerEventBus customerEventBus;
     private CustomerService customerServiceUnderTest;
 
     @BeforeEach
     void setUp() {
-        customerServiceUnderTest = new CustomerService(customerDao);
+        customerServiceUnderTest = new CustomerService(customerDao, customerEmailFilter, customerStatistics, writeBehindQueue, customerChangeFeed, customerEventBus, 2, 2);
     }
 
     @Test
@@ -42,6 +63,132 @@ class CustomerServiceTest {
         verify(customerDao).selectAllCustomers();
     }
 
+    @Test
+    void getCustomersReturnsNextCursorWhenMoreRowsExist() {
+        List<Customer> customers = List.of(
+                new Customer(1L, "Alex", "alex@gmail.com", 19),
+                new Customer(2L, "Bob", "bob@gmail.com", 20),
+                new Customer(3L, "Carl", "carl@gmail.com", 21)
+        );
+        when(customerDao.selectCustomersAfterId(0L, 3)).thenReturn(customers);
+        CustomerPage page = customerServiceUnderTest.getCustomers(null, 2);
+        assertThat(page.customers()).containsExactly(customers.get(0), customers.get(1));
+        assertThat(page.nextCursor()).isEqualTo(2L);
+        // the row that only tells whether there is a next page is part of the version too
+        assertThat(page.version()).isEqualTo(CustomerPage.version(customers));
+    }
+
+    @Test
+    void rejectsANonPositiveBulkChunkSize() {
+        assertThatThrownBy(() -> new CustomerService(customerDao, customerEmailFilter, customerStatistics,
+                writeBehindQueue, customerChangeFeed, customerEventBus, 0, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("customer.bulk.chunk-size");
+    }
+
+    @Test
+    void getCustomersWithoutPagingParametersReturnsEveryCustomer() {
+        List<Customer> customers = List.of(
+                new Customer(1L, "Alex", "alex@gmail.com", 19),
+                new Customer(2L, "Bob", "bob@gmail.com", 20)
+        );
+        when(customerDao.selectCustomersAfterId(0L, Integer.MAX_VALUE)).thenReturn(customers);
+        when(customerDao.selectCustomersVersionAfterId(0L, Integer.MAX_VALUE)).thenReturn("digest");
+
+        CustomerPage page = customerServiceUnderTest.getCustomers(null, null);
+
+        assertThat(page.customers()).containsExactlyElementsOf(customers);
+        assertThat(page.nextCursor()).isNull();
+        assertThat(page.version()).isEqualTo(CustomerPage.version(customers));
+        assertThat(customerServiceUnderTest.getCustomersVersion(null, null)).isEqualTo("digest");
+    }
+
+    @Test
+    void getCustomersVersionCoversTheSameRowsAsThePage() {
+        when(customerDao.selectCustomersVersionAfterId(4L, 3)).thenReturn("digest");
+        assertThat(customerServiceUnderTest.getCustomersVersion(4L, 2)).isEqualTo("digest");
+    }
+
+    @Test
+    void willThrowWhenCustomerVersionNotFound() {
+        when(customerDao.selectCustomerVersionById(-1L)).thenReturn(Optional.empty());
+        assertThatThrownBy(() -> customerServiceUnderTest.getCustomerVersion(-1L))
+                .isInstanceOf(ResourseNotFoundException.class)
+                .hasMessage("Customer with id [-1] doesnt exist.");
+    }
+
+    @Test
+    void getCustomersReturnsNoCursorOnLastPage() {
+        List<Customer> customers = List.of(new Customer(5L, "Alex", "alex@gmail.com", 19));
+        when(customerDao.selectCustomersAfterId(4L, CustomerService.DEFAULT_PAGE_SIZE + 1)).thenReturn(customers);
+        CustomerPage page = customerServiceUnderTest.getCustomers(4L, null);
+        assertThat(page.customers()).containsExactly(customers.get(0));
+        assertThat(page.nextCursor()).isNull();
+    }
+
+    @Test
+    void willThrowWhenPageSizeIsOutOfRange() {
+        assertThatThrownBy(() -> customerServiceUnderTest.getCustomers(null, CustomerService.MAX_PAGE_SIZE + 1))
+                .isInstanceOf(RequestValidationException.class);
+        assertThatThrownBy(() -> customerServiceUnderTest.getCustomers(null, 0))
+                .isInstanceOf(RequestValidationException.class);
+        verify(customerDao, never()).selectCustomersAfterId(any(), anyInt());
+    }
+
+    @Test
+    void searchCustomersReturnsAgeCursorWhenSortedByAge() {
+        List<Customer> customers = List.of(
+                new Customer(7L, "Alex", "alex@gmail.com", 19),
+                new Customer(3L, "Alexandra", "alexandra@gmail.com", 25),
+                new Customer(9L, "Alexis", "alexis@gmail.com", 30)
+        );
+        CustomerSearch expected = new CustomerSearch("ALEX", "ale", 18, 40, CustomerSearch.Sort.AGE,
+                new CustomerSearch.Cursor(18, 12L));
+        when(customerDao.searchCustomers(expected, 3)).thenReturn(customers);
+
+        CustomerSearchPage page = customerServiceUnderTest.searchCustomers(
+                new CustomerSearchRequest("ALEX", " ale ", 18, 40, "age", "18:12", 2));
+
+        assertThat(page.customers()).containsExactly(customers.get(0), customers.get(1));
+        assertThat(page.nextCursor()).isEqualTo("25:3");
+    }
+
+    @Test
+    void searchCustomersDefaultsToIdOrderWithoutFilters() {
+        CustomerSearch expected = new CustomerSearch(null, null, null, null, CustomerSearch.Sort.ID, null);
+        when(customerDao.searchCustomers(expected, CustomerService.DEFAULT_PAGE_SIZE + 1)).thenReturn(List.of());
+
+        CustomerSearchPage page = customerServiceUnderTest.searchCustomers(
+                new CustomerSearchRequest("", null, null, null, null, null, null));
+
+        assertThat(page.customers()).isEmpty();
+        assertThat(page.nextCursor()).isNull();
+    }
+
+    @Test
+    void willThrowWhenSearchIsInvalid() {
+        List<CustomerSearchRequest> invalid = List.of(
+                new CustomerSearchRequest(null, "al", null, null, null, null, null),
+                new CustomerSearchRequest(null, null, 40, 18, null, null, null),
+                new CustomerSearchRequest(null, null, null, null, "name", null, null),
+                new CustomerSearchRequest(null, null, null, null, "age", "12", null),
+                new CustomerSearchRequest(null, null, null, null, "-id", "abc", null),
+                new CustomerSearchRequest(null, null, null, null, null, null, CustomerService.MAX_PAGE_SIZE + 1)
+        );
+        for (CustomerSearchRequest request : invalid) {
+            assertThatThrownBy(() -> customerServiceUnderTest.searchCustomers(request))
+                    .isInstanceOf(RequestValidationException.class);
+        }
+        verify(customerDao, never()).searchCustomers(any(), anyInt());
+    }
+
+    @Test
+    void exportCustomers() {
+        Consumer<Customer> action = customer -> {};
+        customerServiceUnderTest.exportCustomers(action);
+        verify(customerDao).forEachCustomer(action);
+    }
+
     @Test
     void canGetCustomer() {
         long id = 3;
@@ -65,7 +212,7 @@ class CustomerServiceTest {
     void addCustomer() {
         long id = 10;
         String email = "alex@gmail.com";
-        when(customerDao.existsCustomerWithEmail(email)).thenReturn(false);
+        when(customerDao.insertCustomer(any())).thenReturn(true);
         CustomerRegistrationRequest request = new CustomerRegistrationRequest(
                 "Alex",
                 email,
@@ -80,12 +227,13 @@ class CustomerServiceTest {
         assertThat(capturedCustomer.getName()).isEqualTo(request.name());
         assertThat(capturedCustomer.getEmail()).isEqualTo(request.email());
         assertThat(capturedCustomer.getAge()).isEqualTo(request.age());
+        verify(customerStatistics).recordInsert(capturedCustomer);
     }
     @Test
     void willThrowWhenEmailExistsWhileAddingACustomer() {
         long id = 10;
         String email = "alex@gmail.com";
-        when(customerDao.existsCustomerWithEmail(email)).thenReturn(true);
+        when(customerDao.insertCustomer(any())).thenReturn(false);
         CustomerRegistrationRequest request = new CustomerRegistrationRequest(
                 "Alex",
                 email,
@@ -96,39 +244,121 @@ class CustomerServiceTest {
                 .hasMessageContaining(
                         "Customer with email [%s] already exists.".formatted(email)
                 );
-        verify(customerDao, never()).insertCustomer(any());
+        verify(customerDao, never()).existsCustomerWithEmail(any());
+    }
+
+    @Test
+    void addCustomersReportsOutcomePerRow() {
+        List<CustomerRegistrationRequest> requests = List.of(
+                new CustomerRegistrationRequest("Alex", "alex@gmail.com", 19),
+                new CustomerRegistrationRequest("Bob", "taken@gmail.com", 20),
+                new CustomerRegistrationRequest("Dan", "dan@gmail.com", 22),
+                new CustomerRegistrationRequest("Dan Again", "dan@gmail.com", 23),
+                new CustomerRegistrationRequest("Carl", null, 21)
+        );
+        when(customerEmailFilter.mightExist(any())).thenReturn(true);
+        when(customerDao.selectExistingEmails(Set.of("alex@gmail.com", "taken@gmail.com"))).thenReturn(Set.of("taken@gmail.com"));
+        when(customerDao.selectExistingEmails(Set.of("dan@gmail.com"))).thenReturn(Set.of());
+        when(customerDao.insertCustomers(anyList())).thenReturn(new int[]{1});
+
+        List<CustomerRegistrationResult> results = customerServiceUnderTest.addCustomers(requests);
+
+        assertThat(results).extracting(CustomerRegistrationResult::status).containsExactly(
+                CustomerRegistrationResult.Status.CREATED,
+                CustomerRegistrationResult.Status.DUPLICATE,
+                CustomerRegistrationResult.Status.CREATED,
+                CustomerRegistrationResult.Status.DUPLICATE,
+                CustomerRegistrationResult.Status.INVALID
+        );
+        assertThat(results).extracting(CustomerRegistrationResult::index).containsExactly(0, 1, 2, 3, 4);
+        // chunk size is 2; the last chunk only holds the invalid row and never reaches the database
+        verify(customerDao, times(2)).insertCustomers(anyList());
+        verify(customerDao, times(2)).selectExistingEmails(any());
+    }
+
+    @Test
+    void addCustomersReportsDuplicateWhenEmailIsTakenConcurrently() {
+        List<CustomerRegistrationRequest> requests = List.of(
+                new CustomerRegistrationRequest("Alex", "alex@gmail.com", 19),
+                new CustomerRegistrationRequest("Bob", "bob@gmail.com", 20)
+        );
+        when(customerEmailFilter.mightExist(any())).thenReturn(true);
+        when(customerDao.selectExistingEmails(any())).thenReturn(Set.of());
+        when(customerDao.insertCustomers(anyList())).thenReturn(new int[]{1, 0});
+
+        List<CustomerRegistrationResult> results = customerServiceUnderTest.addCustomers(requests);
+
+        assertThat(results).extracting(CustomerRegistrationResult::status).containsExactly(
+                CustomerRegistrationResult.Status.CREATED,
+                CustomerRegistrationResult.Status.DUPLICATE
+        );
+    }
+
+    @Test
+    void addCustomersSkipsLookupForEmailsTheFilterHasNotSeen() {
+        List<CustomerRegistrationRequest> requests = List.of(
+                new CustomerRegistrationRequest("Alex", "alex@gmail.com", 19),
+                new CustomerRegistrationRequest("Bob", "bob@gmail.com", 20)
+        );
+        when(customerEmailFilter.mightExist(any())).thenReturn(false);
+        when(customerDao.insertCustomers(anyList())).thenReturn(new int[]{1, 1});
+
+        List<CustomerRegistrationResult> results = customerServiceUnderTest.addCustomers(requests);
+
+        assertThat(results).extracting(CustomerRegistrationResult::status).containsOnly(
+                CustomerRegistrationResult.Status.CREATED
+        );
+        verify(customerDao, never()).selectExistingEmails(any());
+        verify(customerEmailFilter).add("alex@gmail.com");
+        verify(customerEmailFilter).add("bob@gmail.com");
     }
 
     @Test
     void deleteCustomer() {
         long id = 3;
-        when(customerDao.existsCustomerWithId(id)).thenReturn(true);
+        when(customerDao.deleteCustomerById(id)).thenReturn(Optional.of(new Customer(id, "Alex", "alex@gmail.com", 19)));
         customerServiceUnderTest.deleteCustomer(id);
         verify(customerDao).deleteCustomerById(id);
+        verify(customerDao, never()).existsCustomerWithId(any());
+        verify(customerStatistics).recordDelete(new Customer(id, "Alex", "alex@gmail.com", 19));
+        verify(customerEventBus).publish(CustomerChange.Type.DELETED, new Customer(id, "Alex", "alex@gmail.com", 19));
+    }
+
+    @Test
+    void getStatisticsDefaultsToTenDomains() {
+        customerServiceUnderTest.getStatistics(null);
+        verify(customerStatistics).stats(10);
+    }
+
+    @Test
+    void willThrowWhenStatisticsDomainLimitIsOutOfRange() {
+        assertThatThrownBy(() -> customerServiceUnderTest.getStatistics(-1))
+                .isInstanceOf(RequestValidationException.class)
+                .hasMessage("domains must be between 0 and 1000.");
+        verifyNoInteractions(customerStatistics);
     }
 
     @Test
     void ThrowsErrorWhenCustomerNotFound() {
         long id = -1;
-        when(customerDao.existsCustomerWithId(id)).thenReturn(false);
+        when(customerDao.deleteCustomerById(id)).thenReturn(Optional.empty());
         assertThatThrownBy(() -> customerServiceUnderTest.deleteCustomer(id))
                 .isInstanceOf(ResourseNotFoundException.class)
                 .hasMessageContaining(
                         "Customer with id [%s] not found".formatted(id)
                 );
-        verify(customerDao, never()).deleteCustomerById(any());
     }
 
     @Test
     void canUpdateAllCustomerProperties() {
         long id = 2;
-        Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 "Alexandr",
                 "alexandr@gmail.com",
                 23);
-        when(customerDao.existsCustomerWithEmail(request.email())).thenReturn(false);
+        Customer before = new Customer(id, "Alex", "alex@gmail.com", 19);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(before));
+        when(customerDao.updateCustomer(any())).thenReturn(true);
         customerServiceUnderTest.updateCustomer(id, request);
         ArgumentCaptor<Customer> argumentCaptor = ArgumentCaptor.forClass(Customer.class);
         verify(customerDao).updateCustomer(argumentCaptor.capture());
@@ -137,67 +367,69 @@ class CustomerServiceTest {
         assertThat(capturedCustomer.getName()).isEqualTo(request.name());
         assertThat(capturedCustomer.getEmail()).isEqualTo(request.email());
         assertThat(capturedCustomer.getAge()).isEqualTo(request.age());
+        verify(customerDao, never()).existsCustomerWithEmail(any());
+        verify(customerStatistics).recordUpdate(before, capturedCustomer);
     }
     @Test
     void canOnlyCustomerName() {
         long id = 2;
-        Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 "Alexandr",
                 null,
                 null);
+        when(customerDao.updateCustomer(any())).thenReturn(true);
         customerServiceUnderTest.updateCustomer(id, request);
         ArgumentCaptor<Customer> argumentCaptor = ArgumentCaptor.forClass(Customer.class);
         verify(customerDao).updateCustomer(argumentCaptor.capture());
         Customer capturedCustomer = argumentCaptor.getValue();
         assertThat(capturedCustomer.getId()).isEqualTo(id);
         assertThat(capturedCustomer.getName()).isEqualTo(request.name());
-        assertThat(capturedCustomer.getEmail()).isEqualTo(customer.getEmail());
-        assertThat(capturedCustomer.getAge()).isEqualTo(customer.getAge());
+        assertThat(capturedCustomer.getEmail()).isNull();
+        assertThat(capturedCustomer.getAge()).isNull();
+        // a new name does not move the customer in the statistics
+        verify(customerDao, never()).selectCustomerById(any());
+        verify(customerStatistics, never()).recordUpdate(any(), any());
     }
     @Test
     void canUpdateEmail() {
         long id = 2;
-        Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 null,
                 "alexandr@gmail.com",
                 null);
-        when(customerDao.existsCustomerWithEmail(request.email())).thenReturn(false);
+        when(customerDao.updateCustomer(any())).thenReturn(true);
         customerServiceUnderTest.updateCustomer(id, request);
         ArgumentCaptor<Customer> argumentCaptor = ArgumentCaptor.forClass(Customer.class);
         verify(customerDao).updateCustomer(argumentCaptor.capture());
         Customer capturedCustomer = argumentCaptor.getValue();
         assertThat(capturedCustomer.getId()).isEqualTo(id);
-        assertThat(capturedCustomer.getName()).isEqualTo(customer.getName());
+        assertThat(capturedCustomer.getName()).isNull();
         assertThat(capturedCustomer.getEmail()).isEqualTo(request.email());
-        assertThat(capturedCustomer.getAge()).isEqualTo(customer.getAge());
+        assertThat(capturedCustomer.getAge()).isNull();
     }
     @Test
     void canUpdateAge() {
         long id = 2;
-        Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 null,
                 null,
                 22);
+        when(customerDao.updateCustomer(any())).thenReturn(true);
         customerServiceUnderTest.updateCustomer(id, request);
         ArgumentCaptor<Customer> argumentCaptor = ArgumentCaptor.forClass(Customer.class);
         verify(customerDao).updateCustomer(argumentCaptor.capture());
         Customer capturedCustomer = argumentCaptor.getValue();
         assertThat(capturedCustomer.getId()).isEqualTo(id);
-        assertThat(capturedCustomer.getName()).isEqualTo(customer.getName());
-        assertThat(capturedCustomer.getEmail()).isEqualTo(customer.getEmail());
+        assertThat(capturedCustomer.getName()).isNull();
+        assertThat(capturedCustomer.getEmail()).isNull();
         assertThat(capturedCustomer.getAge()).isEqualTo(request.age());
     }
     @Test
     void ThrowsErrorWhenNoChangesDetected() {
         long id = 2;
         Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
+        when(customerDao.updateCustomer(any())).thenReturn(false);
+        when(customerDao.existsCustomerWithId(id)).thenReturn(true);
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 customer.getName(),
                 customer.getEmail(),
@@ -207,25 +439,231 @@ class CustomerServiceTest {
                 .hasMessageContaining(
                         "No changes provided."
                 );
+    }
+
+    @Test
+    void ThrowsErrorWhenUpdateRequestIsEmpty() {
+        long id = 2;
+        CustomerUpdateRequest request = new CustomerUpdateRequest(null, null, null);
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, request))
+                .isInstanceOf(RequestValidationException.class)
+                .hasMessageContaining(
+                        "No changes provided."
+                );
         verify(customerDao, never()).updateCustomer(any());
     }
 
+    @Test
+    void willThrowWhenUpdatingMissingCustomer() {
+        long id = -1;
+        when(customerDao.updateCustomer(any())).thenReturn(false);
+        when(customerDao.existsCustomerWithId(id)).thenReturn(false);
+        CustomerUpdateRequest request = new CustomerUpdateRequest("Alexandr", null, null);
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, request))
+                .isInstanceOf(ResourseNotFoundException.class)
+                .hasMessageContaining(
+                        "Customer with id [%s] doesnt exist.".formatted(id)
+                );
+    }
+
     @Test
     void willThrowWhenTryingToUpdateCustomerEmailWhenAlreadyTaken() {
         long id = 2;
-        Customer customer = new Customer(id, "Alex", "alex@gmail.com", 19);
-        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(customer));
         CustomerUpdateRequest request = new CustomerUpdateRequest(
                 "Alexandr",
                 "alex1@gmail.com",
                 23);
-        when(customerDao.existsCustomerWithEmail(request.email())).thenReturn(true);
-//        customerServiceUnderTest.updateCustomer(id, request);
+        when(customerDao.updateCustomer(any())).thenThrow(new DuplicateKeyException("customer_email_unique"));
         assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, request))
                 .isInstanceOf(DublicateResourceException.class)
                 .hasMessage(
                         "email already taken"
                 );
+        verify(customerDao, never()).existsCustomerWithEmail(any());
+    }
+
+    @Test
+    void updateWithIfMatchIsConditionalOnThatVersion() {
+        long id = 2;
+        when(customerDao.updateCustomer(any())).thenAnswer(invocation -> {
+            Customer update = invocation.getArgument(0);
+            assertThat(update.getVersion()).isEqualTo(7L);
+            update.setVersion(8L);
+            return true;
+        });
+
+        Long version = customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alexandr", null, null), 7L);
+
+        assertThat(version).isEqualTo(8L);
+    }
+
+    @Test
+    void willThrowPreconditionFailedWhenIfMatchIsStale() {
+        long id = 2;
+        when(customerDao.updateCustomer(any())).thenReturn(false);
+        when(customerDao.selectCustomerVersionById(id)).thenReturn(Optional.of(new CustomerVersion(id, 8, Instant.now())));
+
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alexandr", null, null), 7L))
+                .isInstanceOf(PreconditionFailedException.class)
+                .hasMessage("Customer with id [2] is no longer at version 7.");
+        verify(customerDao, times(1)).updateCustomer(any());
+    }
+
+    @Test
+    void willThrowPreconditionFailedWhenTheBackendDetectsTheConflict() {
+        long id = 2;
+        when(customerDao.updateCustomer(any())).thenThrow(new ObjectOptimisticLockingFailureException(Customer.class, id));
+
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alexandr", null, null), 7L))
+                .isInstanceOf(PreconditionFailedException.class);
+    }
+
+    @Test
+    void ThrowsErrorWhenIfMatchIsCurrentButNothingChanged() {
+        long id = 2;
+        when(customerDao.updateCustomer(any())).thenReturn(false);
+        when(customerDao.selectCustomerVersionById(id)).thenReturn(Optional.of(new CustomerVersion(id, 7, Instant.now())));
+
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alex", null, null), 7L))
+                .isInstanceOf(RequestValidationException.class)
+                .hasMessage("No changes provided.");
+    }
+
+    @Test
+    void updateIsRetriedWhenTheRowChangesBetweenReadAndWrite() {
+        long id = 2;
+        Customer stale = new Customer(id, "Alex", "alex@gmail.com", 19);
+        stale.setVersion(3L);
+        Customer current = new Customer(id, "Alex", "alex@gmail.com", 45);
+        current.setVersion(4L);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stale), Optional.of(current));
+        when(customerDao.updateCustomer(any())).thenAnswer(invocation -> {
+            Customer update = invocation.getArgument(0);
+            return update.getVersion() == 4L;
+        });
+        when(customerDao.selectCustomerVersionById(id)).thenReturn(Optional.of(new CustomerVersion(id, 4, Instant.now())));
+
+        customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest(null, null, 20));
+
+        verify(customerDao, times(2)).updateCustomer(any());
+        // only the row that was really replaced is taken out of the statistics
+        verify(customerStatistics).recordUpdate(eq(current), any());
+        verify(customerStatistics, never()).recordUpdate(eq(stale), any());
+    }
+
+    @Test
+    void willThrowConflictWhenRetriesAreExhausted() {
+        long id = 2;
+        Customer stale = new Customer(id, "Alex", "alex@gmail.com", 19);
+        stale.setVersion(3L);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stale));
+        when(customerDao.updateCustomer(any())).thenReturn(false);
+        when(customerDao.selectCustomerVersionById(id)).thenReturn(Optional.of(new CustomerVersion(id, 4, Instant.now())));
+
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest(null, null, 20)))
+                .isInstanceOf(ConcurrentUpdateException.class);
+        // the first attempt and two retries
+        verify(customerDao, times(3)).updateCustomer(any());
+        verifyNoInteractions(customerStatistics);
+    }
+
+    @Test
+    void queuesNameAndAgeChangesWhenWriteBehindIsEnabled() {
+        long id = 2;
+        Customer stored = new Customer(id, "Alex", "alex@gmail.com", 19);
+        stored.setVersion(3L);
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(writeBehindQueue.flushCount()).thenReturn(7L);
+        when(writeBehindQueue.enqueue(any(), eq(7L))).thenReturn(true);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stored));
+
+        Long version = customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alexandr", null, 20));
+
+        assertThat(version).isNull();
+        ArgumentCaptor<Customer> captor = ArgumentCaptor.forClass(Customer.class);
+        verify(writeBehindQueue).enqueue(captor.capture(), eq(7L));
+        assertThat(captor.getValue()).isEqualTo(new Customer(id, "Alexandr", null, 20));
+        assertThat(captor.getValue().getVersion()).isEqualTo(3);
+        verify(customerStatistics).recordUpdate(stored, captor.getValue());
+        verify(customerEventBus).publish(CustomerChange.Type.UPDATED, captor.getValue());
         verify(customerDao, never()).updateCustomer(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void queuedUpdateWithoutChangesIsRejected() {
+        long id = 2;
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(new Customer(id, "Alex", "alex@gmail.com", 19)));
+
+        assertThatThrownBy(() -> customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest("Alex", null, 19)))
+                .isInstanceOf(RequestValidationException.class)
+                .hasMessage("No changes provided.");
+        verify(writeBehindQueue, never()).enqueue(any(), anyLong());
+    }
+
+    @Test
+    void refusedQueuedUpdateIsWrittenDirectly() {
+        long id = 2;
+        Customer stored = new Customer(id, "Alex", "alex@gmail.com", 19);
+        stored.setVersion(3L);
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(writeBehindQueue.enqueue(any(), anyLong())).thenReturn(false);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stored));
+        when(customerDao.updateCustomer(any())).thenReturn(true);
+
+        customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest(null, null, 20));
+
+        verify(customerDao).updateCustomer(new Customer(id, null, null, 20));
+        verify(customerStatistics).recordUpdate(eq(stored), any());
+        verify(customerEventBus).publish(eq(CustomerChange.Type.UPDATED), any());
+    }
+
+    @Test
+    void emailChangeFlushesQueuedChangesBeforeWritingDirectly() {
+        long id = 2;
+        Customer stored = new Customer(id, "Alex", "alex@gmail.com", 19);
+        stored.setVersion(3L);
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(writeBehindQueue.isPending(id)).thenReturn(true);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stored));
+        when(customerDao.updateCustomer(any())).thenReturn(true);
+
+        customerServiceUnderTest.updateCustomer(id, new CustomerUpdateRequest(null, "alex@mail.ru", null));
+
+        InOrder inOrder = inOrder(writeBehindQueue, customerDao);
+        inOrder.verify(writeBehindQueue).flush();
+        inOrder.verify(customerDao).updateCustomer(any());
+        verify(writeBehindQueue, never()).enqueue(any(), anyLong());
+    }
+
+    @Test
+    void getCustomerIncludesQueuedChangesWithoutVersion() {
+        long id = 2;
+        Customer stored = new Customer(id, "Alex", "alex@gmail.com", 19);
+        Customer pending = new Customer(id, "Alex", "alex@gmail.com", 20);
+        when(customerDao.selectCustomerById(id)).thenReturn(Optional.of(stored));
+        when(writeBehindQueue.isPending(id)).thenReturn(true);
+        when(writeBehindQueue.overlay(stored)).thenReturn(pending);
+
+        assertThat(customerServiceUnderTest.getCustomer(id)).isSameAs(pending);
+        assertThat(customerServiceUnderTest.getCustomerVersion(id)).isNull();
+        verify(customerDao, never()).selectCustomerVersionById(id);
+    }
+
+    @Test
+    void getChangesPassesTheFeedAValidatedRequest() {
+        CompletableFuture<CustomerChangePage> page = CompletableFuture.completedFuture(new CustomerChangePage(List.of(), 0));
+        when(customerChangeFeed.changesAfter(0, CustomerService.DEFAULT_PAGE_SIZE, Duration.ZERO)).thenReturn(page);
+
+        assertThat(customerServiceUnderTest.getChanges(null, null, null)).isSameAs(page);
+    }
+
+    @Test
+    void getChangesRejectsWaitsBeyondTheMaximum() {
+        assertThatThrownBy(() -> customerServiceUnderTest.getChanges(5L, 10, 61))
+                .isInstanceOf(RequestValidationException.class);
+        assertThatThrownBy(() -> customerServiceUnderTest.getChanges(-1L, 10, 0))
+                .isInstanceOf(RequestValidationException.class);
+        verifyNoInteractions(customerChangeFeed);
+    }
+}
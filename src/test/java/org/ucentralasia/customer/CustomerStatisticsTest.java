@@ -0,0 +1,129 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerStatisticsTest extends AbstractTestcontainersUnitTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private JdbcTemplate jdbcTemplate;
+    private CustomerStatistics customerStatisticsUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = getJdbcTemplate();
+        customerStatisticsUnderTest = new CustomerStatistics(
+                jdbcTemplate,
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+                meterRegistry,
+                Duration.ofMinutes(5)
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        customerStatisticsUnderTest.destroy();
+    }
+
+    @Test
+    void recordsInsertsAndDeletes() {
+        Customer alex = new Customer("Alex", "alex@Gmail.com", 19);
+        customerStatisticsUnderTest.recordInsert(alex);
+        customerStatisticsUnderTest.recordInsert(new Customer("Bob", "bob@gmail.com", 104));
+        customerStatisticsUnderTest.recordInsert(new Customer("Carl", "carl@mail.ru", 25));
+        customerStatisticsUnderTest.recordDelete(alex);
+
+        CustomerStats stats = customerStatisticsUnderTest.stats(10);
+
+        assertThat(stats.total()).isEqualTo(2);
+        assertThat(stats.ageHistogram()).hasSize(11)
+                .containsEntry("10-19", 0L)
+                .containsEntry("20-29", 1L)
+                .containsEntry("100+", 1L);
+        assertThat(stats.emailDomains()).containsExactly(
+                Map.entry("gmail.com", 1L),
+                Map.entry("mail.ru", 1L));
+        assertThat(stats.distinctEmailDomains()).isEqualTo(2);
+        assertThat(stats.reconciledAt()).isNull();
+    }
+
+    @Test
+    void updateMovesCustomerBetweenBuckets() {
+        Customer before = new Customer(1L, "Alex", "alex@gmail.com", 19);
+        customerStatisticsUnderTest.recordInsert(before);
+
+        customerStatisticsUnderTest.recordUpdate(before, new Customer(1L, null, "alex@mail.ru", null));
+        customerStatisticsUnderTest.recordUpdate(
+                new Customer(1L, "Alex", "alex@mail.ru", 19), new Customer(1L, "Alexandr", null, 42));
+
+        CustomerStats stats = customerStatisticsUnderTest.stats(10);
+        assertThat(stats.total()).isEqualTo(1);
+        assertThat(stats.ageHistogram()).containsEntry("10-19", 0L).containsEntry("40-49", 1L);
+        assertThat(stats.emailDomains()).containsOnlyKeys("mail.ru");
+    }
+
+    @Test
+    void domainsAreOrderedByCountAndLimited() {
+        for (String email : List.of("a@b.com", "b@b.com", "c@c.com", "d@a.com", "e@a.com")) {
+            customerStatisticsUnderTest.recordInsert(new Customer("Name", email, 30));
+        }
+
+        CustomerStats stats = customerStatisticsUnderTest.stats(2);
+
+        assertThat(stats.emailDomains()).containsExactly(
+                Map.entry("a.com", 2L),
+                Map.entry("b.com", 2L));
+        assertThat(stats.distinctEmailDomains()).isEqualTo(3);
+    }
+
+    @Test
+    void statsAreCachedUntilTheNextWrite() {
+        customerStatisticsUnderTest.recordInsert(new Customer("Alex", "alex@gmail.com", 19));
+        CustomerStats first = customerStatisticsUnderTest.stats(10);
+
+        assertThat(customerStatisticsUnderTest.stats(10).ageHistogram()).isSameAs(first.ageHistogram());
+
+        customerStatisticsUnderTest.recordInsert(new Customer("Bob", "bob@gmail.com", 19));
+        assertThat(customerStatisticsUnderTest.stats(10).total()).isEqualTo(2);
+    }
+
+    @Test
+    void emailDomainMatchesTheRecountQuery() {
+        assertThat(CustomerStatistics.emailDomain("a@b@Example.COM")).isEqualTo("example.com");
+        assertThat(CustomerStatistics.emailDomain("no-domain")).isEmpty();
+        assertThat(CustomerStatistics.ageBucket(-1)).isZero();
+        assertThat(CustomerStatistics.ageBucket(99)).isEqualTo(9);
+        assertThat(CustomerStatistics.ageBucket(150)).isEqualTo(10);
+    }
+
+    @Test
+    void reconcileReplacesDriftedCountsWithTheTable() {
+        String domain = "stats-" + UUID.randomUUID() + ".example.com";
+        jdbcTemplate.update("INSERT INTO customer(name, email, age) VALUES (?, ?, ?), (?, ?, ?)",
+                "Alex", "alex@" + domain, 19, "Bob", "bob@" + domain.toUpperCase(), 57);
+        // a write this node never saw, and one it recorded that is not in the table
+        customerStatisticsUnderTest.recordInsert(new Customer("Ghost", "ghost@" + domain, 33));
+
+        customerStatisticsUnderTest.reconcile();
+
+        Long total = jdbcTemplate.queryForObject("SELECT count(*) FROM customer", Long.class);
+        CustomerStats stats = customerStatisticsUnderTest.stats(Integer.MAX_VALUE);
+        assertThat(stats.total()).isEqualTo(total);
+        assertThat(stats.ageHistogram().values().stream().mapToLong(Long::longValue).sum()).isEqualTo(total);
+        assertThat(stats.emailDomains()).containsEntry(domain, 2L);
+        assertThat(stats.reconciledAt()).isNotNull();
+        assertThat(meterRegistry.get(CustomerStatistics.DRIFT).gauge().value()).isEqualTo(1 - total);
+    }
+}
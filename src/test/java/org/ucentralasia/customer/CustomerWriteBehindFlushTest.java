@@ -0,0 +1,55 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The write-behind flush against a real row, where another writer can move the version on under a queued update.
+ */
+class CustomerWriteBehindFlushTest extends AbstractTestcontainersUnitTest {
+
+    @TempDir
+    private Path journalDirectory;
+    private CustomerJDBCDataAccessService customerDao;
+    private CustomerWriteBehindQueue writeBehindQueueUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        customerDao = new CustomerJDBCDataAccessService(getJdbcTemplate(), new CustomerRowMapper());
+        writeBehindQueueUnderTest = new CustomerWriteBehindQueue(
+                customerDao, new SimpleMeterRegistry(), true, journalDirectory, Duration.ofMinutes(1), 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehindQueueUnderTest.destroy();
+    }
+
+    @Test
+    void queuedUpdateSurvivesAnotherWriteBeforeTheFlush() {
+        Customer customer = new Customer("Alex", "alex-" + UUID.randomUUID() + "@write-behind.example.com", 19);
+        customerDao.insertCustomer(customer);
+        Customer update = new Customer(customer.getId(), "Alexander", null, null);
+        update.setVersion(customer.getVersion());
+        assertThat(writeBehindQueueUnderTest.enqueue(update, writeBehindQueueUnderTest.flushCount())).isTrue();
+
+        // another node writes the customer after the update was acknowledged
+        customerDao.updateCustomer(new Customer(customer.getId(), null, null, 30));
+        writeBehindQueueUnderTest.flush();
+
+        Customer stored = (Customer) customerDao.selectCustomerById(customer.getId()).orElseThrow();
+        assertThat(stored.getName()).isEqualTo("Alexander");
+        assertThat(stored.getAge()).isEqualTo(30);
+        assertThat(writeBehindQueueUnderTest.isPending(customer.getId())).isFalse();
+    }
+}
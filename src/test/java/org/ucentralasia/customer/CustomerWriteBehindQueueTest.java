@@ -0,0 +1,240 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CustomerWriteBehindQueueTest {
+
+    @Mock
+    private CustomerDao customerDao;
+    @TempDir
+    private Path journalDirectory;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private CustomerWriteBehindQueue writeBehindQueueUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        writeBehindQueueUnderTest = newQueue(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehindQueueUnderTest.destroy();
+    }
+
+    private CustomerWriteBehindQueue newQueue(int batchSize) {
+        return new CustomerWriteBehindQueue(customerDao, meterRegistry, true, journalDirectory, Duration.ofMinutes(1), batchSize);
+    }
+
+    private void enqueue(Customer update) {
+        assertThat(writeBehindQueueUnderTest.enqueue(update, writeBehindQueueUnderTest.flushCount())).isTrue();
+    }
+
+    private static Customer atVersion(Customer customer, long version) {
+        customer.setVersion(version);
+        return customer;
+    }
+
+    @Test
+    void collapsesUpdatesPerIdAndFlushesThemInBatches() {
+        when(customerDao.updateCustomers(anyList())).thenAnswer(invocation -> new int[invocation.<List<?>>getArgument(0).size()]);
+        enqueue(new Customer(1L, "Alex", null, null));
+        enqueue(new Customer(1L, null, null, 20));
+        enqueue(new Customer(1L, null, null, 21));
+        enqueue(new Customer(2L, "Bob", null, null));
+        enqueue(new Customer(3L, null, null, 40));
+
+        assertThat(writeBehindQueueUnderTest.isPending(1L)).isTrue();
+        assertThat(meterRegistry.get(CustomerWriteBehindQueue.PENDING).gauge().value()).isEqualTo(3);
+
+        writeBehindQueueUnderTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Customer>> captor = ArgumentCaptor.forClass(List.class);
+        verify(customerDao, times(2)).updateCustomers(captor.capture());
+        assertThat(captor.getAllValues().stream().flatMap(List::stream)).containsExactlyInAnyOrder(
+                new Customer(1L, "Alex", null, 21),
+                new Customer(2L, "Bob", null, null),
+                new Customer(3L, null, null, 40));
+        assertThat(writeBehindQueueUnderTest.isPending(1L)).isFalse();
+        assertThat(journals()).hasSize(1);
+    }
+
+    @Test
+    void overlayAppliesPendingFieldsToACopy() {
+        Customer stored = new Customer(1L, "Alex", "alex@gmail.com", 19);
+        stored.setVersion(4L);
+        enqueue(new Customer(1L, null, null, 20));
+
+        Customer overlaid = writeBehindQueueUnderTest.overlay(stored);
+
+        assertThat(overlaid).isEqualTo(new Customer(1L, "Alex", "alex@gmail.com", 20));
+        assertThat(overlaid.getVersion()).isNull();
+        assertThat(stored.getAge()).isEqualTo(19);
+    }
+
+    @Test
+    void failedFlushIsRetriedBeforeNewerUpdates() {
+        when(customerDao.updateCustomers(anyList()))
+                .thenThrow(new IllegalStateException("database is down"))
+                .thenReturn(new int[]{1})
+                .thenReturn(new int[]{1});
+        enqueue(new Customer(1L, null, null, 20));
+
+        assertThatThrownBy(writeBehindQueueUnderTest::flush).isInstanceOf(IllegalStateException.class);
+        enqueue(new Customer(2L, null, null, 30));
+        // the failed batch may have written customer 1 already, so its version is no longer known
+        assertThat(writeBehindQueueUnderTest.enqueue(new Customer(1L, null, null, 21), writeBehindQueueUnderTest.flushCount())).isFalse();
+        assertThat(writeBehindQueueUnderTest.overlay(new Customer(1L, "Alex", "alex@gmail.com", 19)).getAge()).isEqualTo(20);
+
+        writeBehindQueueUnderTest.flush();
+        writeBehindQueueUnderTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Customer>> captor = ArgumentCaptor.forClass(List.class);
+        verify(customerDao, times(3)).updateCustomers(captor.capture());
+        assertThat(captor.getAllValues()).containsExactly(
+                List.of(new Customer(1L, null, null, 20)),
+                List.of(new Customer(1L, null, null, 20)),
+                List.of(new Customer(2L, null, null, 30)));
+    }
+
+    @Test
+    void flushesTheVersionTheFirstPendingUpdateWasMadeAgainst() {
+        when(customerDao.updateCustomers(anyList())).thenReturn(new int[]{1});
+        enqueue(atVersion(new Customer(1L, "Alex", null, null), 4));
+        enqueue(atVersion(new Customer(1L, null, null, 20), 4));
+
+        // another node wrote the customer since the pending changes were made
+        assertThat(writeBehindQueueUnderTest.enqueue(atVersion(new Customer(1L, null, null, 21), 5),
+                writeBehindQueueUnderTest.flushCount())).isFalse();
+        writeBehindQueueUnderTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Customer>> captor = ArgumentCaptor.forClass(List.class);
+        verify(customerDao).updateCustomers(captor.capture());
+        assertThat(captor.getValue()).containsExactly(new Customer(1L, "Alex", null, 20));
+        assertThat(captor.getValue().get(0).getVersion()).isEqualTo(4);
+    }
+
+    @Test
+    void rowAtAnotherVersionIsWrittenWithoutTheCheck() {
+        when(customerDao.updateCustomers(anyList())).thenReturn(new int[]{0, 1}).thenReturn(new int[]{1});
+        enqueue(atVersion(new Customer(1L, "Alex", null, null), 4));
+        enqueue(atVersion(new Customer(2L, "Bob", null, null), 7));
+
+        writeBehindQueueUnderTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Customer>> captor = ArgumentCaptor.forClass(List.class);
+        verify(customerDao, times(2)).updateCustomers(captor.capture());
+        Customer moved = captor.getAllValues().get(0).get(0);
+        assertThat(captor.getAllValues().get(1)).containsExactly(moved);
+        assertThat(captor.getAllValues().get(1).get(0).getVersion()).isNull();
+    }
+
+    @Test
+    void refusesAnUpdateReadBeforeAFlush() {
+        when(customerDao.updateCustomers(anyList())).thenReturn(new int[]{1});
+        long readAt = writeBehindQueueUnderTest.flushCount();
+        enqueue(atVersion(new Customer(1L, "Alex", null, null), 4));
+
+        writeBehindQueueUnderTest.flush();
+
+        assertThat(writeBehindQueueUnderTest.enqueue(atVersion(new Customer(1L, null, null, 20), 4), readAt)).isFalse();
+        assertThat(writeBehindQueueUnderTest.isPending(1L)).isFalse();
+    }
+
+    @Test
+    void journalIsReplayedAfterARestart() {
+        enqueue(atVersion(new Customer(1L, "Alex", null, null), 4));
+        enqueue(atVersion(new Customer(1L, null, "alex@mail.ru", 20), 4));
+
+        // a second queue over the same directory sees what a crashed run left behind
+        CustomerWriteBehindQueue restarted = newQueue(2);
+        try {
+            assertThat(restarted.isPending(1L)).isTrue();
+            when(customerDao.updateCustomers(anyList())).thenReturn(new int[]{1});
+
+            restarted.flush();
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Customer>> captor = ArgumentCaptor.forClass(List.class);
+            verify(customerDao).updateCustomers(captor.capture());
+            assertThat(captor.getValue()).containsExactly(new Customer(1L, "Alex", "alex@mail.ru", 20));
+            assertThat(captor.getValue().get(0).getVersion()).isEqualTo(4);
+            assertThat(restarted.isPending(1L)).isFalse();
+        } finally {
+            restarted.destroy();
+        }
+    }
+
+    @Test
+    void replayStopsAtATornRecord() throws IOException {
+        Path journal = journalDirectory.resolve("0000000000000000007" + CustomerWriteBehindQueue.JOURNAL_SUFFIX);
+        Files.write(journal, CustomerWriteBehindQueue.encode(new Customer(1L, "Alex", null, null)).array());
+        byte[] torn = CustomerWriteBehindQueue.encode(new Customer(2L, "Bob", null, 30)).array();
+        Files.write(journal, Arrays.copyOf(torn, torn.length - 3), StandardOpenOption.APPEND);
+        Map<Long, Customer> updates = new HashMap<>();
+
+        CustomerWriteBehindQueue.replay(journal, updates);
+
+        assertThat(updates).containsOnlyKeys(1L);
+    }
+
+    @Test
+    void disabledQueueTouchesNothing() {
+        CustomerWriteBehindQueue disabled = new CustomerWriteBehindQueue(
+                customerDao, new SimpleMeterRegistry(), false, journalDirectory.resolve("disabled"), Duration.ofMinutes(1), 2);
+
+        disabled.flush();
+
+        assertThat(disabled.isPending(1L)).isFalse();
+        assertThatThrownBy(() -> disabled.enqueue(new Customer(1L, "Alex", null, null), 0))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(Files.exists(journalDirectory.resolve("disabled"))).isFalse();
+        verifyNoInteractions(customerDao);
+    }
+
+    @Test
+    void requiresAJournalDirectoryWhenEnabled() {
+        assertThatThrownBy(() -> new CustomerWriteBehindQueue(customerDao, meterRegistry, true, null, Duration.ofMinutes(1), 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("journal-directory");
+    }
+
+    private List<Path> journals() {
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            return files.toList();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
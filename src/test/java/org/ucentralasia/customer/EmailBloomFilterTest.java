@@ -0,0 +1,47 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmailBloomFilterTest {
+
+    @Test
+    void hasNoFalseNegatives() {
+        EmailBloomFilter filter = new EmailBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("customer-" + i + "@gmail.com");
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain("customer-" + i + "@gmail.com")).isTrue();
+        }
+        assertThat(filter.insertions()).isEqualTo(10_000);
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTarget() {
+        EmailBloomFilter filter = new EmailBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("customer-" + i + "@gmail.com");
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("stranger-" + i + "@gmail.com")) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives / 100_000.0).isLessThan(0.02);
+        assertThat(filter.expectedFalsePositiveProbability()).isBetween(0.005, 0.015);
+    }
+
+    @Test
+    void sizesBitsAndHashFunctionsFromExpectedInsertions() {
+        EmailBloomFilter filter = new EmailBloomFilter(1_000_000, 0.01);
+        // roughly 9.6 bits and 7 hash functions per element for a 1% rate
+        assertThat(filter.bitSize()).isBetween(9_500_000L, 9_700_000L);
+        assertThat(filter.bitSize() % 64).isZero();
+        assertThat(filter.hashFunctions()).isEqualTo(7);
+        assertThat(filter.memoryBytes()).isEqualTo(filter.bitSize() / 8);
+        assertThat(filter.mightContain("alex@gmail.com")).isFalse();
+    }
+}
@@ -0,0 +1,104 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.sql.Statement;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MeteredCustomerDaoTest {
+
+    @Mock
+    private CustomerDao delegate;
+    private SimpleMeterRegistry meterRegistry;
+    private MeteredCustomerDao underTest;
+
+    private final Customer customer = new Customer(1L, "Alex", "alex@gmail.com", 19);
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        underTest = new MeteredCustomerDao(delegate, "jdbc", meterRegistry);
+    }
+
+    private double rows(String method) {
+        return meterRegistry.get(MeteredCustomerDao.ROWS).tag("dao", "jdbc").tag("method", method).counter().count();
+    }
+
+    private long calls(String method) {
+        return meterRegistry.get(MeteredCustomerDao.TIMER).tag("dao", "jdbc").tag("method", method).timer().count();
+    }
+
+    @Test
+    void registersMetersForEveryDaoMethod() {
+        assertThat(meterRegistry.get(MeteredCustomerDao.TIMER).timers())
+                .hasSize(CustomerDao.class.getMethods().length);
+    }
+
+    @Test
+    void countsRowsReturnedByReads() {
+        when(delegate.selectCustomersAfterId(0L, 10)).thenReturn(List.of(customer, customer));
+        when(delegate.selectCustomerById(2L)).thenReturn(Optional.empty());
+
+        assertThat(underTest.selectCustomersAfterId(0L, 10)).hasSize(2);
+        underTest.selectCustomerById(2L);
+
+        assertThat(calls("selectCustomersAfterId")).isEqualTo(1);
+        assertThat(rows("selectCustomersAfterId")).isEqualTo(2);
+        assertThat(rows("selectCustomerById")).isZero();
+    }
+
+    @Test
+    void countsRowsStreamedByForEach() {
+        doAnswer(invocation -> {
+            Consumer<Customer> action = invocation.getArgument(0);
+            action.accept(customer);
+            action.accept(customer);
+            return null;
+        }).when(delegate).forEachCustomer(any());
+
+        underTest.forEachCustomer(ignored -> { });
+
+        assertThat(rows("forEachCustomer")).isEqualTo(2);
+    }
+
+    @Test
+    void countsRowsWrittenByBatchInsert() {
+        when(delegate.insertCustomers(anyList())).thenReturn(new int[]{1, 0, Statement.SUCCESS_NO_INFO});
+
+        underTest.insertCustomers(List.of(customer, customer, customer));
+
+        assertThat(rows("insertCustomers")).isEqualTo(2);
+    }
+
+    @Test
+    void countsErrorsByExceptionAndRethrows() {
+        when(delegate.updateCustomer(customer)).thenThrow(new DuplicateKeyException("customer_email_unique"));
+
+        assertThatThrownBy(() -> underTest.updateCustomer(customer)).isInstanceOf(DuplicateKeyException.class);
+
+        assertThat(calls("updateCustomer")).isEqualTo(1);
+        assertThat(meterRegistry.get(MeteredCustomerDao.ERRORS)
+                .tag("dao", "jdbc")
+                .tag("method", "updateCustomer")
+                .tag("exception", "DuplicateKeyException")
+                .counter()
+                .count()).isEqualTo(1);
+        assertThat(rows("updateCustomer")).isZero();
+    }
+}
@@ -0,0 +1,136 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.ucentralasia.customer.exception.RequestValidationException;
+import org.ucentralasia.exception.DublicateResourceException;
+import org.ucentralasia.exception.ResourseNotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveCustomerServiceTest {
+    @Mock
+    private ReactiveCustomerDao customerDao;
+    private ReactiveCustomerService underTest;
+
+    @BeforeEach
+    void setUp() {
+        underTest = new ReactiveCustomerService(customerDao);
+    }
+
+    @Test
+    void getCustomersReturnsNextCursorWhenMoreRowsExist() {
+        when(customerDao.selectCustomersAfterId(0L, 3)).thenReturn(Flux.just(
+                new Customer(1L, "Alex", "alex@gmail.com", 19),
+                new Customer(2L, "Bob", "bob@gmail.com", 20),
+                new Customer(3L, "Carl", "carl@gmail.com", 21)
+        ));
+
+        StepVerifier.create(underTest.getCustomers(null, 2))
+                .assertNext(page -> {
+                    assertThat(page.customers()).extracting(Customer::getId).containsExactly(1L, 2L);
+                    assertThat(page.nextCursor()).isEqualTo(2L);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getCustomersWithoutPagingParametersReturnsEveryCustomer() {
+        when(customerDao.selectCustomersAfterId(0L, Integer.MAX_VALUE)).thenReturn(Flux.just(
+                new Customer(1L, "Alex", "alex@gmail.com", 19),
+                new Customer(2L, "Bob", "bob@gmail.com", 20)
+        ));
+
+        StepVerifier.create(underTest.getCustomers(null, null))
+                .assertNext(page -> {
+                    assertThat(page.customers()).extracting(Customer::getId).containsExactly(1L, 2L);
+                    assertThat(page.nextCursor()).isNull();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getCustomersRejectsLimitAboveMaximum() {
+        StepVerifier.create(underTest.getCustomers(null, CustomerService.MAX_PAGE_SIZE + 1))
+                .expectError(RequestValidationException.class)
+                .verify();
+    }
+
+    @Test
+    void getCustomerSignalsNotFound() {
+        when(customerDao.selectCustomerById(1L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(underTest.getCustomer(1L))
+                .expectError(ResourseNotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    void addCustomerSignalsDuplicateWhenInsertIsSkipped() {
+        when(customerDao.insertCustomer(any())).thenReturn(Mono.just(false));
+
+        StepVerifier.create(underTest.addCustomer(new CustomerRegistrationRequest("Alex", "alex@gmail.com", 19)))
+                .expectError(DublicateResourceException.class)
+                .verify();
+    }
+
+    @Test
+    void deleteCustomerSignalsNotFound() {
+        when(customerDao.deleteCustomerById(1L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(underTest.deleteCustomer(1L))
+                .expectError(ResourseNotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    void updateCustomerCompletesWhenRowChanged() {
+        when(customerDao.updateCustomer(any())).thenReturn(Mono.just(true));
+
+        StepVerifier.create(underTest.updateCustomer(1L, new CustomerUpdateRequest("Alex", null, null)))
+                .verifyComplete();
+        verify(customerDao, never()).existsCustomerWithId(any());
+    }
+
+    @Test
+    void updateCustomerTellsMissingFromUnchanged() {
+        when(customerDao.updateCustomer(any())).thenReturn(Mono.just(false));
+        when(customerDao.existsCustomerWithId(1L)).thenReturn(Mono.just(true));
+        when(customerDao.existsCustomerWithId(2L)).thenReturn(Mono.just(false));
+
+        StepVerifier.create(underTest.updateCustomer(1L, new CustomerUpdateRequest("Alex", null, null)))
+                .expectError(RequestValidationException.class)
+                .verify();
+        StepVerifier.create(underTest.updateCustomer(2L, new CustomerUpdateRequest("Alex", null, null)))
+                .expectError(ResourseNotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    void updateCustomerMapsDuplicateKey() {
+        when(customerDao.updateCustomer(any())).thenReturn(Mono.error(new DuplicateKeyException("customer_email_unique")));
+
+        StepVerifier.create(underTest.updateCustomer(1L, new CustomerUpdateRequest(null, "taken@gmail.com", null)))
+                .expectError(DublicateResourceException.class)
+                .verify();
+    }
+
+    @Test
+    void updateCustomerRejectsEmptyRequest() {
+        StepVerifier.create(underTest.updateCustomer(1L, new CustomerUpdateRequest(null, null, null)))
+                .expectError(RequestValidationException.class)
+                .verify();
+    }
+}
@@ -0,0 +1,166 @@
+package org.ucentralasia.customer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReplicaDataSourceTest {
+
+    @Mock
+    private DataSource primary;
+    @Mock
+    private DataSource first;
+    @Mock
+    private DataSource second;
+    @Mock
+    private Connection primaryConnection;
+    @Mock
+    private Connection firstConnection;
+    @Mock
+    private Connection secondConnection;
+
+    private ReplicaDataSource replicaDataSource(ReplicaDataSource.Selection selection, DataSource... replicas) {
+        List<ReplicaDataSource.Replica> list = new ArrayList<>();
+        for (int i = 0; i < replicas.length; i++) {
+            list.add(new ReplicaDataSource.Replica("replica-" + i, replicas[i]));
+        }
+        return new ReplicaDataSource(primary, list, selection, Duration.ofSeconds(5));
+    }
+
+    private static void answersProbe(Connection connection, long delayMillis) throws SQLException {
+        Statement statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute("SELECT 1")).thenAnswer(invocation -> {
+            Thread.sleep(delayMillis);
+            return true;
+        });
+    }
+
+    @Test
+    void roundRobinAlternatesBetweenReplicas() throws SQLException {
+        // Given
+        when(first.getConnection()).thenReturn(firstConnection);
+        when(second.getConnection()).thenReturn(secondConnection);
+        ReplicaDataSource underTest = replicaDataSource(ReplicaDataSource.Selection.ROUND_ROBIN, first, second);
+
+        // When / Then
+        assertThat(List.of(
+                underTest.getConnection(),
+                underTest.getConnection(),
+                underTest.getConnection(),
+                underTest.getConnection()
+        )).containsExactly(firstConnection, secondConnection, firstConnection, secondConnection);
+        verifyNoInteractions(primary);
+    }
+
+    @Test
+    void skipsReplicasThatFailTheProbe() throws SQLException {
+        // Given
+        when(first.getConnection()).thenThrow(new SQLException("connection refused"));
+        when(second.getConnection()).thenReturn(secondConnection);
+        answersProbe(secondConnection, 0);
+        ReplicaDataSource underTest = replicaDataSource(ReplicaDataSource.Selection.ROUND_ROBIN, first, second);
+
+        // When
+        underTest.probe();
+
+        // Then
+        assertThat(underTest.getConnection()).isSameAs(secondConnection);
+        assertThat(underTest.getConnection()).isSameAs(secondConnection);
+        assertThat(underTest.getReplicas()).extracting(ReplicaDataSource.Replica::isUp).containsExactly(false, true);
+    }
+
+    @Test
+    void fallsBackToPrimaryWhenEveryReplicaIsDown() throws SQLException {
+        // Given
+        when(first.getConnection()).thenThrow(new SQLException("connection refused"));
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        ReplicaDataSource underTest = replicaDataSource(ReplicaDataSource.Selection.ROUND_ROBIN, first);
+
+        // When
+        Connection failedOver = underTest.getConnection();
+        Connection next = underTest.getConnection();
+
+        // Then
+        assertThat(failedOver).isSameAs(primaryConnection);
+        assertThat(next).isSameAs(primaryConnection);
+        // the failed replica is left alone until the probe sees it answer again
+        verify(first, times(1)).getConnection();
+    }
+
+    @Test
+    void leastLatencyPicksTheFastestReplica() throws SQLException {
+        // Given
+        when(first.getConnection()).thenReturn(firstConnection);
+        when(second.getConnection()).thenReturn(secondConnection);
+        answersProbe(firstConnection, 50);
+        answersProbe(secondConnection, 0);
+        ReplicaDataSource underTest = replicaDataSource(ReplicaDataSource.Selection.LEAST_LATENCY, first, second);
+
+        // When
+        underTest.probe();
+
+        // Then
+        assertThat(underTest.getConnection()).isSameAs(secondConnection);
+        assertThat(underTest.getConnection()).isSameAs(secondConnection);
+    }
+
+    @Test
+    void pinnedThreadReadsFromPrimary() throws SQLException {
+        // Given
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        ReplicaDataSource underTest = replicaDataSource(ReplicaDataSource.Selection.ROUND_ROBIN, first);
+
+        // When
+        Connection connection;
+        ReplicaDataSource.pinToPrimary();
+        try {
+            connection = underTest.getConnection();
+        } finally {
+            ReplicaDataSource.unpin();
+        }
+
+        // Then
+        assertThat(connection).isSameAs(primaryConnection);
+        assertThat(ReplicaDataSource.isPinnedToPrimary()).isFalse();
+        verifyNoInteractions(first);
+    }
+
+    @Test
+    void lazyProxySendsOnlyReadOnlyConnectionsToReplicas() throws SQLException {
+        // Given
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(first.getConnection()).thenReturn(firstConnection);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicaDataSource(ReplicaDataSource.Selection.ROUND_ROBIN, first));
+
+        // When
+        Connection readOnly = dataSource.getConnection();
+        readOnly.setReadOnly(true);
+        readOnly.createStatement();
+        Connection readWrite = dataSource.getConnection();
+        readWrite.createStatement();
+
+        // Then
+        verify(firstConnection).createStatement();
+        verify(primaryConnection).createStatement();
+    }
+}
@@ -0,0 +1,133 @@
+package org.ucentralasia.customer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RoutingCustomerDaoTest {
+
+    @Mock
+    private CustomerDao jdbc;
+    @Mock
+    private CustomerDao jpa;
+    private SimpleMeterRegistry meterRegistry;
+    private RoutingCustomerDao underTest;
+
+    private final Customer customer = new Customer(1L, "Alex", "alex@gmail.com", 19);
+
+    private RoutingCustomerDao routingDao(Map<String, String> operations, String shadow, double shadowSampleRate) {
+        return new RoutingCustomerDao(jdbc, jpa,
+                new CustomerDaoRoutingProperties("jdbc", operations, shadow, shadowSampleRate), meterRegistry);
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (underTest != null) {
+            underTest.destroy();
+        }
+    }
+
+    private double shadowComparisons(String outcome) {
+        return meterRegistry.find(RoutingCustomerDao.SHADOW_COMPARISONS).tag("outcome", outcome).counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    @Test
+    void routesEachOperationToItsConfiguredBackend() {
+        underTest = routingDao(Map.of("updateCustomer", "jpa"), null, 0);
+        when(jpa.updateCustomer(customer)).thenReturn(true);
+        when(jdbc.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+
+        assertThat(underTest.updateCustomer(customer)).isTrue();
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+
+        verify(jdbc, never()).updateCustomer(customer);
+        verify(jpa, never()).selectCustomerById(1L);
+    }
+
+    @Test
+    void routeCanBeChangedAtRuntime() {
+        underTest = routingDao(Map.of(), null, 0);
+        when(jpa.existsCustomerWithId(1L)).thenReturn(true);
+
+        underTest.route("existsCustomerWithId", "jpa");
+        assertThat(underTest.existsCustomerWithId(1L)).isTrue();
+        assertThat(underTest.routing().effectiveRoutes())
+                .containsEntry("existsCustomerWithId", "jpa")
+                .containsEntry("selectCustomerById", "jdbc");
+
+        underTest.route("existsCustomerWithId", null);
+        underTest.existsCustomerWithId(1L);
+        verify(jdbc).existsCustomerWithId(1L);
+    }
+
+    @Test
+    void rejectsUnknownBackendsAndOperations() {
+        underTest = routingDao(Map.of(), null, 0);
+
+        assertThatThrownBy(() -> underTest.route("selectCustomerById", "mongo"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> underTest.route("dropTable", "jpa"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> underTest.configure(null, null, 2.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(underTest.routing().defaultBackend()).isEqualTo("jdbc");
+    }
+
+    @Test
+    void shadowReadsAreComparedWithThePrimaryResult() {
+        underTest = routingDao(Map.of(), "jpa", 1.0);
+        when(jdbc.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+        when(jpa.selectCustomerById(1L)).thenReturn(Optional.of(customer));
+        when(jdbc.selectAllCustomers()).thenReturn(List.of(customer, new Customer(2L, "Bob", "bob@gmail.com", 20)));
+        when(jpa.selectAllCustomers()).thenReturn(List.of(new Customer(2L, "Bob", "bob@gmail.com", 20), customer));
+        when(jdbc.existsCustomerWithId(1L)).thenReturn(true);
+        when(jpa.existsCustomerWithId(1L)).thenReturn(false);
+
+        assertThat(underTest.selectCustomerById(1L)).contains(customer);
+        underTest.selectAllCustomers();
+        underTest.existsCustomerWithId(1L);
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            assertThat(shadowComparisons("match")).isEqualTo(2);
+            assertThat(shadowComparisons("mismatch")).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void writesAreNeverShadowed() {
+        underTest = routingDao(Map.of(), "jpa", 1.0);
+        when(jdbc.insertCustomer(customer)).thenReturn(true);
+
+        underTest.insertCustomer(customer);
+        underTest.updateCustomer(customer);
+        underTest.deleteCustomerById(1L);
+
+        verifyNoInteractions(jpa);
+    }
+}
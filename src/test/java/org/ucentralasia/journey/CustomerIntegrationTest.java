@@ -4,28 +4,71 @@ import com.github.javafaker.Faker;
 import com.github.javafaker.Name;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.ucentralasia.customer.Customer;
+import org.ucentralasia.customer.CustomerChange;
+import org.ucentralasia.customer.CustomerChangePage;
+import org.ucentralasia.customer.CustomerImportResult;
 import org.ucentralasia.customer.CustomerRegistrationRequest;
+import org.ucentralasia.customer.CustomerRegistrationResult;
+import org.ucentralasia.customer.CustomerStats;
 import org.ucentralasia.customer.CustomerUpdateRequest;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
+@AutoConfigureObservability
 public class CustomerIntegrationTest {
     @Autowired
     private WebTestClient webTestClient;
     private static final Random random = new Random();
     private static final String customerURI = "/api/v1/customers";
+
+    private List<Customer> getAllCustomers() {
+        List<Customer> customers = new ArrayList<>();
+        String cursor = null;
+        do {
+            String after = cursor;
+            EntityExchangeResult<List<Customer>> page = webTestClient.get()
+                    .uri(uriBuilder -> uriBuilder
+                            .path(customerURI)
+                            .queryParamIfPresent("after", Optional.ofNullable(after))
+                            .queryParam("limit", 1000)
+                            .build())
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBodyList(new ParameterizedTypeReference<Customer>() {
+
+                    })
+                    .returnResult();
+            customers.addAll(page.getResponseBody());
+            cursor = page.getResponseHeaders().getFirst("X-Next-Cursor");
+        } while (cursor != null);
+        return customers;
+    }
+
     @Test
     void canRegisterACustomer() {
         Faker faker = new Faker();
@@ -44,17 +87,7 @@ public class CustomerIntegrationTest {
                 .isOk();
 
         // get all customers
-        List<Customer> allCustomers = webTestClient.get()
-                .uri(customerURI)
-                .accept(MediaType.APPLICATION_JSON)
-                .exchange()
-                .expectStatus()
-                .isOk()
-                .expectBodyList(new ParameterizedTypeReference<Customer>() {
-
-                })
-                .returnResult()
-                .getResponseBody();
+        List<Customer> allCustomers = getAllCustomers();
         // make sure that customer is present
         Customer expectedCustomer = new Customer(name, email, age);
 
@@ -97,17 +130,7 @@ public class CustomerIntegrationTest {
                 .isOk();
 
         // get all customers
-        List<Customer> allCustomers = webTestClient.get()
-                .uri(customerURI)
-                .accept(MediaType.APPLICATION_JSON)
-                .exchange()
-                .expectStatus()
-                .isOk()
-                .expectBodyList(new ParameterizedTypeReference<Customer>() {
-
-                })
-                .returnResult()
-                .getResponseBody();
+        List<Customer> allCustomers = getAllCustomers();
         // get Customer by id
         long id = allCustomers.stream()
                 .filter(c -> c.getEmail().equals(email))
@@ -148,17 +171,7 @@ public class CustomerIntegrationTest {
                 .isOk();
 
         // get all customers
-        List<Customer> allCustomers = webTestClient.get()
-                .uri(customerURI)
-                .accept(MediaType.APPLICATION_JSON)
-                .exchange()
-                .expectStatus()
-                .isOk()
-                .expectBodyList(new ParameterizedTypeReference<Customer>() {
-
-                })
-                .returnResult()
-                .getResponseBody();
+        List<Customer> allCustomers = getAllCustomers();
         // get Customer by id
         long id = allCustomers.stream()
                 .filter(c -> c.getEmail().equals(email))
@@ -191,4 +204,512 @@ public class CustomerIntegrationTest {
         assertThat(updatedCustomer).isEqualTo(expected);
     }
 
+    @Test
+    void canExportCustomers() {
+        Faker faker = new Faker();
+        Name fakerName = faker.name();
+        String name = fakerName.fullName();
+        String email = fakerName.lastName()+ UUID.randomUUID()+"@foobarhello123.com";
+        int age = random.nextInt(100);
+        CustomerRegistrationRequest request = new CustomerRegistrationRequest(name, email, age);
+        webTestClient.post()
+                .uri(customerURI)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(request), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        // export streams one JSON document per line
+        List<Customer> exported = webTestClient.get()
+                .uri(customerURI + "/export")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(Customer.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(exported)
+                .usingRecursiveFieldByFieldElementComparatorIgnoringFields("id")
+                .contains(new Customer(name, email, age));
+
+        String raw = webTestClient.get()
+                .uri(customerURI + "/export")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        assertThat(raw).isNotNull().endsWith("\n");
+        assertThat(raw.split("\n")).allSatisfy(line -> assertThat(line).startsWith("{"));
+    }
+
+    @Test
+    void canRegisterCustomersInBulk() {
+        Faker faker = new Faker();
+        Name fakerName = faker.name();
+        String name = fakerName.fullName();
+        String email = fakerName.lastName()+ UUID.randomUUID()+"@foobarhello123.com";
+        int age = random.nextInt(100);
+        List<CustomerRegistrationRequest> requests = List.of(
+                new CustomerRegistrationRequest(name, email, age),
+                new CustomerRegistrationRequest(name, email, age),
+                new CustomerRegistrationRequest(name, null, age)
+        );
+
+        List<CustomerRegistrationResult> results = webTestClient.post()
+                .uri(customerURI + "/bulk")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requests)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(CustomerRegistrationResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(results).extracting(CustomerRegistrationResult::status).containsExactly(
+                CustomerRegistrationResult.Status.CREATED,
+                CustomerRegistrationResult.Status.DUPLICATE,
+                CustomerRegistrationResult.Status.INVALID
+        );
+        assertThat(getAllCustomers())
+                .usingRecursiveFieldByFieldElementComparatorIgnoringFields("id")
+                .contains(new Customer(name, email, age));
+    }
+
+    @Test
+    void canSearchCustomersPageByPage() {
+        String tag = UUID.randomUUID().toString();
+        List<CustomerRegistrationRequest> requests = List.of(
+                new CustomerRegistrationRequest("Old " + tag, tag + "-old@foobarhello123.com", 70),
+                new CustomerRegistrationRequest("Young " + tag, tag + "-young@foobarhello123.com", 20),
+                new CustomerRegistrationRequest("Middle " + tag, tag + "-middle@foobarhello123.com", 45)
+        );
+        webTestClient.post()
+                .uri(customerURI + "/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requests)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        EntityExchangeResult<List<Customer>> first = webTestClient.get()
+                .uri(customerURI + "/search?email={email}&minAge=30&sort=-age&limit=1", tag.toUpperCase())
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .returnResult();
+        String cursor = first.getResponseHeaders().getFirst("X-Next-Cursor");
+        List<Customer> second = webTestClient.get()
+                .uri(customerURI + "/search?email={email}&minAge=30&sort=-age&limit=1&after={after}", tag, cursor)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(first.getResponseBody()).extracting(Customer::getName).containsExactly("Old " + tag);
+        assertThat(cursor).endsWith(":" + first.getResponseBody().get(0).getId()).startsWith("70:");
+        assertThat(second).extracting(Customer::getName).containsExactly("Middle " + tag);
+
+        webTestClient.get()
+                .uri(customerURI + "/search?name=ab")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void canImportCustomersFromCsv() {
+        Faker faker = new Faker();
+        Name fakerName = faker.name();
+        String name = fakerName.fullName();
+        String email = fakerName.lastName()+ UUID.randomUUID()+"@foobarhello123.com";
+        int age = random.nextInt(100);
+        String csv = """
+                name,email,age
+                "%s",%s,%s
+                """.formatted(name, email, age);
+
+        CustomerImportResult result = webTestClient.post()
+                .uri(customerURI + "/import")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .bodyValue(csv)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(CustomerImportResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(result.rowsImported()).isEqualTo(1);
+        assertThat(getAllCustomers())
+                .usingRecursiveFieldByFieldElementComparatorIgnoringFields("id")
+                .contains(new Customer(name, email, age));
+    }
+
+    @Test
+    void exposesDaoMetricsTaggedByImplementation() {
+        webTestClient.get()
+                .uri(customerURI + "/{id}", -1)
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+
+        // the histogram buckets make the scrape larger than the default 256 KB codec buffer
+        String scrape = webTestClient.mutate()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build()
+                .get()
+                .uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(scrape)
+                .contains("customer_dao_seconds_bucket{")
+                .contains("dao=\"jdbc\"")
+                .contains("method=\"selectCustomerById\"")
+                .contains("customer_service_seconds_count{")
+                .contains("hikaricp_connections_pending")
+                .contains("cache_gets_total")
+                .contains("http_server_requests_seconds_bucket{");
+    }
+
+    @Test
+    void canSwitchDaoBackendAtRuntime() {
+        webTestClient.post()
+                .uri("/actuator/customerdao/selectCustomersAfterId")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("backend", "jpa"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.routes.selectCustomersAfterId").isEqualTo("jpa")
+                .jsonPath("$.routes.selectCustomerById").isEqualTo("jdbc");
+        try {
+            assertThat(getAllCustomers()).isNotEmpty();
+        } finally {
+            webTestClient.delete()
+                    .uri("/actuator/customerdao/selectCustomersAfterId")
+                    .exchange()
+                    .expectStatus()
+                    .isOk();
+        }
+
+        webTestClient.post()
+                .uri("/actuator/customerdao/selectCustomersAfterId")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("backend", "mongo"))
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    private CustomerStats getStatistics() {
+        return webTestClient.get()
+                .uri(customerURI + "/stats")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(CustomerStats.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Test
+    void statisticsFollowRegistrationsAndDeletes() {
+        CustomerStats before = getStatistics();
+        String email = UUID.randomUUID() + "@stats.example.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex Smith", email, 47)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        CustomerStats afterInsert = getStatistics();
+        assertThat(afterInsert.total()).isEqualTo(before.total() + 1);
+        assertThat(afterInsert.ageHistogram().get("40-49")).isEqualTo(before.ageHistogram().get("40-49") + 1);
+
+        long id = getAllCustomers().stream()
+                .filter(c -> c.getEmail().equals(email))
+                .map(Customer::getId)
+                .findFirst()
+                .orElseThrow();
+        webTestClient.delete()
+                .uri(customerURI + "/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        assertThat(getStatistics().total()).isEqualTo(before.total());
+
+        webTestClient.get()
+                .uri(customerURI + "/stats?domains=-1")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    private CustomerChangePage getChanges(long since, int wait) {
+        return webTestClient.get()
+                .uri(customerURI + "/changes?since={since}&limit=1000&wait={wait}", since, wait)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(CustomerChangePage.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Test
+    void changesFeedDeliversRegistrationsAndDeletes() {
+        long since = 0;
+        for (CustomerChangePage page = getChanges(since, 0); !page.changes().isEmpty(); page = getChanges(since, 0)) {
+            since = page.next();
+        }
+        String email = UUID.randomUUID() + "@changes.example.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex Smith", email, 47)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        CustomerChangePage created = getChanges(since, 5);
+        assertThat(created.changes()).extracting(CustomerChange::email).contains(email);
+        CustomerChange event = created.changes().stream().filter(c -> c.email().equals(email)).findFirst().orElseThrow();
+        assertThat(event.type()).isEqualTo(CustomerChange.Type.CREATED);
+
+        webTestClient.delete()
+                .uri(customerURI + "/{id}", event.customerId())
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        assertThat(getChanges(created.next(), 5).changes())
+                .extracting(CustomerChange::customerId, CustomerChange::type)
+                .contains(tuple(event.customerId(), CustomerChange.Type.DELETED));
+
+        webTestClient.get()
+                .uri(customerURI + "/changes?since={since}", Long.MAX_VALUE)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GONE);
+    }
+
+    @Test
+    void eventStreamPushesRegistrations() {
+        Flux<ServerSentEvent<String>> events = webTestClient.get()
+                .uri(customerURI + "/events")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody();
+        String email = UUID.randomUUID() + "@events.example.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex Smith", email, 47)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        ServerSentEvent<String> created = events
+                .filter(event -> "created".equals(event.event()) && event.data() != null && event.data().contains(email))
+                .blockFirst(Duration.ofSeconds(10));
+
+        assertThat(created).isNotNull();
+        assertThat(created.id()).isNotBlank();
+    }
+
+    @Test
+    void eventStreamPushesBulkRegistrationsWithTheirIds() {
+        Flux<ServerSentEvent<String>> events = webTestClient.get()
+                .uri(customerURI + "/events")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody();
+        String email = UUID.randomUUID() + "@bulk-events.example.com";
+        webTestClient.post()
+                .uri(customerURI + "/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(new CustomerRegistrationRequest("Alex Smith", email, 47)))
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        ServerSentEvent<String> created = events
+                .filter(event -> "created".equals(event.event()) && event.data() != null && event.data().contains(email))
+                .blockFirst(Duration.ofSeconds(10));
+
+        assertThat(created).isNotNull();
+        long id = getAllCustomers().stream()
+                .filter(c -> c.getEmail().equals(email))
+                .map(Customer::getId)
+                .findFirst()
+                .orElseThrow();
+        assertThat(created.data()).contains("\"id\":" + id + ",");
+    }
+
+    @Test
+    void conditionalGetsAreAnsweredWithNotModified() {
+        String email = UUID.randomUUID() + "@etag.example.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex Smith", email, 31)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+        long id = getAllCustomers().stream()
+                .filter(c -> c.getEmail().equals(email))
+                .map(Customer::getId)
+                .findFirst()
+                .orElseThrow();
+
+        String eTag = webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .exists(HttpHeaders.LAST_MODIFIED)
+                .returnResult(Customer.class)
+                .getResponseHeaders()
+                .getETag();
+        assertThat(eTag).isEqualTo("\"1\"");
+        webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectBody()
+                .isEmpty();
+
+        webTestClient.put()
+                .uri(customerURI + "/{id}", id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest(null, null, 32))
+                .exchange()
+                .expectStatus()
+                .isOk();
+        webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, "\"2\"")
+                .expectBody(Customer.class)
+                .value(customer -> assertThat(customer.getAge()).isEqualTo(32));
+
+        String pageETag = webTestClient.get()
+                .uri(customerURI + "?after={after}&limit=1", id - 1)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(Customer.class)
+                .getResponseHeaders()
+                .getETag();
+        assertThat(pageETag).isNotNull();
+        webTestClient.get()
+                .uri(customerURI + "?after={after}&limit=1", id - 1)
+                .header(HttpHeaders.IF_NONE_MATCH, pageETag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+    }
+
+    @Test
+    void updatesWithIfMatchDoNotOverwriteEachOther() {
+        String email = UUID.randomUUID() + "@if-match.example.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex Smith", email, 31)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+        long id = getAllCustomers().stream()
+                .filter(c -> c.getEmail().equals(email))
+                .map(Customer::getId)
+                .findFirst()
+                .orElseThrow();
+        String eTag = webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(Customer.class)
+                .getResponseHeaders()
+                .getETag();
+
+        // two clients edit the version they both read; the second one is told instead of overwriting
+        String nextETag = webTestClient.put()
+                .uri(customerURI + "/{id}", id)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest("Alexander Smith", null, null))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(Void.class)
+                .getResponseHeaders()
+                .getETag();
+        assertThat(nextETag).isNotEqualTo(eTag);
+        webTestClient.put()
+                .uri(customerURI + "/{id}", id)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest("Sasha Smith", null, null))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(412);
+        webTestClient.put()
+                .uri(customerURI + "/{id}", id)
+                .header(HttpHeaders.IF_MATCH, "W/" + nextETag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest("Sasha Smith", null, null))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(412);
+
+        webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, nextETag)
+                .expectBody(Customer.class)
+                .value(customer -> assertThat(customer.getName()).isEqualTo("Alexander Smith"));
+    }
 }
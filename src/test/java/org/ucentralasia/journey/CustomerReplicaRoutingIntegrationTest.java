@@ -0,0 +1,154 @@
+package org.ucentralasia.journey;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.ucentralasia.customer.Customer;
+import org.ucentralasia.customer.CustomerRegistrationRequest;
+import org.ucentralasia.customer.CustomerUpdateRequest;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * Runs against the usual local primary plus a second, empty Postgres as the replica. Without replication between
+ * the two, a read that finds a freshly registered customer must have been served by the primary, and rows copied
+ * into the replica by hand play a replica that lags behind.
+ */
+@Testcontainers
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+class CustomerReplicaRoutingIntegrationTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> replica = new PostgreSQLContainer<>("postgres:15")
+            .withDatabaseName("customer")
+            .withUsername("replica")
+            .withPassword("replica");
+
+    @BeforeAll
+    static void migrateReplica() {
+        Flyway.configure()
+                .dataSource(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword())
+                .load()
+                .migrate();
+    }
+
+    @DynamicPropertySource
+    private static void registerReplica(DynamicPropertyRegistry registry) {
+        registry.add("customer.datasource.replicas[0].url", replica::getJdbcUrl);
+        registry.add("customer.datasource.replicas[0].username", replica::getUsername);
+        registry.add("customer.datasource.replicas[0].password", replica::getPassword);
+    }
+
+    @Autowired
+    private WebTestClient webTestClient;
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    private static final String customerURI = "/api/v1/customers";
+
+    @Test
+    void readsGoToTheReplicaExceptRightAfterAWrite() {
+        // Given
+        String email = "replica-" + UUID.randomUUID() + "@foobarhello123.com";
+        CustomerRegistrationRequest request = new CustomerRegistrationRequest("Alex", email, 30);
+
+        // When
+        ResponseCookie pin = webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(request), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(Void.class)
+                .getResponseCookies()
+                .getFirst("customer-primary-until");
+
+        // Then
+        assertThat(pin).isNotNull();
+
+        webTestClient.get()
+                .uri(customerURI + "/search?email={email}", email)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .hasSize(0);
+
+        webTestClient.get()
+                .uri(customerURI + "/search?email={email}", email)
+                .cookie(pin.getName(), pin.getValue())
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .value(customers -> assertThat(customers).extracting(Customer::getEmail).containsExactly(email));
+    }
+
+    @Test
+    void aLaggingReplicaNeverFillsTheCustomerCache() {
+        // Given a customer the replica only knows in an older state
+        String email = "lagging-" + UUID.randomUUID() + "@foobarhello123.com";
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new CustomerRegistrationRequest("Alex", email, 30)), CustomerRegistrationRequest.class)
+                .exchange()
+                .expectStatus()
+                .isOk();
+        Long id = new JdbcTemplate(primaryDataSource)
+                .queryForObject("SELECT id FROM customer WHERE email = ?", Long.class, email);
+        new JdbcTemplate(new DriverManagerDataSource(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword()))
+                .update("INSERT INTO customer (id, name, email, age) VALUES (?, ?, ?, ?)", id, "Alex", email, 30);
+
+        // When it is renamed on the primary
+        ResponseCookie pin = webTestClient.put()
+                .uri(customerURI + "/{id}", id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest("Alexander", null, null))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(Void.class)
+                .getResponseCookies()
+                .getFirst("customer-primary-until");
+        assertThat(pin).isNotNull();
+
+        // Then a reader without the cookie does not cache the replica's row, and the writer reads its own change
+        webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Customer.class)
+                .value(customer -> assertThat(customer.getName()).isEqualTo("Alexander"));
+
+        webTestClient.get()
+                .uri(customerURI + "/{id}", id)
+                .cookie(pin.getName(), pin.getValue())
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Customer.class)
+                .value(customer -> assertThat(customer.getName()).isEqualTo("Alexander"));
+    }
+}
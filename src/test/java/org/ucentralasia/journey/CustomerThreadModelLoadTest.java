@@ -0,0 +1,124 @@
+package org.ucentralasia.journey;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.ucentralasia.AbstractTestcontainersUnitTest;
+import org.ucentralasia.Main;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rough throughput and latency comparison between Tomcat's platform-thread pool and virtual threads. Both runs
+ * use the same Hikari pool size and more concurrent clients than Tomcat has platform threads, against the
+ * Testcontainers database. Only runs with {@code mvn -Pload test}.
+ */
+@Tag("load")
+@EnabledForJreRange(min = JRE.JAVA_21)
+class CustomerThreadModelLoadTest extends AbstractTestcontainersUnitTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerThreadModelLoadTest.class);
+
+    private static final int CLIENTS = 400;
+    private static final int WARM_UP_REQUESTS = 1_000;
+    private static final int REQUESTS = 10_000;
+    private static final int POOL_SIZE = 10;
+
+    @Test
+    void compareThroughputAndLatency() throws Exception {
+        LoadResult platform = runLoad(false);
+        LoadResult virtual = runLoad(true);
+
+        platform.log("platform threads");
+        virtual.log("virtual threads");
+
+        assertThat(platform.errors()).isZero();
+        assertThat(virtual.errors()).isZero();
+    }
+
+    private LoadResult runLoad(boolean virtualThreads) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Main.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + postgreSQLContainer.getJdbcUrl(),
+                "--spring.datasource.username=" + postgreSQLContainer.getUsername(),
+                "--spring.datasource.password=" + postgreSQLContainer.getPassword(),
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.datasource.hikari.maximum-pool-size=" + POOL_SIZE,
+                "--spring.jpa.show-sql=false")) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            URI uri = URI.create("http://localhost:" + port + "/api/v1/customers?limit=20");
+            sendRequests(uri, WARM_UP_REQUESTS);
+            return sendRequests(uri, REQUESTS);
+        }
+    }
+
+    private LoadResult sendRequests(URI uri, int requests) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>(CLIENTS);
+            for (int c = 0; c < CLIENTS; c++) {
+                futures.add(clients.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            return new LoadResult(
+                    requests / seconds,
+                    latencies[requests / 2] / 1e6,
+                    latencies[requests * 99 / 100] / 1e6,
+                    errors.get()
+            );
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private record LoadResult(double requestsPerSecond, double p50Millis, double p99Millis, int errors) {
+
+        void log(String mode) {
+            log.info("{}: {} req/sec, p50 {} ms, p99 {} ms, {} errors", mode, Math.round(requestsPerSecond),
+                    String.format("%.1f", p50Millis), String.format("%.1f", p99Millis), errors);
+        }
+    }
+}
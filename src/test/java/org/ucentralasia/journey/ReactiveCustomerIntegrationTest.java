@@ -0,0 +1,135 @@
+package org.ucentralasia.journey;
+
+import com.github.javafaker.Faker;
+import com.github.javafaker.Name;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.ucentralasia.customer.Customer;
+import org.ucentralasia.customer.CustomerRegistrationRequest;
+import org.ucentralasia.customer.CustomerUpdateRequest;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+@ActiveProfiles("reactive")
+public class ReactiveCustomerIntegrationTest {
+    @Autowired
+    private WebTestClient webTestClient;
+    private static final Random random = new Random();
+    private static final String customerURI = "/api/v1/customers";
+
+    private Customer registerCustomer() {
+        Name fakerName = new Faker().name();
+        String name = fakerName.fullName();
+        String email = fakerName.lastName() + UUID.randomUUID() + "@foobarhello123.com";
+        int age = random.nextInt(100);
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerRegistrationRequest(name, email, age))
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        List<Customer> exported = webTestClient.get()
+                .uri(customerURI + "/export")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .returnResult()
+                .getResponseBody();
+        return exported.stream()
+                .filter(c -> c.getEmail().equals(email))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void canRegisterUpdateAndDeleteACustomer() {
+        Customer customer = registerCustomer();
+
+        webTestClient.get()
+                .uri(customerURI + "/{id}", customer.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Customer.class)
+                .isEqualTo(customer);
+
+        webTestClient.put()
+                .uri(customerURI + "/{id}", customer.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerUpdateRequest("New Name", null, null))
+                .exchange()
+                .expectStatus()
+                .isOk();
+        webTestClient.get()
+                .uri(customerURI + "/{id}", customer.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Customer.class)
+                .isEqualTo(new Customer(customer.getId(), "New Name", customer.getEmail(), customer.getAge()));
+
+        webTestClient.delete()
+                .uri(customerURI + "/{id}", customer.getId())
+                .exchange()
+                .expectStatus()
+                .isOk();
+        webTestClient.get()
+                .uri(customerURI + "/{id}", customer.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
+    @Test
+    void registeringATakenEmailIsAConflict() {
+        Customer customer = registerCustomer();
+
+        webTestClient.post()
+                .uri(customerURI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CustomerRegistrationRequest("Other", customer.getEmail(), 30))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(409);
+    }
+
+    @Test
+    void canPageThroughCustomers() {
+        Customer customer = registerCustomer();
+
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path(customerURI)
+                        .queryParam("after", customer.getId() - 1)
+                        .queryParam("limit", 1)
+                        .build())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Customer.class)
+                .contains(customer);
+        webTestClient.get()
+                .uri(customerURI + "?limit=0")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+}